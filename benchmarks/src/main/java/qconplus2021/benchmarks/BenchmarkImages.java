@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Synthetic input images, so the benchmarks do not depend on /tmp/image.jpg and the image size can be a parameter.
+ */
+final class BenchmarkImages {
+
+    private static final long SEED = 42;
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Square RGB image: colour gradients plus noise, generated from a fixed seed so every run sees the same data.
+     */
+    static BufferedImage createImage(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(SEED);
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                int red = (i * 255 / size + random.nextInt(32)) & 0xFF;
+                int green = (j * 255 / size + random.nextInt(32)) & 0xFF;
+                int blue = random.nextInt(256);
+                image.setRGB(i, j, (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+}
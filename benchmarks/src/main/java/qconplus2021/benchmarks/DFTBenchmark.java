@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import qconplus2021.samples.DFT;
+import qconplus2021.samples.Implementation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DFT with the same input signal as {@link DFT#main}, on the backend of the implementation: SEQUENTIAL and MT run on
+ * the JVM; TORNADO_LOOP and TORNADO_KERNEL need TornadoVM ({@code -p implementation=TORNADO_LOOP}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DFTBenchmark {
+
+    @Param({ "1024", "8192" })
+    public int size;
+
+    @Param({ "SEQUENTIAL", "MT" })
+    public Implementation implementation;
+
+    private DFT dft;
+
+    @Setup
+    public void setup() {
+        dft = new DFT(implementation, size);
+    }
+
+    @Benchmark
+    public void dft(Blackhole blackhole) {
+        dft.compute();
+        blackhole.consume(dft);
+    }
+}
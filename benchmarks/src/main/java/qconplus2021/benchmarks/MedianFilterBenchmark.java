@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.MedianFilter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One median filter (the three channels) per invocation. The time of the constant-time versions should not depend on
+ * the radius. The Tornado implementations are not in the default parameter list, use
+ * {@code -p implementation=TORNADO_LOOP,TORNADO_KERNEL -p radius=2,5} on a machine with TornadoVM (see the README).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MedianFilterBenchmark {
+
+    @Param({ "256", "1024" })
+    public int size;
+
+    @Param({ "2", "15" })
+    public int radius;
+
+    @Param({ "SEQUENTIAL", "MT" })
+    public Implementation implementation;
+
+    private MedianFilter medianFilter;
+
+    @Setup
+    public void setup() {
+        medianFilter = new MedianFilter(implementation, BenchmarkImages.createImage(size), radius, MedianFilter.DEFAULT_PERCENTILE);
+    }
+
+    @Benchmark
+    public void median(Blackhole blackhole) {
+        medianFilter.compute();
+        blackhole.consume(medianFilter);
+    }
+}
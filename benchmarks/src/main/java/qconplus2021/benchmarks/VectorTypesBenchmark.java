@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.VectorTypes;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vector operations with {@code VectorFloat4}. SEQUENTIAL runs the loop-parallel kernel on the JVM, TORNADO_LOOP the
+ * same kernel with TornadoVM and TORNADO_KERNEL the Kernel API version (a subtraction).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class VectorTypesBenchmark {
+
+    @Param({ "8192", "1048576" })
+    public int size;
+
+    @Param({ "SEQUENTIAL" })
+    public Implementation implementation;
+
+    private VectorTypes vectorTypes;
+
+    @Setup
+    public void setup() {
+        vectorTypes = new VectorTypes(implementation, size);
+    }
+
+    @Benchmark
+    public void vectorAdd(Blackhole blackhole) {
+        vectorTypes.compute();
+        blackhole.consume(vectorTypes.getOutput());
+    }
+}
@@ -9,12 +9,74 @@ tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter
 ## Multi-thread with Java Streams
 tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter --mt
 
+## Fixed-point weights and integer arithmetic (falls back to float weights if the error could exceed one level)
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter --mt --fixed
+
+## Multi-thread frequency-domain convolution (FFT), falls back to --mt for small filters
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter --fft
+
 # With TornadoVM using the Loop Parallel API
 tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter --tornado 
 
 # With TornadoVM using the Parallel Kernel API
 tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter --tornadoContext
 
+# Backend with the lowest predicted time for the image size
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter --auto
+
+# CPU-only build (mvn -P cpu package), on any JVM
+java -cp target/qconplus2021-1.0-SNAPSHOT-cpu.jar qconplus2021.samples.BlurFilter --mt
+
+# On-disk result cache: repeated runs over the same image skip decode, compute and encode
+tornado -Dcache=true -Dcache.dir=/tmp/results -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter --tornado --iterations=10
+
+# JFR recording of the phases and kernels, summarised per phase
+tornado -XX:StartFlightRecording=filename=/tmp/blur.jfr -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter --tornado --iterations=50
+java -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.jfr.JfrSummary /tmp/blur.jfr
+
+
+###################################################################
+# Median Filter (constant-time rank filter)
+###################################################################
+
+## 31x31 median, stripes in parallel
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.MedianFilter --mt
+
+## Small radius on the accelerator (radius <= 5), 90th percentile
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.MedianFilter --tornado --radius=2 --percentile=90
+
+
+###################################################################
+# Edge Detection (grayscale -> blur -> Sobel, fused per tile)
+###################################################################
+
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.EdgeDetection --mt
+
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.EdgeDetection --tornadoContext --filterWidth=9
+
+## Unfused reference, full-size intermediates
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.EdgeDetection --separate
+
+
+###################################################################
+# Frame streams (raw RGB frames, e.g. ffmpeg -f rawvideo -pix_fmt rgb24)
+###################################################################
+
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.stream.FrameStream /tmp/camera.rgb /tmp/blurred.rgb 1280x720 --tornado --filter=blur
+
+## Live source at 30 fps, dropping frames when all buffers are busy
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.stream.FrameStream /tmp/camera.rgb /tmp/bnw.rgb 1280x720 --mt --fps=30 --drop
+
+
+###################################################################
+# Image service (HTTP, micro-batching)
+###################################################################
+
+tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.service.ImageService --tornado --port=8080
+
+## Load test against the service, over loopback
+java -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.service.LoadClient --port=8080 --clients=32 --requests=50 --filter=blur
+
 
 ###################################################################
 # Julia Sets
@@ -27,6 +89,9 @@ tornado  qconplus2021.samples.JuliaSets --mt
 ## Run Julia Sets with TornadoVM accelerated on GPUs
 tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.JuliaSets --tornado
 
+## Posters beyond the size of a Java array, rendered and written in bands
+java -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.JuliaSetsPoster 100000 /tmp/juliaSetsPoster.png
+
 
 ###################################################################
 # DFT
@@ -35,7 +100,7 @@ tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.JuliaSets
 ## Run DFT 
 ## This program has three arguments:
 ##   <size> 
-##   <mode: parallel | sequential > 
+##   <mode: parallel | parallelContext | mt | sequential | auto > 
 ##   <iterations> 
 tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.DFT 8192 parallel 100
 
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.service;
+
+import qconplus2021.samples.service.ImageService;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link ImageService} with one virtual thread per connection (JDK 21). Handlers block while their images are in the
+ * batching engine, which costs no platform thread, so the number of concurrent connections is not bounded by
+ * {@code --threads}. Same options as {@link ImageService}.
+ */
+public class VirtualThreadImageService {
+
+    public static void main(String[] args) throws IOException {
+        ImageService.Options options = ImageService.Options.parse(args);
+        ImageService service = options.createService();
+        service.start(new InetSocketAddress(options.getPort()), Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
@@ -15,21 +15,35 @@
  */
 package qconplus2021.samples;
 
-import uk.ac.manchester.tornado.api.GridScheduler;
-import uk.ac.manchester.tornado.api.KernelContext;
-import uk.ac.manchester.tornado.api.TaskSchedule;
-import uk.ac.manchester.tornado.api.WorkerGrid2D;
-import uk.ac.manchester.tornado.api.annotations.Parallel;
-import uk.ac.manchester.tornado.api.common.TornadoDevice;
-import uk.ac.manchester.tornado.api.runtime.TornadoRuntime;
+import qconplus2021.samples.backend.Backends;
+import qconplus2021.samples.backend.ComputeBackend;
+import qconplus2021.samples.backend.FixedPointFilter;
+import qconplus2021.samples.backend.Kernel;
+import qconplus2021.samples.cache.ResultCache;
+import qconplus2021.samples.harness.BenchmarkConfig;
+import qconplus2021.samples.harness.BenchmarkRunner;
+import qconplus2021.samples.harness.Phase;
+import qconplus2021.samples.harness.PhasedBenchmark;
+import qconplus2021.samples.jfr.Events;
+import qconplus2021.samples.tuning.Autotuner;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.stream.IntStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Example using TornadoVM. This sample computes a blur filter from an JPEG image using different implementations:
@@ -37,37 +51,44 @@ import java.util.stream.IntStream;
  * --tornado: it runs with TornadoVM using the Loop Parallel API (using a hardware accelerator)
  * --tornadoContext: it runs with TornadoVM using the Parallel Kernel API (using a hardware accelerator)
  * --mt: it runs with JDK 8 Streams (multi-threaded version without TornadoVM)
+ * --fft: it runs the frequency-domain convolution (multi-threaded, without TornadoVM) when the cost model predicts it is
+ *        faster than the spatial one for the given image and filter sizes, and the --mt version otherwise
  * --seq: it runs sequentially (no acceleration)
+ * --auto: it runs on the backend with the lowest predicted time for the image size (see {@link qconplus2021.samples.backend.Dispatcher})
+ *
+ * --fixed: it convolves with 16-bit fixed-point weights and integer arithmetic (see {@link FixedPointFilter}), unless
+ *          the quantisation could change an output level by more than one; the float weights are used then. The largest
+ *          difference with the float convolution is reported after the run. Not used by --fft.
+ *
+ * The kernels are provided by the {@link ComputeBackend}s: the TornadoVM versions are only available when running with
+ * TornadoVM.
+ *
+ * The options of the {@link BenchmarkRunner} (e.g., --iterations=N, --format=csv) are also accepted.
+ *
+ * --mt and --tornadoContext use the configuration found by the {@link Autotuner} (tile size and threads, or local work
+ * size), if any. Run with -Dautotune=true to search it the first time.
+ *
+ * With -Dcache=true, results are kept in the {@link ResultCache}: an input file already blurred with the same
+ * implementation skips decode, compute and encode, and the cached JPEG is written instead.
  */
-public class BlurFilter {
-
-    private static final int MAX_ITERATIONS = 10;
+public class BlurFilter implements PhasedBenchmark {
 
-    public enum Implementation {
-        SEQUENTIAL,
-        MT,
-        TORNADO_LOOP,
-        TORNADO_KERNEL
-    }
-
-    private static final HashMap<String, Implementation> VALID_OPTIONS = new HashMap<>();
-
-    static {
-        VALID_OPTIONS.put("sequential", Implementation.SEQUENTIAL);
-        VALID_OPTIONS.put("seq", Implementation.SEQUENTIAL);
-        VALID_OPTIONS.put("mt", Implementation.MT);
-        VALID_OPTIONS.put("tornado", Implementation.TORNADO_LOOP);
-        VALID_OPTIONS.put("tornadoContext", Implementation.TORNADO_KERNEL);
-        VALID_OPTIONS.put("tornadocontext", Implementation.TORNADO_KERNEL);
-    }
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.allOf(Implementation.class);
 
     private BufferedImage image;
     private Implementation implementation;
+    // Null when the image was given in memory
+    private String imageFile;
 
-    private TaskSchedule parallelFilter;
+    private Kernel kernel;
+    // Null when the float weights are used
+    private FixedPointFilter fixedPointFilter;
 
     public static final int FILTER_WIDTH = 31;
 
+    // Part of the result cache key: change it when the output of the filter changes
+    private static final String RESULT_VERSION = "1";
+
     private static final String IMAGE_FILE = "/tmp/image.jpg";
 
     int w;
@@ -80,50 +101,135 @@ public class BlurFilter {
     int[] greenFilter;
     int[] blueFilter;
     float[] filter;
-    private GridScheduler grid;
+
+    private final ResultCache cache = ResultCache.getInstance();
+    // Null when the result is not cached (cache disabled or image given in memory)
+    private String cacheKey;
+    // Cached output of the current input, or null
+    private byte[] cachedResult;
 
     public BlurFilter(Implementation implementation) {
+        this(implementation, false);
+    }
+
+    /**
+     * Blur filter over the input file. The size is read from the header of the file: the image itself is only decoded
+     * by {@link #load()}, and not at all on a result cache hit.
+     */
+    public BlurFilter(Implementation implementation, boolean fixedPoint) {
+        this(implementation, null, imageSize(IMAGE_FILE), fixedPoint);
+        imageFile = IMAGE_FILE;
+    }
+
+    public BlurFilter(Implementation implementation, BufferedImage image) {
+        this(implementation, image, false);
+    }
+
+    /**
+     * Blur filter over an image already in memory (e.g., for benchmarks). The result is written back into it by
+     * {@link #repack()}. With {@code fixedPoint}, the weights are quantised if the result stays within one level.
+     */
+    public BlurFilter(Implementation implementation, BufferedImage image, boolean fixedPoint) {
+        this(implementation, image, new Dimension(image.getWidth(), image.getHeight()), fixedPoint);
+    }
+
+    /**
+     * @param image
+     *            null if it is loaded from the input file later.
+     */
+    private BlurFilter(Implementation implementation, BufferedImage image, Dimension size, boolean fixedPoint) {
         this.implementation = implementation;
-        loadImage();
-        initData();
-        if (implementation == Implementation.TORNADO_LOOP) {
-            // Tasks using the Loop Parallel API
-            parallelFilter = new TaskSchedule("blur") //
-                    .task("red", BlurFilter::compute, redChannel, redFilter, w, h, filter, FILTER_WIDTH) //
-                    .task("green", BlurFilter::compute, greenChannel, greenFilter, w, h, filter, FILTER_WIDTH) //
-                    .task("blue", BlurFilter::compute, blueChannel, blueFilter, w, h, filter, FILTER_WIDTH) //
-                    .streamOut(redFilter, greenFilter, blueFilter);
-
-        } else if (implementation == Implementation.TORNADO_KERNEL) {
-            // Tasks using the Kernel API
-            KernelContext context = new KernelContext();
-            grid = new GridScheduler();
-            // This version might run slower, since thread block size can influence performance.
-            // TornadoVM implements a heuristic for thread block selection (available for loop-parallel API)
-            WorkerGrid2D worker = new WorkerGrid2D(w, h);
-            grid.setWorkerGrid("blur.red", worker);
-            grid.setWorkerGrid("blur.green", worker);
-            grid.setWorkerGrid("blur.blue", worker);
-
-            parallelFilter = new TaskSchedule("blur") //
-                    .task("red", BlurFilter::computeWithContext, redChannel, redFilter, w, h, filter, FILTER_WIDTH, context) //
-                    .task("green", BlurFilter::computeWithContext, greenChannel, greenFilter, w, h, filter, FILTER_WIDTH, context) //
-                    .task("blue", BlurFilter::computeWithContext, blueChannel, blueFilter, w, h, filter, FILTER_WIDTH, context) //
-                    .streamOut(redFilter, greenFilter, blueFilter);
+        this.image = image;
+        initData(size);
+        int[][] channels = new int[][] { redChannel, greenChannel, blueChannel };
+        int[][] outputs = new int[][] { redFilter, greenFilter, blueFilter };
+        if (implementation == Implementation.FFT) {
+            if (fixedPoint) {
+                System.out.println("--fixed is not used by --fft");
+            }
+            if (FFTConvolution.isFFTFaster(w, h, FILTER_WIDTH)) {
+                FFTConvolution fftConvolution = new FFTConvolution(filter, FILTER_WIDTH, w, h);
+                System.out.println("FFT size = " + fftConvolution.getFFTSize() + " -- tile size = " + fftConvolution.getTileSize());
+                kernel = Events.traced(() -> {
+                    // Red and green share one complex transform
+                    fftConvolution.convolve(redChannel, greenChannel, redFilter, greenFilter);
+                    fftConvolution.convolve(blueChannel, null, blueFilter, null);
+                }, Implementation.FFT, "fft", "blur", (long) w * h, Autotuner.cpuDevice());
+            } else {
+                System.out.println("Spatial convolution is cheaper for a " + w + "x" + h + " image and filter width " + FILTER_WIDTH + ", using --mt");
+                kernel = Backends.get(Implementation.MT).blur(channels, outputs, w, h, filter, FILTER_WIDTH);
+            }
+        } else {
+            ComputeBackend backend = Backends.get(implementation);
+            System.out.println(backend.getName() + ": " + backend.getDevice());
+            fixedPointFilter = fixedPoint ? quantise(filter) : null;
+            if (fixedPointFilter != null) {
+                kernel = backend.blurFixedPoint(channels, outputs, w, h, fixedPointFilter.getWeights(), fixedPointFilter.getShift(), FILTER_WIDTH);
+            } else {
+                kernel = backend.blur(channels, outputs, w, h, filter, FILTER_WIDTH);
+            }
         }
     }
 
-    public void loadImage() {
+    /**
+     * Fixed-point version of the filter, or null if it could change an output level by more than one.
+     */
+    private static FixedPointFilter quantise(float[] filter) {
+        FixedPointFilter fixed = FixedPointFilter.quantise(filter, FILTER_WIDTH);
+        if (fixed == null) {
+            System.out.println("The filter cannot be quantised (a negative weight, or too large for 16 bits), using float weights");
+            return null;
+        }
+        String format = "Q" + fixed.getShift() + " weights";
+        if (!fixed.isAccurate()) {
+            System.out.println(format + " could change the output by up to " + fixed.getErrorBound() + " levels, using float weights");
+            return null;
+        }
+        System.out.println(format + ", at most " + fixed.getErrorBound() + " level of difference with the float weights");
+        return fixed;
+    }
+
+    public boolean isFixedPoint() {
+        return fixedPointFilter != null;
+    }
+
+    @Override
+    public EnumSet<Phase> getPhases() {
+        return EnumSet.allOf(Phase.class);
+    }
+
+    public static BufferedImage loadImage() {
         try {
-            image = ImageIO.read(new File(IMAGE_FILE));
+            return ImageIO.read(new File(IMAGE_FILE));
         } catch (IOException e) {
             throw new RuntimeException("Input file not found: " + IMAGE_FILE);
         }
     }
 
-    private void initData() {
-        w = image.getWidth();
-        h = image.getHeight();
+    /**
+     * Width and height of an image file, from its header, without decoding the pixels.
+     */
+    private static Dimension imageSize(String file) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(file))) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                throw new RuntimeException("Input file not found or not an image: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Input file not found: " + file);
+        }
+    }
+
+    private void initData(Dimension size) {
+        w = size.width;
+        h = size.height;
 
         redChannel = new int[w * h];
         greenChannel = new int[w * h];
@@ -134,111 +240,87 @@ public class BlurFilter {
         greenFilter = new int[w * h];
         blueFilter = new int[w * h];
 
-        filter = new float[w * h];
-        for (int i = 0; i < w; i++) {
-            for (int j = 0; j < h; j++) {
-                filter[i * h + j] = 1.f / (FILTER_WIDTH * FILTER_WIDTH);
-            }
-        }
-        for (int i = 0; i < w; i++) {
-            for (int j = 0; j < h; j++) {
-                int rgb = image.getRGB(i, j);
-                alphaChannel[i * h + j] = (rgb >> 24) & 0xFF;
-                redChannel[i * h + j] = (rgb >> 16) & 0xFF;
-                greenChannel[i * h + j] = (rgb >> 8) & 0xFF;
-                blueChannel[i * h + j] = (rgb & 0xFF);
-            }
+        filter = boxFilter(FILTER_WIDTH);
+        if (image != null) {
+            unpack();
         }
     }
 
-    private static void channelConvolutionSequential(int[] channel, int[] channelBlurred, final int numRows, final int numCols, float[] filter, final int filterWidth) {
-        assert (filterWidth % 2 == 1);
-        for (int r = 0; r < numRows; r++) {
-            for (int c = 0; c < numCols; c++) {
-                float result = 0.0f;
-                for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
-                    for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
-                        int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
-                        int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
-                        float image_value = (channel[image_r * numCols + image_c]);
-                        float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
-                        result += image_value * filter_value;
-                    }
-                }
-                channelBlurred[r * numCols + c] = result > 255 ? 255 : (int) result;
+    /**
+     * Box filter of {@code width x width} weights that add up to 1.
+     */
+    public static float[] boxFilter(int width) {
+        float[] filter = new float[width * width];
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < width; j++) {
+                filter[i * width + j] = 1.f / (width * width);
             }
         }
+        return filter;
     }
 
-    private static void compute(int[] channel, int[] channelBlurred, final int numRows, final int numCols, float[] filter, final int filterWidth) {
-        assert (filterWidth % 2 == 1);
-        for (@Parallel int r = 0; r < numRows; r++) {
-            for (@Parallel int c = 0; c < numCols; c++) {
-                float result = 0.0f;
-                for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
-                    for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
-                        int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
-                        int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
-                        float image_value = (channel[image_r * numCols + image_c]);
-                        float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
-                        result += image_value * filter_value;
-                    }
-                }
-                channelBlurred[r * numCols + c] = result > 255 ? 255 : (int) result;
+    /**
+     * Reads the input file again. No-op if the image was given in memory. With the result cache, the image is only
+     * decoded on a miss.
+     */
+    @Override
+    public void load() {
+        if (imageFile == null) {
+            return;
+        }
+        if (!cache.isEnabled()) {
+            image = loadImage();
+            return;
+        }
+        byte[] input;
+        try {
+            input = Files.readAllBytes(Paths.get(imageFile));
+            cacheKey = ResultCache.key(input, "BlurFilter", RESULT_VERSION, implementation.name(), String.valueOf(FILTER_WIDTH), //
+                    isFixedPoint() ? "Q" + fixedPointFilter.getShift() : "float", "JPEG");
+            cachedResult = cache.get(cacheKey);
+            if (cachedResult == null) {
+                image = ImageIO.read(new ByteArrayInputStream(input));
             }
+        } catch (IOException e) {
+            throw new RuntimeException("Input file not found: " + imageFile);
         }
     }
 
-    private static void computeWithContext(int[] channel, int[] channelBlurred, final int numRows, final int numCols, float[] filter, final int filterWidth, KernelContext context) {
-        assert (filterWidth % 2 == 1);
-        int r = context.globalIdx;
-        int c = context.globalIdy;
-        float result = 0.0f;
-        for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
-            for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
-                int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
-                int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
-                float image_value = (channel[image_r * numCols + image_c]);
-                float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
-                result += image_value * filter_value;
+    /**
+     * Splits the image into the channel arrays. They are reused, since the kernels are bound to them.
+     */
+    @Override
+    public void unpack() {
+        if (cachedResult != null) {
+            return;
+        }
+        if (image.getWidth() != w || image.getHeight() != h) {
+            throw new IllegalStateException("Image size changed: " + image.getWidth() + "x" + image.getHeight() + " vs " + w + "x" + h);
+        }
+        for (int i = 0; i < w; i++) {
+            for (int j = 0; j < h; j++) {
+                int rgb = image.getRGB(i, j);
+                alphaChannel[i * h + j] = (rgb >> 24) & 0xFF;
+                redChannel[i * h + j] = (rgb >> 16) & 0xFF;
+                greenChannel[i * h + j] = (rgb >> 8) & 0xFF;
+                blueChannel[i * h + j] = (rgb & 0xFF);
             }
         }
-        channelBlurred[r * numCols + c] = result > 255 ? 255 : (int) result;
     }
 
-    private static void computeWithParallelStreams(int[] channel, int[] channelBlurred, final int numRows, final int numCols, float[] filter, final int filterWidth) {
-        // For every pixel in the image
-        assert (filterWidth % 2 == 1);
-        IntStream.range(0, numRows).parallel().forEach(r -> {
-            IntStream.range(0, numCols).parallel().forEach(c -> {
-                float result = 0.0f;
-                for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
-                    for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
-                        int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
-                        int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
-                        float image_value = (channel[image_r * numCols + image_c]);
-                        float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
-                        result += image_value * filter_value;
-                    }
-                }
-                channelBlurred[r * numCols + c] = result > 255 ? 255 : (int) result;
-            });
-        });
-    }
-
-    private BufferedImage writeFile() {
-        setImageFromBuffers();
-        try {
-            String tmpDirsLocation = System.getProperty("java.io.tmpdir");
-            File outputFile = new File(tmpDirsLocation + "/blur.jpeg");
-            ImageIO.write(image, "JPEG", outputFile);
-        } catch (Exception e) {
-            e.printStackTrace();
+    @Override
+    public void compute() {
+        if (cachedResult != null) {
+            return;
         }
-        return image;
+        kernel.execute();
     }
 
-    private void setImageFromBuffers() {
+    @Override
+    public void repack() {
+        if (cachedResult != null) {
+            return;
+        }
         for (int i = 0; i < w; i++) {
             for (int j = 0; j < h; j++) {
                 Color c = new Color(redFilter[i * h + j], greenFilter[i * h + j], blueFilter[i * h + j], alphaChannel[i * h + j]);
@@ -247,85 +329,69 @@ public class BlurFilter {
         }
     }
 
-    private void sequentialComputation() {
-        for (int i = 0; i< MAX_ITERATIONS; i++) {
-            long start = System.nanoTime();
-            channelConvolutionSequential(redChannel, redFilter, w, h, filter, FILTER_WIDTH);
-            channelConvolutionSequential(greenChannel, greenFilter, w, h, filter, FILTER_WIDTH);
-            channelConvolutionSequential(blueChannel, blueFilter, w, h, filter, FILTER_WIDTH);
-            long end = System.nanoTime();
-            System.out.println("Sequential Total time (ns) = " + (end - start) + " -- seconds = " + ((end - start) * 1e-9));
-        }
-    }
-
-    private void parallelStreams() {
-        for (int i = 0; i< MAX_ITERATIONS; i++) {
-            long start = System.nanoTime();
-            computeWithParallelStreams(redChannel, redFilter, w, h, filter, FILTER_WIDTH);
-            computeWithParallelStreams(greenChannel, greenFilter, w, h, filter, FILTER_WIDTH);
-            computeWithParallelStreams(blueChannel, blueFilter, w, h, filter, FILTER_WIDTH);
-            long end = System.nanoTime();
-            System.out.println("Streams Total time (ns) = " + (end - start) + " -- seconds = " + ((end - start) * 1e-9));
-        }
-    }
-
-    private void runTornadoVM() {
-        TornadoDevice device = TornadoRuntime.getTornadoRuntime().getDriver(0).getDevice(0);
-        System.out.println(device);
-        parallelFilter.mapAllTo(device);
-        for (int i = 0; i< MAX_ITERATIONS; i++) {
-            long start = System.nanoTime();
-            parallelFilter.execute();
-            long end = System.nanoTime();
-            System.out.println("Total Time (ns) = " + (end - start) + " -- seconds = " + ((end - start) * 1e-9));
+    @Override
+    public void encode() {
+        try {
+            String tmpDirsLocation = System.getProperty("java.io.tmpdir");
+            File outputFile = new File(tmpDirsLocation + "/blur.jpeg");
+            if (cachedResult != null) {
+                Files.write(outputFile.toPath(), cachedResult);
+            } else if (cacheKey != null) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                ImageIO.write(image, "JPEG", output);
+                cache.put(cacheKey, output.toByteArray());
+                Files.write(outputFile.toPath(), output.toByteArray());
+            } else {
+                ImageIO.write(image, "JPEG", outputFile);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
         }
     }
 
-    private void runTornadoVMWithContext() {
-        TornadoDevice device = TornadoRuntime.getTornadoRuntime().getDriver(0).getDevice(0);
-        System.out.println(device);
-        parallelFilter.mapAllTo(device);
-        for (int i = 0; i< MAX_ITERATIONS; i++) {
-            long start = System.nanoTime();
-            parallelFilter.execute(grid);
-            long end = System.nanoTime();
-            System.out.println("Total Time (ns) = " + (end - start) + " -- seconds = " + ((end - start) * 1e-9));
+    /**
+     * Largest difference, in levels, between the last result and the convolution with the float weights, or -1 if the
+     * result came from the cache.
+     */
+    public int maxFloatError() {
+        if (cachedResult != null) {
+            return -1;
         }
-    }
-
-
-    public void run() {
-        switch (implementation) {
-            case SEQUENTIAL:
-                sequentialComputation();
-                break;
-            case MT:
-                parallelStreams();
-                break;
-            case TORNADO_LOOP:
-                runTornadoVM();
-                break;
-            case TORNADO_KERNEL:
-                runTornadoVMWithContext();
-                break;
+        int[][] channels = new int[][] { redChannel, greenChannel, blueChannel };
+        int[][] outputs = new int[][] { redFilter, greenFilter, blueFilter };
+        int[][] expected = new int[channels.length][w * h];
+        Backends.get(Implementation.MT).blur(channels, expected, w, h, filter, FILTER_WIDTH).execute();
+        int maxError = 0;
+        for (int i = 0; i < channels.length; i++) {
+            for (int k = 0; k < w * h; k++) {
+                maxError = Math.max(maxError, Math.abs(expected[i][k] - outputs[i][k]));
+            }
         }
-        writeFile();
+        return maxError;
     }
 
     public static void main(String[] args) {
-        String version = "tornado";
-        if (args.length != 0) {
-            version = args[0].substring(2);
-            if (!VALID_OPTIONS.containsKey(version)) {
-                System.out.println("Option not valid. Use:");
-                System.out.println("\t--tornado: for accelerated version with TornadoVM");
-                System.out.println("\t--tornadoContext: for accelerated version with TornadoVM");
-                System.out.println("\t--seq: for running the sequential version with Java Streams");
-                System.out.println("\t--mt: for running the CPU multi-thread version with Java Parallel Streams");
-                System.exit(-1);
+        boolean fixedPoint = false;
+        List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--fixed")) {
+                fixedPoint = true;
+            } else {
+                arguments.add(arg);
             }
         }
-        BlurFilter blurFilter = new BlurFilter(VALID_OPTIONS.get(version));
-        blurFilter.run();
+        BenchmarkConfig config = BenchmarkConfig.parse(arguments.toArray(new String[0]));
+        Implementation implementation = config.getImplementation(Implementation.TORNADO_LOOP, SUPPORTED);
+        BlurFilter blurFilter = new BlurFilter(implementation, fixedPoint);
+        new BenchmarkRunner(config).run("BlurFilter", implementation, blurFilter);
+        if (blurFilter.isFixedPoint()) {
+            int maxError = blurFilter.maxFloatError();
+            if (maxError >= 0) {
+                System.out.println("Fixed-point blur: max per-pixel error against the float weights " + maxError + " level(s)");
+            }
+        }
+        if (ResultCache.getInstance().isEnabled()) {
+            System.out.println(ResultCache.getInstance());
+        }
     }
-}
\ No newline at end of file
+}
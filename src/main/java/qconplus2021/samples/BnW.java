@@ -1,19 +1,24 @@
 package qconplus2021.samples;
 
-import uk.ac.manchester.tornado.api.GridScheduler;
-import uk.ac.manchester.tornado.api.KernelContext;
-import uk.ac.manchester.tornado.api.TaskSchedule;
-import uk.ac.manchester.tornado.api.WorkerGrid2D;
-import uk.ac.manchester.tornado.api.annotations.Parallel;
-import uk.ac.manchester.tornado.api.common.TornadoDevice;
-import uk.ac.manchester.tornado.api.runtime.TornadoRuntime;
+import qconplus2021.samples.backend.Backends;
+import qconplus2021.samples.backend.ComputeBackend;
+import qconplus2021.samples.backend.Kernel;
+import qconplus2021.samples.cache.ResultCache;
+import qconplus2021.samples.harness.BenchmarkConfig;
+import qconplus2021.samples.harness.BenchmarkRunner;
+import qconplus2021.samples.harness.Phase;
+import qconplus2021.samples.harness.PhasedBenchmark;
+import qconplus2021.samples.tuning.Autotuner;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.stream.IntStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumSet;
 
 /**
  * Example using TornadoVM. This sample computes a blur filter from an JPEG image using different implementations:
@@ -22,27 +27,70 @@ import java.util.stream.IntStream;
  * --tornadoContext: it runs with TornadoVM using the Parallel Kernel API (using a hardware accelerator)
  * --mt: it runs with JDK 8 Streams (multi-threaded version without TornadoVM)
  * --seq: it runs sequentially (no acceleration)
+ * --auto: it runs on the backend with the lowest predicted time for the image size (see {@link qconplus2021.samples.backend.Dispatcher})
+ *
+ * The options of the {@link BenchmarkRunner} (e.g., --iterations=N, --format=csv) are also accepted.
+ *
+ * --mt and --tornadoContext use the configuration found by the {@link Autotuner} (tile size and threads, or local work
+ * size), if any. Run with -Dautotune=true to search it the first time.
+ *
+ * With -Dcache=true, results are kept in the {@link ResultCache}: an input file already filtered with the same
+ * implementation skips decode, compute and encode, and the cached JPEG is written instead.
  */
-public class BnW {
+public class BnW implements PhasedBenchmark {
 
-    private static final int MAX_ITERATIONS = 10;
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.of(Implementation.SEQUENTIAL, Implementation.MT, Implementation.TORNADO_LOOP, Implementation.TORNADO_KERNEL, Implementation.AUTO);
 
-    public enum Implementation {
-        SEQUENTIAL,
-        MT,
-        TORNADO_LOOP,
-        TORNADO_KERNEL
+    public static BufferedImage loadImage() {
+        try {
+            return ImageIO.read(new File(IMAGE_FILE));
+        } catch (IOException e) {
+            throw new RuntimeException("Input file not found: " + IMAGE_FILE);
+        }
     }
 
+    private void initData() {
+        w = image.getWidth();
+        h = image.getHeight();
+        imageRGB = new int[w * h];
+        unpack();
+    }
 
-    public void loadImage() {
+    /**
+     * Reads the input file again. No-op if the image was given in memory. With the result cache, the image is only
+     * decoded on a miss.
+     */
+    @Override
+    public void load() {
+        if (imageFile == null) {
+            return;
+        }
+        if (!cache.isEnabled()) {
+            image = loadImage();
+            return;
+        }
         try {
-            image = ImageIO.read(new File(IMAGE_FILE));
-            w = image.getWidth();
-            h = image.getHeight();
-            imageRGB = new int[w * h];
+            byte[] input = Files.readAllBytes(Paths.get(imageFile));
+            cacheKey = ResultCache.key(input, "BnW", RESULT_VERSION, implementation.name(), "jpg");
+            cachedResult = cache.get(cacheKey);
+            if (cachedResult == null) {
+                image = ImageIO.read(new ByteArrayInputStream(input));
+            }
         } catch (IOException e) {
-            throw new RuntimeException("Input file not found: " + IMAGE_FILE);
+            throw new RuntimeException("Input file not found: " + imageFile);
+        }
+    }
+
+    /**
+     * Copies the image into {@code imageRGB}. The array is reused, since the kernel is bound to it.
+     */
+    @Override
+    public void unpack() {
+        if (cachedResult != null) {
+            return;
+        }
+        if (image.getWidth() != w || image.getHeight() != h) {
+            throw new IllegalStateException("Image size changed: " + image.getWidth() + "x" + image.getHeight() + " vs " + w + "x" + h);
         }
         for (int i = 0; i < w; i++) {
             for (int j = 0; j < h; j++) {
@@ -53,190 +101,95 @@ public class BnW {
     }
 
     public BnW(Implementation implementation) {
-        this.implementation = implementation;
-        loadImage();
-        if (implementation == Implementation.TORNADO_LOOP) {
-            // Tasks using the Loop Parallel API
-            parallelFilter = new TaskSchedule("s0") //
-                    .task("t0", BnW::compute, imageRGB, w, h) //
-                    .streamOut(imageRGB);
-
-        } else if (implementation == Implementation.TORNADO_KERNEL) {
-            // Tasks using the Kernel API
-            KernelContext context = new KernelContext();
-            grid = new GridScheduler();
-            // This version might run slower, since thread block size can influence performance.
-            // TornadoVM implements a heuristic for thread block selection (available for loop-parallel API)
-            WorkerGrid2D worker = new WorkerGrid2D(w, h);
-            worker.setLocalWork(16, 16, 1);
-
-            grid.setWorkerGrid("s0.t0", worker);
-            parallelFilter = new TaskSchedule("s0") //
-                    .task("t0", BnW::computeContext, imageRGB, w, h, context) //
-                    .streamOut(imageRGB);
-
-        }
+        this(implementation, loadImage());
+        imageFile = IMAGE_FILE;
     }
 
-    private static final HashMap<String, Implementation> VALID_OPTIONS = new HashMap<>();
+    /**
+     * Black and white filter over an image already in memory (e.g., for benchmarks).
+     */
+    public BnW(Implementation implementation, BufferedImage image) {
+        this.implementation = implementation;
+        this.image = image;
+        initData();
+        ComputeBackend backend = Backends.get(implementation);
+        System.out.println(backend.getName() + ": " + backend.getDevice());
+        kernel = backend.grayscale(imageRGB, w, h);
+    }
 
-    static {
-        VALID_OPTIONS.put("sequential", Implementation.SEQUENTIAL);
-        VALID_OPTIONS.put("seq", Implementation.SEQUENTIAL);
-        VALID_OPTIONS.put("mt", Implementation.MT);
-        VALID_OPTIONS.put("tornado", Implementation.TORNADO_LOOP);
-        VALID_OPTIONS.put("tornadoContext", Implementation.TORNADO_KERNEL);
-        VALID_OPTIONS.put("tornadocontext", Implementation.TORNADO_KERNEL);
+    @Override
+    public EnumSet<Phase> getPhases() {
+        return EnumSet.allOf(Phase.class);
     }
 
     private BufferedImage image;
     private Implementation implementation;
-    private TaskSchedule parallelFilter;
+    // Null when the image was given in memory
+    private String imageFile;
+    private Kernel kernel;
 
     private static final String IMAGE_FILE = "/tmp/image.jpg";
 
+    // Part of the result cache key: change it when the output of the filter changes
+    private static final String RESULT_VERSION = "1";
+
+    private final ResultCache cache = ResultCache.getInstance();
+    // Null when the result is not cached (cache disabled or image given in memory)
+    private String cacheKey;
+    // Cached output of the current input, or null
+    private byte[] cachedResult;
+
     int w;
     int h;
     int[] imageRGB;
-    private GridScheduler grid;
-
-    private static void compute(int[] image, final int w, final int s) {
-        for (@Parallel int i = 0; i < w; i++) {
-            for (@Parallel int j = 0; j < s; j++) {
-                int rgb = image[i * s + j];
-                int alpha = (rgb >> 24) & 0xff;
-                int red = (rgb >> 16) & 0xFF;
-                int green = (rgb >> 8) & 0xFF;
-                int blue = (rgb & 0xFF);
 
-                int grayLevel = (red + green + blue) / 3;
-                int gray = (alpha << 24) | (grayLevel << 16) | (grayLevel << 8) | grayLevel;
-
-                image[i * s + j] = gray;
-            }
-        }
-    }
-
-    private static void computeContext(int[] image, final int w, final int s, KernelContext context) {
-        int i = context.globalIdx;
-        int j = context.globalIdy;
-        int rgb = image[i * s + j];
-        int alpha = (rgb >> 24) & 0xff;
-        int red = (rgb >> 16) & 0xFF;
-        int green = (rgb >> 8) & 0xFF;
-        int blue = (rgb & 0xFF);
-        int grayLevel = (red + green + blue) / 3;
-        int gray = (alpha << 24) | (grayLevel << 16) | (grayLevel << 8) | grayLevel;
-        image[i * s + j] = gray;
-    }
-
-    private void sequentialComputation() {
-        for (int i = 0; i< MAX_ITERATIONS; i++) {
-            long start = System.nanoTime();
-            compute(imageRGB, w, h);
-            long end = System.nanoTime();
-            System.out.println("Sequential Total time (ns) = " + (end - start) + " -- seconds = " + ((end - start) * 1e-9));
-        }
-    }
-
-    private void parallelStreams() {
-        for (int i = 0; i< MAX_ITERATIONS; i++) {
-            long start = System.nanoTime();
-            computeWithParallelStreams(imageRGB, w, h);
-            long end = System.nanoTime();
-            System.out.println("Streams Total time (ns) = " + (end - start) + " -- seconds = " + ((end - start) * 1e-9));
+    @Override
+    public void compute() {
+        if (cachedResult != null) {
+            return;
         }
+        kernel.execute();
     }
 
-    private void computeWithParallelStreams(int[] imageInput, int w, int h) {
-        IntStream.range(0, w).parallel().forEach(r -> {
-            IntStream.range(0, h).parallel().forEach(c -> {
-                int rgb = imageInput[r * h + c];
-                int alpha = (rgb >> 24) & 0xff;
-                int red = (rgb >> 16) & 0xFF;
-                int green = (rgb >> 8) & 0xFF;
-                int blue = (rgb & 0xFF);
-
-                int grayLevel = (red + green + blue) / 3;
-                int gray = (alpha << 24) | (grayLevel << 16) | (grayLevel << 8) | grayLevel;
-
-                imageInput[r * h + c] = gray;
-            });
-        });
-    }
-
-    private void runTornadoVM() {
-       // TornadoDevice device = TornadoRuntime.getTornadoRuntime().getDriver(0).getDevice(0);
-        //System.out.println(device);
-        //parallelFilter.mapAllTo(device);
-        for (int i = 0; i< MAX_ITERATIONS; i++) {
-            long start = System.nanoTime();
-            parallelFilter.execute();
-            long end = System.nanoTime();
-            System.out.println("Total Time (ns) = " + (end - start) + " -- seconds = " + ((end - start) * 1e-9));
+    @Override
+    public void repack() {
+        if (cachedResult != null) {
+            return;
         }
-    }
-
-    private void runTornadoVMWithContext() {
-        TornadoDevice device = TornadoRuntime.getTornadoRuntime().getDriver(0).getDevice(0);
-        System.out.println(device);
-        parallelFilter.mapAllTo(device);
-        for (int i = 0; i< MAX_ITERATIONS; i++) {
-            long start = System.nanoTime();
-            parallelFilter.execute(grid);
-            long end = System.nanoTime();
-            System.out.println("Total Time (ns) = " + (end - start) + " -- seconds = " + ((end - start) * 1e-9));
-        }
-    }
-
-    private void writeImage(String fileName) {
-        // unmarshall
         for (int i = 0; i < w; i++) {
             for (int j = 0; j < h; j++) {
                 image.setRGB(i, j, imageRGB[i * h + j]);
             }
         }
+    }
 
+    @Override
+    public void encode() {
         try {
-            ImageIO.write(image, "jpg", new File("/tmp/" + fileName));
+            File outputFile = new File("/tmp/parallel.jpg");
+            if (cachedResult != null) {
+                Files.write(outputFile.toPath(), cachedResult);
+            } else if (cacheKey != null) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                ImageIO.write(image, "jpg", output);
+                cache.put(cacheKey, output.toByteArray());
+                Files.write(outputFile.toPath(), output.toByteArray());
+            } else {
+                ImageIO.write(image, "jpg", outputFile);
+            }
         } catch (IOException e) {
             throw new RuntimeException("Input file not found: " + IMAGE_FILE);
         }
     }
 
-    public void run() {
-        switch (implementation) {
-            case SEQUENTIAL:
-                sequentialComputation();
-                break;
-            case MT:
-                parallelStreams();
-                break;
-            case TORNADO_LOOP:
-                runTornadoVM();
-                break;
-            case TORNADO_KERNEL:
-                runTornadoVMWithContext();
-                break;
-        }
-        writeImage("parallel.jpg");
-    }
-
     public static void main(String[] args) {
-        String version = "tornado";
-        if (args.length != 0) {
-            version = args[0].substring(2);
-            if (!VALID_OPTIONS.containsKey(version)) {
-                System.out.println("Option not valid. Use:");
-                System.out.println("\t--tornado: for accelerated version with TornadoVM");
-                System.out.println("\t--tornadoContext: for accelerated version with TornadoVM");
-                System.out.println("\t--seq: for running the sequential version with Java Streams");
-                System.out.println("\t--mt: for running the CPU multi-thread version with Java Parallel Streams");
-                System.exit(-1);
-            }
+        BenchmarkConfig config = BenchmarkConfig.parse(args);
+        Implementation implementation = config.getImplementation(Implementation.TORNADO_LOOP, SUPPORTED);
+        BnW imageFilter = new BnW(implementation);
+        new BenchmarkRunner(config).run("BnW", implementation, imageFilter);
+        if (ResultCache.getInstance().isEnabled()) {
+            System.out.println(ResultCache.getInstance());
         }
-        BnW imageFilter = new BnW(VALID_OPTIONS.get(version));
-        imageFilter.run();
     }
 
 }
@@ -15,9 +15,16 @@
  */
 package qconplus2021.samples;
 
-import uk.ac.manchester.tornado.api.TaskSchedule;
-import uk.ac.manchester.tornado.api.annotations.Parallel;
-import uk.ac.manchester.tornado.api.collections.math.TornadoMath;
+import qconplus2021.samples.backend.Backends;
+import qconplus2021.samples.backend.Kernel;
+import qconplus2021.samples.backend.SequentialBackend;
+import qconplus2021.samples.harness.BenchmarkConfig;
+import qconplus2021.samples.harness.BenchmarkRunner;
+import qconplus2021.samples.harness.Phase;
+import qconplus2021.samples.harness.PhasedBenchmark;
+
+import java.util.Arrays;
+import java.util.EnumSet;
 
 /**
  * Example to run Discrete Fourier Transform (DFT) with TornadoVM.
@@ -25,32 +32,27 @@ import uk.ac.manchester.tornado.api.collections.math.TornadoMath;
  * This example has been imported from the TornadoVM example suite:
  * <url>https://github.com/beehive-lab/TornadoVM/tree/master/examples/src/main/java/uk/ac/manchester/tornado/examples/compute</url>
  *
+ * Modes: parallel (TornadoVM, Loop Parallel API), parallelContext (TornadoVM, Kernel API), mt (parallel streams),
+ * sequential, and auto (backend with the lowest predicted time for the size, see
+ * {@link qconplus2021.samples.backend.Dispatcher}).
+ *
  */
-public class DFT {
+public class DFT implements PhasedBenchmark {
 
     private static boolean CHECK_RESULT = true;
 
-    private static void computeDft(float[] inreal, float[] inimag, float[] outreal, float[] outimag, int[] inputSize) {
-        int n = inreal.length;
-        for (@Parallel int k = 0; k < n; k++) { // For each output element
-            float sumreal = 0;
-            float sumimag = 0;
-            for (int t = 0; t < n; t++) { // For each input element
-                float angle = ((2 * TornadoMath.floatPI() * t * k) / n);
-                sumreal += (inreal[t] * (TornadoMath.cos(angle)) + inimag[t] * (TornadoMath.sin(angle)));
-                sumimag += -(inreal[t] * (TornadoMath.sin(angle)) + inimag[t] * (TornadoMath.cos(angle)));
-            }
-            outreal[k] = sumreal;
-            outimag[k] = sumimag;
-        }
-    }
+    // Cheap checks by default (see DFTValidator). Use -Ddft.validation=full for the sequential recompute.
+    private static final DFTValidator VALIDATOR = DFTValidator.fromSystemProperties();
 
-    private static boolean validate(int size, float[] inReal, float[] inImag, float[] outReal, float[] outImag, int[] inputSize) {
+    /**
+     * Full validation: recomputes the whole DFT sequentially. This is O(n^2), as expensive as the computation itself.
+     */
+    private static boolean validateFull(int size, float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
         boolean val = true;
         float[] outRealTor = new float[size];
         float[] outImagTor = new float[size];
 
-        computeDft(inReal, inImag, outRealTor, outImagTor, inputSize);
+        SequentialBackend.computeDft(inReal, inImag, outRealTor, outImagTor);
 
         for (int i = 0; i < size; i++) {
             if (Math.abs(outImagTor[i] - outImag[i]) > 0.1) {
@@ -68,61 +70,80 @@ public class DFT {
         return val;
     }
 
-    public static void main(String[] args) {
-
-        if (args.length < 3) {
-            System.out.println("Usage: <size> <mode:parallel|sequential> <iterations>");
-            System.exit(-1);
-        }
-
-        final int size = Integer.parseInt(args[0]);
-        String executionType = args[1];
-        int iterations = Integer.parseInt(args[2]);
-
-        long end,start;
-
-        TaskSchedule taskGraph;
-        float[] inReal;
-        float[] inImag;
-        float[] outReal;
-        float[] outImag;
-        int[] inputSize;
+    private final Implementation implementation;
+    private final float[] inReal;
+    private final float[] inImag;
+    private final float[] outReal;
+    private final float[] outImag;
+    private final Kernel kernel;
 
+    public DFT(Implementation implementation, int size) {
+        this.implementation = implementation;
         inReal = new float[size];
         inImag = new float[size];
         outReal = new float[size];
         outImag = new float[size];
-        inputSize = new int[1];
-
-        inputSize[0] = size;
 
         for (int i = 0; i < size; i++) {
             inReal[i] = 1 / (float) (i + 2);
             inImag[i] = 1 / (float) (i + 2);
         }
 
-        taskGraph = new TaskSchedule("s0")
-                .task("t0", DFT::computeDft, inReal, inImag, outReal, outImag, inputSize)
-                .streamOut(outReal, outImag);
-
-        for (int i = 0; i < iterations; i++) {
-            switch (executionType) {
-                case "sequential":
-                    start = System.nanoTime();
-                    computeDft(inReal, inImag, outReal, outImag, inputSize);
-                    end = System.nanoTime();
-                    break;
-                case "parallel":
-                default:
-                    start = System.nanoTime();
-                    taskGraph.execute();
-                    end = System.nanoTime();
-            }
-            System.out.println("Total time:  " + (end - start) + " (ns)");
+        kernel = Backends.get(implementation).dft(inReal, inImag, outReal, outImag);
+    }
+
+    @Override
+    public EnumSet<Phase> getPhases() {
+        return EnumSet.of(Phase.COMPUTE);
+    }
+
+    @Override
+    public void compute() {
+        kernel.execute();
+    }
+
+    private static Implementation toImplementation(String mode) {
+        switch (mode) {
+            case "sequential":
+                return Implementation.SEQUENTIAL;
+            case "mt":
+                return Implementation.MT;
+            case "parallelContext":
+                return Implementation.TORNADO_KERNEL;
+            case "auto":
+                return Implementation.AUTO;
+            default:
+                return Implementation.TORNADO_LOOP;
         }
+    }
+
+    public static void main(String[] args) {
+
+        if (args.length < 3) {
+            System.out.println("Usage: <size> <mode:parallel|parallelContext|mt|sequential|auto> <iterations> [--warmup=N] [--format=text|csv|json] [--output=FILE]");
+            System.exit(-1);
+        }
+
+        final int size = Integer.parseInt(args[0]);
+        String executionType = args[1];
+        int iterations = Integer.parseInt(args[2]);
+        BenchmarkConfig config = BenchmarkConfig.parse(Arrays.copyOfRange(args, 3, args.length), iterations);
+
+        Implementation implementation = toImplementation(executionType);
+        DFT dft = new DFT(implementation, size);
+        new BenchmarkRunner(config).run("DFT", implementation, dft);
 
         if (CHECK_RESULT) {
-            if (validate(size, inReal, inImag, outReal, outImag, inputSize)) {
+            long start = System.nanoTime();
+            boolean valid;
+            if (VALIDATOR.getMode() == DFTValidator.Mode.FULL) {
+                valid = validateFull(size, dft.inReal, dft.inImag, dft.outReal, dft.outImag);
+            } else {
+                valid = VALIDATOR.validate(dft.inReal, dft.inImag, dft.outReal, dft.outImag);
+            }
+            long end = System.nanoTime();
+            System.out.println("Validation (" + VALIDATOR.getMode() + ") time:  " + (end - start) + " (ns)");
+            if (valid) {
                 System.out.println("Validation: " + "SUCCESS " + "\n");
             } else {
                 System.out.println("Validation: " + " FAIL " + "\n");
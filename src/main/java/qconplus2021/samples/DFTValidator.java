@@ -0,0 +1,232 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples;
+
+import java.util.Random;
+
+/**
+ * Cheap result validation for {@link DFT}.
+ *
+ * Recomputing the whole DFT sequentially costs O(n^2), which for large sizes takes much longer than the accelerated
+ * run being checked. This class offers cheaper checks:
+ *
+ * - FFT: an O(n log n) double-precision reference, compared bin by bin. Only for power-of-two sizes.
+ * - SAMPLED: Parseval's identity (the output energy must be n times the input energy) plus a random sample of output
+ *   bins recomputed in double precision, O(n) each. If the sample passes, then with probability {@code confidence}
+ *   fewer than {@code maxBadFraction * n} bins are wrong.
+ * - AUTO: FFT when the size allows it, SAMPLED otherwise.
+ *
+ * The mode and its parameters are read from system properties, e.g.:
+ *
+ * <code>
+ *   tornado -Ddft.validation=sampled -Ddft.validation.confidence=0.999 qconplus2021.samples.DFT 65536 parallel 10
+ * </code>
+ *
+ * - dft.validation: auto | fft | sampled | full | none (default: auto)
+ * - dft.validation.tolerance: absolute error allowed per bin (default: 0.1, as the full validation)
+ * - dft.validation.energyTolerance: relative error allowed for Parseval's identity (default: 1e-3)
+ * - dft.validation.confidence: confidence level of the sampled check (default: 0.99)
+ * - dft.validation.maxBadFraction: fraction of wrong bins the sampled check must detect (default: 0.01)
+ * - dft.validation.samples: number of bins to sample, overrides confidence and maxBadFraction
+ * - dft.validation.seed: seed used to pick the bins (default: random)
+ *
+ * Note that {@link qconplus2021.samples.backend.SequentialBackend#computeDft} (as every DFT backend) computes
+ * real = sum(re * cos + im * sin) and imag = -sum(re * sin + im * cos), which is the real part of the transform of
+ * (re + i * im) and the imaginary part of the transform of (re - i * im). The references below follow the same
+ * definition.
+ */
+public class DFTValidator {
+
+    public enum Mode {
+        AUTO,
+        FFT,
+        SAMPLED,
+        FULL,
+        NONE
+    }
+
+    private final Mode mode;
+    private final double tolerance;
+    private final double energyTolerance;
+    private final double confidence;
+    private final double maxBadFraction;
+    private final int samples;
+    private final long seed;
+
+    public DFTValidator(Mode mode, double tolerance, double energyTolerance, double confidence, double maxBadFraction, int samples, long seed) {
+        if (confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("Confidence must be in (0, 1): " + confidence);
+        }
+        if (maxBadFraction <= 0 || maxBadFraction >= 1) {
+            throw new IllegalArgumentException("Max bad fraction must be in (0, 1): " + maxBadFraction);
+        }
+        this.mode = mode;
+        this.tolerance = tolerance;
+        this.energyTolerance = energyTolerance;
+        this.confidence = confidence;
+        this.maxBadFraction = maxBadFraction;
+        this.samples = samples;
+        this.seed = seed;
+    }
+
+    public static DFTValidator fromSystemProperties() {
+        Mode mode = Mode.valueOf(System.getProperty("dft.validation", "auto").toUpperCase());
+        double tolerance = Double.parseDouble(System.getProperty("dft.validation.tolerance", "0.1"));
+        double energyTolerance = Double.parseDouble(System.getProperty("dft.validation.energyTolerance", "1e-3"));
+        double confidence = Double.parseDouble(System.getProperty("dft.validation.confidence", "0.99"));
+        double maxBadFraction = Double.parseDouble(System.getProperty("dft.validation.maxBadFraction", "0.01"));
+        int samples = Integer.parseInt(System.getProperty("dft.validation.samples", "0"));
+        long seed = Long.parseLong(System.getProperty("dft.validation.seed", Long.toString(System.nanoTime())));
+        return new DFTValidator(mode, tolerance, energyTolerance, confidence, maxBadFraction, samples, seed);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Number of bins the sampled check recomputes: the smallest m with (1 - maxBadFraction)^m <= 1 - confidence, that
+     * is, the probability of a sample missing every wrong bin is at most 1 - confidence.
+     */
+    public int getNumSamples(int size) {
+        long m = samples > 0 ? samples : (long) Math.ceil(Math.log(1 - confidence) / Math.log(1 - maxBadFraction));
+        return (int) Math.min(m, size);
+    }
+
+    /**
+     * Runs the check selected by the mode. {@link Mode#FULL} is not handled here, since it needs the sequential
+     * kernel: {@link DFT} runs it itself.
+     */
+    public boolean validate(float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        int size = inReal.length;
+        switch (mode) {
+            case NONE:
+                return true;
+            case FFT:
+                return validateWithFFT(inReal, inImag, outReal, outImag);
+            case SAMPLED:
+                return validateSampled(inReal, inImag, outReal, outImag);
+            case AUTO:
+                return FFT.isPowerOfTwo(size) ? validateWithFFT(inReal, inImag, outReal, outImag) : validateSampled(inReal, inImag, outReal, outImag);
+            default:
+                throw new IllegalStateException("Mode not supported by DFTValidator: " + mode);
+        }
+    }
+
+    private boolean validateWithFFT(float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        int size = inReal.length;
+        if (!FFT.isPowerOfTwo(size)) {
+            throw new IllegalArgumentException("FFT validation needs a power-of-two size: " + size);
+        }
+        // Real part: transform of (re + i * im). Imaginary part: minus the real part of the transform of (im + i * re),
+        // which is the imaginary part of the transform of (re - i * im).
+        double[] aRe = new double[size];
+        double[] aIm = new double[size];
+        double[] bRe = new double[size];
+        double[] bIm = new double[size];
+        for (int i = 0; i < size; i++) {
+            aRe[i] = inReal[i];
+            aIm[i] = inImag[i];
+            bRe[i] = inImag[i];
+            bIm[i] = inReal[i];
+        }
+        FFT fft = new FFT(size);
+        fft.forward(aRe, aIm);
+        fft.forward(bRe, bIm);
+
+        for (int k = 0; k < size; k++) {
+            if (!check(k, aRe[k], -bRe[k], outReal, outImag)) {
+                return false;
+            }
+        }
+        System.out.println("Checked " + size + " bins against an FFT reference");
+        return true;
+    }
+
+    private boolean validateSampled(float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        int size = inReal.length;
+
+        double energyIn = 0;
+        double energyOut = 0;
+        for (int i = 0; i < size; i++) {
+            energyIn += (double) inReal[i] * inReal[i] + (double) inImag[i] * inImag[i];
+            energyOut += (double) outReal[i] * outReal[i] + (double) outImag[i] * outImag[i];
+        }
+        double expected = size * energyIn;
+        if (Math.abs(energyOut - expected) > energyTolerance * expected) {
+            System.out.println("Parseval's identity does not hold: output energy " + energyOut + " vs " + expected + "\n");
+            return false;
+        }
+
+        // Partial Fisher-Yates shuffle to pick the bins without repetition
+        int numSamples = getNumSamples(size);
+        int[] bins = new int[size];
+        for (int i = 0; i < size; i++) {
+            bins[i] = i;
+        }
+        Random random = new Random(seed);
+        double[] reference = new double[2];
+        for (int i = 0; i < numSamples; i++) {
+            int j = i + random.nextInt(size - i);
+            int tmp = bins[i];
+            bins[i] = bins[j];
+            bins[j] = tmp;
+            int k = bins[i];
+            computeBin(inReal, inImag, k, reference);
+            if (!check(k, reference[0], reference[1], outReal, outImag)) {
+                return false;
+            }
+        }
+        if (numSamples == size) {
+            System.out.println("Checked all " + size + " bins");
+        } else {
+            double bound = samples > 0 ? 1 - Math.pow(1 - confidence, 1.0 / numSamples) : maxBadFraction;
+            System.out.println("Checked " + numSamples + " of " + size + " bins: with confidence " + confidence + " fewer than " + (bound * 100) + "% of the bins are wrong");
+        }
+        return true;
+    }
+
+    /**
+     * Double-precision reference for output bin {@code k}, O(n). Stores the real and imaginary parts in {@code result}.
+     */
+    static void computeBin(float[] inReal, float[] inImag, int k, double[] result) {
+        int size = inReal.length;
+        double sumReal = 0;
+        double sumImag = 0;
+        for (int t = 0; t < size; t++) {
+            // (t * k) mod n keeps the angle small, so it does not lose precision for large sizes
+            double angle = 2 * Math.PI * (((long) t * k) % size) / size;
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            sumReal += inReal[t] * cos + inImag[t] * sin;
+            sumImag += -(inReal[t] * sin + inImag[t] * cos);
+        }
+        result[0] = sumReal;
+        result[1] = sumImag;
+    }
+
+    private boolean check(int k, double expectedReal, double expectedImag, float[] outReal, float[] outImag) {
+        if (Math.abs(expectedReal - outReal[k]) > tolerance) {
+            System.out.println("Bin " + k + ": " + outReal[k] + " vs " + expectedReal + "\n");
+            return false;
+        }
+        if (Math.abs(expectedImag - outImag[k]) > tolerance) {
+            System.out.println("Bin " + k + ": " + outImag[k] + " vs " + expectedImag + "\n");
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples;
+
+import qconplus2021.samples.backend.Backends;
+import qconplus2021.samples.backend.ComputeBackend;
+import qconplus2021.samples.backend.Dispatcher;
+import qconplus2021.samples.backend.Kernel;
+import qconplus2021.samples.harness.BenchmarkConfig;
+import qconplus2021.samples.harness.BenchmarkRunner;
+import qconplus2021.samples.harness.Phase;
+import qconplus2021.samples.harness.PhasedBenchmark;
+import qconplus2021.samples.pipeline.Stages;
+import qconplus2021.samples.pipeline.StencilPipeline;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Edge detection of a JPEG image: grayscale, blur and gradient magnitude (Sobel), as one fused stencil pipeline. The
+ * stages run per tile, with the intermediates in tile-local buffers (see {@link StencilPipeline}), or as one TornadoVM
+ * task:
+ *
+ * --tornado: it runs with TornadoVM using the Loop Parallel API (using a hardware accelerator)
+ * --tornadoContext: it runs with TornadoVM using the Parallel Kernel API (using a hardware accelerator)
+ * --mt: it runs the tiles in parallel (multi-threaded version without TornadoVM)
+ * --seq: it runs the tiles sequentially (no acceleration)
+ * --auto: it runs on the backend with the lowest predicted time for the image size (see {@link qconplus2021.samples.backend.Dispatcher})
+ *
+ * The TornadoVM kernels keep no intermediate image. The Kernel API version blurs each tile of 16x16 pixels plus a
+ * 1-pixel halo into local memory, and computes the Sobel gradient from there. The Loop Parallel API version has no
+ * local memory: every pixel blurs the 3x3 neighbourhood of its Sobel window itself, so it reads the image
+ * 9 * filterWidth^2 times per pixel, 9 times the work of the separate stages. Above
+ * {@link Dispatcher#MAX_TORNADO_LOOP_FILTER_WIDTH} the --mt version runs instead of --tornado, and --auto does not
+ * select it.
+ *
+ * Options:
+ *
+ * --filterWidth=N: width of the box blur (odd, default 5)
+ * --separate: runs the stages one after the other over the whole image instead, with full-size intermediates
+ *
+ * The result is checked against the separate stages after the run, and written to /tmp/edges.jpeg. The options of the
+ * {@link BenchmarkRunner} (e.g., --iterations=N, --format=csv) are also accepted.
+ */
+public class EdgeDetection implements PhasedBenchmark {
+
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.of(Implementation.SEQUENTIAL, Implementation.MT, Implementation.TORNADO_LOOP, Implementation.TORNADO_KERNEL, Implementation.AUTO);
+
+    public static final int DEFAULT_FILTER_WIDTH = 5;
+
+    // Accelerators may round the blur differently (e.g., fused multiply-add)
+    private static final int TOLERANCE = 1;
+
+    private static final String IMAGE_FILE = "/tmp/image.jpg";
+
+    private BufferedImage image;
+    private BufferedImage output;
+    // Null when the image was given in memory
+    private String imageFile;
+    private final StencilPipeline pipeline;
+    private Kernel kernel;
+
+    int w;
+    int h;
+    int[] imageRGB;
+    int[] edges;
+
+    public EdgeDetection(Implementation implementation, int filterWidth, boolean separate) {
+        this(implementation, loadImage(), filterWidth, separate);
+        imageFile = IMAGE_FILE;
+    }
+
+    /**
+     * Edge detection of an image already in memory (e.g., for benchmarks).
+     */
+    public EdgeDetection(Implementation implementation, BufferedImage image, int filterWidth, boolean separate) {
+        if (filterWidth % 2 == 0) {
+            throw new IllegalArgumentException("The filter width must be odd: " + filterWidth);
+        }
+        this.image = image;
+        w = image.getWidth();
+        h = image.getHeight();
+        imageRGB = new int[w * h];
+        edges = new int[w * h];
+        output = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        unpack();
+        float[] filter = BlurFilter.boxFilter(filterWidth);
+        pipeline = Stages.edgeDetection(filter, filterWidth);
+        if (separate) {
+            System.out.println("Separate stages, halo " + pipeline.getHalo());
+            kernel = () -> pipeline.runSeparately(imageRGB, edges, w, h);
+        } else {
+            if (implementation == Implementation.TORNADO_LOOP && filterWidth > Dispatcher.MAX_TORNADO_LOOP_FILTER_WIDTH) {
+                System.out.println("Filter width " + filterWidth + " is too large for the fused Loop Parallel API kernel (max " + Dispatcher.MAX_TORNADO_LOOP_FILTER_WIDTH + "), using --mt");
+                implementation = Implementation.MT;
+            }
+            ComputeBackend backend = Backends.get(implementation);
+            System.out.println(backend.getName() + ": " + backend.getDevice());
+            kernel = backend.edgeDetection(imageRGB, edges, w, h, filter, filterWidth);
+        }
+    }
+
+    @Override
+    public EnumSet<Phase> getPhases() {
+        return EnumSet.allOf(Phase.class);
+    }
+
+    public static BufferedImage loadImage() {
+        try {
+            return ImageIO.read(new File(IMAGE_FILE));
+        } catch (IOException e) {
+            throw new RuntimeException("Input file not found: " + IMAGE_FILE);
+        }
+    }
+
+    /**
+     * Reads the input file again. No-op if the image was given in memory.
+     */
+    @Override
+    public void load() {
+        if (imageFile != null) {
+            image = loadImage();
+        }
+    }
+
+    /**
+     * Copies the image into {@code imageRGB}. The array is reused, since the kernel is bound to it.
+     */
+    @Override
+    public void unpack() {
+        if (image.getWidth() != w || image.getHeight() != h) {
+            throw new IllegalStateException("Image size changed: " + image.getWidth() + "x" + image.getHeight() + " vs " + w + "x" + h);
+        }
+        for (int i = 0; i < w; i++) {
+            for (int j = 0; j < h; j++) {
+                imageRGB[i * h + j] = image.getRGB(i, j);
+            }
+        }
+    }
+
+    @Override
+    public void compute() {
+        kernel.execute();
+    }
+
+    @Override
+    public void repack() {
+        for (int i = 0; i < w; i++) {
+            for (int j = 0; j < h; j++) {
+                int level = edges[i * h + j];
+                output.setRGB(i, j, (level << 16) | (level << 8) | level);
+            }
+        }
+    }
+
+    @Override
+    public void encode() {
+        try {
+            ImageIO.write(output, "JPEG", new File("/tmp/edges.jpeg"));
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write the output: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compares the last result with the separate stages. Returns the largest difference.
+     */
+    public int validate() {
+        int[] expected = new int[w * h];
+        pipeline.runSeparately(imageRGB, expected, w, h);
+        int maxDifference = 0;
+        for (int i = 0; i < expected.length; i++) {
+            maxDifference = Math.max(maxDifference, Math.abs(expected[i] - edges[i]));
+        }
+        return maxDifference;
+    }
+
+    public static void main(String[] args) {
+        int filterWidth = DEFAULT_FILTER_WIDTH;
+        boolean separate = false;
+        List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--filterWidth=")) {
+                filterWidth = Integer.parseInt(arg.substring("--filterWidth=".length()));
+            } else if (arg.equals("--separate")) {
+                separate = true;
+            } else {
+                arguments.add(arg);
+            }
+        }
+        BenchmarkConfig config = BenchmarkConfig.parse(arguments.toArray(new String[0]));
+        Implementation implementation = config.getImplementation(Implementation.MT, SUPPORTED);
+        EdgeDetection edgeDetection = new EdgeDetection(implementation, filterWidth, separate);
+        new BenchmarkRunner(config).run("EdgeDetection", implementation, edgeDetection);
+
+        int maxDifference = edgeDetection.validate();
+        System.out.println("Validation against the separate stages (max difference " + maxDifference + "): " + (maxDifference <= TOLERANCE ? "SUCCESS" : "FAIL"));
+    }
+}
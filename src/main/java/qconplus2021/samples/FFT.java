@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples;
+
+/**
+ * Iterative radix-2 Cooley-Tukey FFT over split real/imaginary double arrays.
+ *
+ * An instance is a plan for a fixed power-of-two size: the twiddle factors and the bit-reversal permutation are
+ * computed once and shared by every transform. Plans are immutable, so a single instance can be used concurrently
+ * from several threads as long as each thread works on its own buffers.
+ *
+ * The forward transform uses the usual sign convention, X[k] = sum(x[t] * exp(-2*pi*i*t*k/n)). The inverse transform
+ * is scaled by 1/n, so inverse(forward(x)) == x.
+ */
+public class FFT {
+
+    private final int size;
+    private final int logSize;
+    private final double[] cosTable;
+    private final double[] sinTable;
+    private final int[] bitReversed;
+
+    public FFT(int size) {
+        if (!isPowerOfTwo(size)) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+        this.logSize = Integer.numberOfTrailingZeros(size);
+        cosTable = new double[size / 2];
+        sinTable = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cosTable[i] = Math.cos(2 * Math.PI * i / size);
+            sinTable[i] = Math.sin(2 * Math.PI * i / size);
+        }
+        bitReversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            bitReversed[i] = logSize == 0 ? 0 : Integer.reverse(i) >>> (32 - logSize);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public static boolean isPowerOfTwo(int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+
+    public static int nextPowerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    public void forward(double[] re, double[] im) {
+        transform(re, im, 0, 1, false);
+    }
+
+    public void inverse(double[] re, double[] im) {
+        transform(re, im, 0, 1, true);
+    }
+
+    /**
+     * Transforms the {@code size} elements at {@code offset, offset + stride, ...} in place.
+     */
+    public void transform(double[] re, double[] im, int offset, int stride, boolean inverse) {
+        for (int i = 0; i < size; i++) {
+            int j = bitReversed[i];
+            if (j > i) {
+                int a = offset + i * stride;
+                int b = offset + j * stride;
+                double tmp = re[a];
+                re[a] = re[b];
+                re[b] = tmp;
+                tmp = im[a];
+                im[a] = im[b];
+                im[b] = tmp;
+            }
+        }
+        double sign = inverse ? 1.0 : -1.0;
+        for (int half = 1; half < size; half <<= 1) {
+            int tableStep = size / (half << 1);
+            for (int start = 0; start < size; start += half << 1) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cosTable[k * tableStep];
+                    double wi = sign * sinTable[k * tableStep];
+                    int a = offset + (start + k) * stride;
+                    int b = a + half * stride;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+        if (inverse) {
+            double scale = 1.0 / size;
+            for (int i = 0; i < size; i++) {
+                re[offset + i * stride] *= scale;
+                im[offset + i * stride] *= scale;
+            }
+        }
+    }
+
+    /**
+     * 2D transform of a row-major {@code size x size} buffer: every row first, then every column.
+     */
+    public void transform2D(double[] re, double[] im, boolean inverse) {
+        transform2D(re, im, inverse, size);
+    }
+
+    /**
+     * 2D transform where only the first {@code nonZeroRows} rows may hold non-zero values. The row pass is skipped for
+     * the remaining rows, since the transform of a zero row is zero. This is the common case for zero-padded tiles.
+     *
+     * Columns are transformed as rows of the transposed buffer: strided column accesses miss the cache on every
+     * butterfly for large sizes, while the two transposes only touch every element once.
+     */
+    public void transform2D(double[] re, double[] im, boolean inverse, int nonZeroRows) {
+        for (int row = 0; row < nonZeroRows; row++) {
+            transform(re, im, row * size, 1, inverse);
+        }
+        transpose(re);
+        transpose(im);
+        for (int row = 0; row < size; row++) {
+            transform(re, im, row * size, 1, inverse);
+        }
+        transpose(re);
+        transpose(im);
+    }
+
+    private void transpose(double[] data) {
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                double tmp = data[i * size + j];
+                data[i * size + j] = data[j * size + i];
+                data[j * size + i] = tmp;
+            }
+        }
+    }
+}
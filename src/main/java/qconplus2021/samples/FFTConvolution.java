@@ -0,0 +1,235 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Frequency-domain version of the {@link BlurFilter} convolution.
+ *
+ * The spatial convolution costs O(k^2) per pixel for a k x k filter. This class computes the same result with 2D FFTs
+ * using overlap-add: the (clamp-to-edge padded) image is split into B x B tiles, every tile is zero padded to an N x N
+ * transform (N >= B + k - 1, so there is no circular wrap-around), multiplied point-wise with the spectrum of the
+ * filter, transformed back and added into the output at its offset.
+ *
+ * Since the filter is real, two channels are convolved with a single complex transform: one channel goes in the real
+ * part, the other in the imaginary part, and the results come back in the same parts.
+ *
+ * Tiles are processed in parallel. The output footprint of a tile spills k - 1 pixels into its top and left
+ * neighbours (the output of padded position p is pixel p - (k - 1)), so tiles are split in four colours by the parity
+ * of their row and column; tiles of the same colour never write the same pixel.
+ */
+public class FFTConvolution {
+
+    // Relative costs used to compare both algorithms: one complex butterfly against one multiply-add of the spatial
+    // loop (which also pays two clamps per filter element).
+    private static final double BUTTERFLY_COST = 2.0;
+    private static final double SPATIAL_MAC_COST = 1.0;
+
+    private static final int MIN_FFT_SIZE = 16;
+    private static final int MAX_FFT_SIZE = 512;
+
+    private final int numRows;
+    private final int numCols;
+    private final int filterWidth;
+    private final int tileSize;
+    private final int fftSize;
+    private final FFT fft;
+
+    private final double[] filterRe;
+    private final double[] filterIm;
+
+    private final float[] accumulatorA;
+    private final float[] accumulatorB;
+
+    private final ThreadLocal<double[][]> scratch;
+
+    public FFTConvolution(float[] filter, int filterWidth, int numRows, int numCols) {
+        assert (filterWidth % 2 == 1);
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.filterWidth = filterWidth;
+        this.fftSize = selectFFTSize(numRows, numCols, filterWidth);
+        this.tileSize = fftSize - filterWidth + 1;
+        this.fft = new FFT(fftSize);
+
+        // The spatial kernel is a correlation: out[r][c] = sum(in[r + i][c + j] * filter[i][j]). As a convolution it
+        // uses the flipped filter, which is what gets transformed here.
+        filterRe = new double[fftSize * fftSize];
+        filterIm = new double[fftSize * fftSize];
+        for (int i = 0; i < filterWidth; i++) {
+            for (int j = 0; j < filterWidth; j++) {
+                filterRe[i * fftSize + j] = filter[(filterWidth - 1 - i) * filterWidth + (filterWidth - 1 - j)];
+            }
+        }
+        fft.transform2D(filterRe, filterIm, false, filterWidth);
+
+        accumulatorA = new float[numRows * numCols];
+        accumulatorB = new float[numRows * numCols];
+        final int n = fftSize * fftSize;
+        scratch = ThreadLocal.withInitial(() -> new double[][] { new double[n], new double[n] });
+    }
+
+    public int getFFTSize() {
+        return fftSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Cost model used to pick between the spatial and the frequency-domain convolution for an image and filter size.
+     */
+    public static boolean isFFTFaster(int numRows, int numCols, int filterWidth) {
+        int fftSize = selectFFTSize(numRows, numCols, filterWidth);
+        // Three channels: the spatial version runs once per channel, the FFT version convolves two channels per
+        // transform and therefore needs two passes over the tiles.
+        double spatial = 3.0 * numRows * numCols * filterWidth * filterWidth * SPATIAL_MAC_COST;
+        double frequency = 2.0 * numTiles(numRows, numCols, filterWidth, fftSize) * tileCost(fftSize, filterWidth);
+        return frequency < spatial;
+    }
+
+    private static int selectFFTSize(int numRows, int numCols, int filterWidth) {
+        int minSize = Math.max(MIN_FFT_SIZE, FFT.nextPowerOfTwo(2 * (filterWidth - 1) + 1));
+        int maxSize = Math.min(MAX_FFT_SIZE, FFT.nextPowerOfTwo(Math.max(numRows, numCols) + 2 * (filterWidth - 1)));
+        maxSize = Math.max(maxSize, minSize);
+        int best = minSize;
+        double bestCost = Double.MAX_VALUE;
+        for (int n = minSize; n <= maxSize; n <<= 1) {
+            double cost = numTiles(numRows, numCols, filterWidth, n) * tileCost(n, filterWidth);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = n;
+            }
+        }
+        return best;
+    }
+
+    private static double numTiles(int numRows, int numCols, int filterWidth, int fftSize) {
+        int tile = fftSize - filterWidth + 1;
+        long tilesRows = (numRows + filterWidth - 1 + tile - 1) / tile;
+        long tilesCols = (numCols + filterWidth - 1 + tile - 1) / tile;
+        return (double) tilesRows * tilesCols;
+    }
+
+    private static double tileCost(int fftSize, int filterWidth) {
+        double log = Integer.numberOfTrailingZeros(fftSize);
+        double butterflies = fftSize / 2.0 * log;
+        int tile = fftSize - filterWidth + 1;
+        // Forward transform skips the zero rows, the inverse transform does all of them, plus the point-wise product
+        double forward = (tile + fftSize) * butterflies;
+        double inverse = 2.0 * fftSize * butterflies;
+        return (forward + inverse) * BUTTERFLY_COST + (double) fftSize * fftSize;
+    }
+
+    /**
+     * Convolves {@code channelA} into {@code outA} and, if not null, {@code channelB} into {@code outB}. The output
+     * matches {@code SequentialBackend.channelConvolutionSequential}, including the clamp-to-edge borders, except for
+     * results that fall within float rounding of an integer level.
+     */
+    public void convolve(int[] channelA, int[] channelB, int[] outA, int[] outB) {
+        Arrays.fill(accumulatorA, 0.0f);
+        if (channelB != null) {
+            Arrays.fill(accumulatorB, 0.0f);
+        }
+        final int tilesRows = (numRows + filterWidth - 1 + tileSize - 1) / tileSize;
+        final int tilesCols = (numCols + filterWidth - 1 + tileSize - 1) / tileSize;
+        for (int colour = 0; colour < 4; colour++) {
+            final int rowParity = colour >> 1;
+            final int colParity = colour & 1;
+            final int rowsInColour = (tilesRows - rowParity + 1) / 2;
+            final int colsInColour = (tilesCols - colParity + 1) / 2;
+            IntStream.range(0, rowsInColour * colsInColour).parallel().forEach(t -> {
+                int tileRow = 2 * (t / colsInColour) + rowParity;
+                int tileCol = 2 * (t % colsInColour) + colParity;
+                convolveTile(channelA, channelB, tileRow * tileSize, tileCol * tileSize);
+            });
+        }
+        IntStream.range(0, numRows).parallel().forEach(r -> {
+            for (int c = 0; c < numCols; c++) {
+                int index = r * numCols + c;
+                outA[index] = clamp(accumulatorA[index]);
+                if (channelB != null) {
+                    outB[index] = clamp(accumulatorB[index]);
+                }
+            }
+        });
+    }
+
+    private static int clamp(float result) {
+        return result > 255 ? 255 : (int) result;
+    }
+
+    /**
+     * Tile origin is expressed in coordinates of the padded image, which extends the input by {@code filterWidth / 2}
+     * pixels at every border.
+     */
+    private void convolveTile(int[] channelA, int[] channelB, int originRow, int originCol) {
+        double[][] buffers = scratch.get();
+        double[] re = buffers[0];
+        double[] im = buffers[1];
+        Arrays.fill(re, 0.0);
+        Arrays.fill(im, 0.0);
+
+        final int halo = filterWidth / 2;
+        final int paddedRows = numRows + filterWidth - 1;
+        final int paddedCols = numCols + filterWidth - 1;
+        final int rows = Math.min(tileSize, paddedRows - originRow);
+        final int cols = Math.min(tileSize, paddedCols - originCol);
+
+        for (int i = 0; i < rows; i++) {
+            int imageRow = Math.min(Math.max(originRow + i - halo, 0), numRows - 1);
+            for (int j = 0; j < cols; j++) {
+                int imageCol = Math.min(Math.max(originCol + j - halo, 0), numCols - 1);
+                int index = imageRow * numCols + imageCol;
+                re[i * fftSize + j] = channelA[index];
+                if (channelB != null) {
+                    im[i * fftSize + j] = channelB[index];
+                }
+            }
+        }
+
+        fft.transform2D(re, im, false, rows);
+        for (int i = 0; i < fftSize * fftSize; i++) {
+            double a = re[i];
+            double b = im[i];
+            re[i] = a * filterRe[i] - b * filterIm[i];
+            im[i] = a * filterIm[i] + b * filterRe[i];
+        }
+        fft.transform2D(re, im, true);
+
+        // Position (u, v) of the linear convolution lands on output pixel (origin + u - (k - 1), origin + v - (k - 1))
+        final int shift = filterWidth - 1;
+        for (int u = 0; u < rows + shift; u++) {
+            int r = originRow + u - shift;
+            if (r < 0 || r >= numRows) {
+                continue;
+            }
+            for (int v = 0; v < cols + shift; v++) {
+                int c = originCol + v - shift;
+                if (c < 0 || c >= numCols) {
+                    continue;
+                }
+                accumulatorA[r * numCols + c] += (float) re[u * fftSize + v];
+                if (channelB != null) {
+                    accumulatorB[r * numCols + c] += (float) im[u * fftSize + v];
+                }
+            }
+        }
+    }
+}
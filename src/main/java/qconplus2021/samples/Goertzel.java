@@ -0,0 +1,221 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples;
+
+import uk.ac.manchester.tornado.api.TaskSchedule;
+import uk.ac.manchester.tornado.api.annotations.Parallel;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Sparse-bin DFT with the Goertzel algorithm.
+ *
+ * {@link DFT} always computes the n output bins, O(n^2). When only a few bins are needed (e.g., tone detection), each
+ * of them can be computed in O(n) with the Goertzel recurrence:
+ *
+ * s[t] = x[t] + 2 * cos(w) * s[t - 1] - s[t - 2], with w = 2 * pi * k / n
+ *
+ * The loop does not call any trigonometric function: cos(w) and sin(w) are computed once per bin on the host. The
+ * recurrence is linear, so the real and imaginary parts of the input are filtered separately and the results combined
+ * to match the {@code outReal/outImag} definition of {@link DFT}.
+ *
+ * Inputs are a batch of signals stored one after the other ({@code signal * size + t}), outputs are stored per signal
+ * and requested bin ({@code signal * bins.length + b}). The computation runs in parallel across signals and bins.
+ *
+ * How to run?
+ *
+ * <code>
+ * tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.Goertzel <size> <signals> <bins> <mode:parallel|mt|sequential> <iterations>
+ *
+ * # Example:
+ *    $ tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.Goertzel 65536 64 16 parallel 10
+ * </code>
+ */
+public class Goertzel {
+
+    private static boolean CHECK_RESULT = true;
+
+    private static void goertzel(float[] inReal, float[] inImag, double[] cosines, double[] sines, float[] outReal, float[] outImag, int size, int numSignals) {
+        int numBins = cosines.length;
+        for (@Parallel int s = 0; s < numSignals; s++) {
+            for (@Parallel int b = 0; b < numBins; b++) {
+                goertzelBin(inReal, inImag, cosines, sines, outReal, outImag, size, s, b);
+            }
+        }
+    }
+
+    /**
+     * Bin {@code b} of signal {@code s}, shared by all versions (TornadoVM inlines it into the kernel). Recurrence state
+     * is kept in double: the Goertzel filter has its poles on the unit circle, and float accumulators lose too much
+     * precision for long signals.
+     */
+    private static void goertzelBin(float[] inReal, float[] inImag, double[] cosines, double[] sines, float[] outReal, float[] outImag, int size, int s, int b) {
+        int numBins = cosines.length;
+        double coefficient = 2 * cosines[b];
+        double real1 = 0;
+        double real2 = 0;
+        double imag1 = 0;
+        double imag2 = 0;
+        int base = s * size;
+        for (int t = 0; t < size; t++) {
+            double real0 = inReal[base + t] + coefficient * real1 - real2;
+            real2 = real1;
+            real1 = real0;
+            double imag0 = inImag[base + t] + coefficient * imag1 - imag2;
+            imag2 = imag1;
+            imag1 = imag0;
+        }
+        // sum(x * cos) = cos(w) * s[n - 1] - s[n - 2] and sum(x * sin) = -sin(w) * s[n - 1]
+        double realCos = cosines[b] * real1 - real2;
+        double realSin = -sines[b] * real1;
+        double imagCos = cosines[b] * imag1 - imag2;
+        double imagSin = -sines[b] * imag1;
+        outReal[s * numBins + b] = (float) (realCos + imagSin);
+        outImag[s * numBins + b] = (float) -(realSin + imagCos);
+    }
+
+    public static double[] cosines(int[] bins, int size) {
+        double[] cosines = new double[bins.length];
+        for (int b = 0; b < bins.length; b++) {
+            cosines[b] = Math.cos(2 * Math.PI * bins[b] / size);
+        }
+        return cosines;
+    }
+
+    public static double[] sines(int[] bins, int size) {
+        double[] sines = new double[bins.length];
+        for (int b = 0; b < bins.length; b++) {
+            sines[b] = Math.sin(2 * Math.PI * bins[b] / size);
+        }
+        return sines;
+    }
+
+    /**
+     * Sequential version: computes the requested {@code bins} of every signal in the batch.
+     */
+    public static void computeBinsSequential(float[] inReal, float[] inImag, int size, int numSignals, int[] bins, float[] outReal, float[] outImag) {
+        goertzel(inReal, inImag, cosines(bins, size), sines(bins, size), outReal, outImag, size, numSignals);
+    }
+
+    /**
+     * Multi-threaded version with Java Parallel Streams: one task per signal and requested bin.
+     */
+    public static void computeBins(float[] inReal, float[] inImag, int size, int numSignals, int[] bins, float[] outReal, float[] outImag) {
+        final double[] cosines = cosines(bins, size);
+        final double[] sines = sines(bins, size);
+        final int numBins = bins.length;
+        IntStream.range(0, numSignals * numBins).parallel().forEach(i -> {
+            goertzelBin(inReal, inImag, cosines, sines, outReal, outImag, size, i / numBins, i % numBins);
+        });
+    }
+
+    /**
+     * TornadoVM version. The returned schedule is bound to the given arrays: update the input signals in place and call
+     * {@code execute()} again to query the same bins of a new batch.
+     */
+    public static TaskSchedule createTaskSchedule(String name, float[] inReal, float[] inImag, int size, int numSignals, int[] bins, float[] outReal, float[] outImag) {
+        double[] cosines = cosines(bins, size);
+        double[] sines = sines(bins, size);
+        return new TaskSchedule(name) //
+                .streamIn(inReal, inImag) //
+                .task("t0", Goertzel::goertzel, inReal, inImag, cosines, sines, outReal, outImag, size, numSignals) //
+                .streamOut(outReal, outImag);
+    }
+
+    private static boolean validate(int size, int[] bins, float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        // Compare the first signal of the batch with a double-precision DFT of the requested bins. The float DFT kernel
+        // itself is not a good reference here: its angles lose precision for large t * k.
+        float[] signalReal = new float[size];
+        float[] signalImag = new float[size];
+        System.arraycopy(inReal, 0, signalReal, 0, size);
+        System.arraycopy(inImag, 0, signalImag, 0, size);
+        double[] reference = new double[2];
+        for (int b = 0; b < bins.length; b++) {
+            DFTValidator.computeBin(signalReal, signalImag, bins[b], reference);
+            if (Math.abs(reference[0] - outReal[b]) > 0.1 || Math.abs(reference[1] - outImag[b]) > 0.1) {
+                System.out.println("Bin " + bins[b] + ": " + outReal[b] + ", " + outImag[b] + " vs " + reference[0] + ", " + reference[1] + "\n");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 5) {
+            System.out.println("Usage: <size> <signals> <bins> <mode:parallel|mt|sequential> <iterations>");
+            System.exit(-1);
+        }
+
+        final int size = Integer.parseInt(args[0]);
+        final int numSignals = Integer.parseInt(args[1]);
+        final int numBins = Integer.parseInt(args[2]);
+        String executionType = args[3];
+        int iterations = Integer.parseInt(args[4]);
+
+        long end,start;
+
+        float[] inReal = new float[size * numSignals];
+        float[] inImag = new float[size * numSignals];
+        float[] outReal = new float[numBins * numSignals];
+        float[] outImag = new float[numBins * numSignals];
+
+        // Every signal is a tone at a different frequency plus some noise
+        Random r = new Random(42);
+        for (int s = 0; s < numSignals; s++) {
+            int tone = r.nextInt(size / 2);
+            for (int t = 0; t < size; t++) {
+                inReal[s * size + t] = (float) Math.cos(2 * Math.PI * tone * t / size) + 0.1f * (r.nextFloat() - 0.5f);
+                inImag[s * size + t] = 0.1f * (r.nextFloat() - 0.5f);
+            }
+        }
+        int[] bins = new int[numBins];
+        for (int b = 0; b < numBins; b++) {
+            bins[b] = r.nextInt(size);
+        }
+
+        TaskSchedule taskGraph = createTaskSchedule("s0", inReal, inImag, size, numSignals, bins, outReal, outImag);
+
+        for (int i = 0; i < iterations; i++) {
+            switch (executionType) {
+                case "sequential":
+                    start = System.nanoTime();
+                    computeBinsSequential(inReal, inImag, size, numSignals, bins, outReal, outImag);
+                    end = System.nanoTime();
+                    break;
+                case "mt":
+                    start = System.nanoTime();
+                    computeBins(inReal, inImag, size, numSignals, bins, outReal, outImag);
+                    end = System.nanoTime();
+                    break;
+                case "parallel":
+                default:
+                    start = System.nanoTime();
+                    taskGraph.execute();
+                    end = System.nanoTime();
+            }
+            System.out.println("Total time:  " + (end - start) + " (ns)");
+        }
+
+        if (CHECK_RESULT) {
+            if (validate(size, bins, inReal, inImag, outReal, outImag)) {
+                System.out.println("Validation: " + "SUCCESS " + "\n");
+            } else {
+                System.out.println("Validation: " + " FAIL " + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples;
+
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * Implementations shared by the samples. Every sample supports a subset of them, selected in the command line with
+ * {@code --<option>}.
+ */
+public enum Implementation {
+
+    SEQUENTIAL("for running the sequential version with Java Streams", "seq", "sequential"),
+    MT("for running the CPU multi-thread version with Java Parallel Streams", "mt"),
+    TORNADO_LOOP("for accelerated version with TornadoVM", "tornado"),
+    TORNADO_KERNEL("for accelerated version with TornadoVM (Kernel API)", "tornadoContext"),
+    FFT("for running the CPU multi-thread frequency-domain version when it is faster than --mt", "fft"),
+    AUTO("for running every kernel on the backend with the lowest predicted time for its input size", "auto");
+
+    private final String description;
+    private final String[] options;
+
+    Implementation(String description, String... options) {
+        this.description = description;
+        this.options = options;
+    }
+
+    /**
+     * Main option name, e.g. {@code tornado} for {@code --tornado}.
+     */
+    public String getOption() {
+        return options[0];
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Implementation for an option (without the leading {@code --}, case insensitive), or null if there is none.
+     */
+    public static Implementation fromOption(String option) {
+        for (Implementation implementation : values()) {
+            for (String name : implementation.options) {
+                if (name.toLowerCase(Locale.ROOT).equals(option.toLowerCase(Locale.ROOT))) {
+                    return implementation;
+                }
+            }
+        }
+        return null;
+    }
+
+    public static void printUsage(EnumSet<Implementation> supported) {
+        System.out.println("Option not valid. Use:");
+        for (Implementation implementation : supported) {
+            System.out.println("\t--" + implementation.getOption() + ": " + implementation.getDescription());
+        }
+    }
+}
@@ -15,19 +15,25 @@
  */
 package qconplus2021.samples;
 
-import uk.ac.manchester.tornado.api.GridScheduler;
-import uk.ac.manchester.tornado.api.KernelContext;
-import uk.ac.manchester.tornado.api.TaskSchedule;
-import uk.ac.manchester.tornado.api.WorkerGrid2D;
-import uk.ac.manchester.tornado.api.annotations.Parallel;
+import qconplus2021.samples.backend.Backends;
+import qconplus2021.samples.backend.ComputeBackend;
+import qconplus2021.samples.backend.Kernel;
+import qconplus2021.samples.cache.ResultCache;
+import qconplus2021.samples.harness.BenchmarkConfig;
+import qconplus2021.samples.harness.BenchmarkRunner;
+import qconplus2021.samples.harness.Phase;
+import qconplus2021.samples.harness.PhasedBenchmark;
+import qconplus2021.samples.tuning.Autotuner;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.HashMap;
-import java.util.stream.IntStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.EnumSet;
 
 /**
  * Example in TornadoVM for generating Julia Set Fractals. The algorithm used was adapted from
@@ -37,268 +43,169 @@ import java.util.stream.IntStream;
  * How to run?
  *
  * <code>
- * tornado qconplus2021.samples.JuliaSets --<tornado|tornadoContext|mt|seq>
+ * tornado qconplus2021.samples.JuliaSets --<tornado|tornadoContext|mt|seq|auto>
  *
  * # Example:
  *    $ tornado qconplus2021.samples.JuliaSets --tornado
  * </code>
  *
- * This example will generate an 8K x 8K image in /tmp/juliaSets.png
+ * This example will generate an 8K x 8K image in /tmp/juliaSets.png. For larger images, see {@link JuliaSetsPoster}.
  *
+ * The options of the {@link BenchmarkRunner} (e.g., --iterations=N, --format=csv) are also accepted.
+ *
+ * --mt and --tornadoContext use the configuration found by the {@link Autotuner} (tile size and threads, or local work
+ * size), if any. Run with -Dautotune=true to search it the first time.
+ *
+ * With -Dcache=true, the PNG is kept in the {@link ResultCache}: a run with the same size, parameters and
+ * implementation skips compute, repack and encode, and writes the cached file.
  */
-public class JuliaSets {
+public class JuliaSets implements PhasedBenchmark {
+
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.of(Implementation.SEQUENTIAL, Implementation.MT, Implementation.TORNADO_LOOP, Implementation.TORNADO_KERNEL, Implementation.AUTO);
 
     public final static int SIZE = 8192;
 
     public Implementation version;
 
-    // Parameters for the algorithm used
-    private static final int MAX_ITERATIONS = 1000;
-    private static final float ZOOM = 1;
-    private static final float CX = -0.7f;
-    private static final float CY = 0.27015f;
-    private static final float MOVE_X = 0;
-    private static final float MOVE_Y = 0;
+    // Parameters for the algorithm used (shared by the kernels of all backends)
+    public static final int MAX_ITERATIONS = 1000;
+    public static final float ZOOM = 1;
+    public static final float CX = -0.7f;
+    public static final float CY = 0.27015f;
+    public static final float MOVE_X = 0;
+    public static final float MOVE_Y = 0;
 
-    private static TaskSchedule s0;
-    private static int[] result;
-    private static float[] hue;
-    private static float[] brightness;
+    private final int size;
+    private Kernel kernel;
+    private int[] result;
+    private float[] hue;
+    private float[] brightness;
 
+    private static final boolean STORE_IMAGE = true;
 
-    private static final int ITERATIONS = 10;
-    private GridScheduler grid;
-    private WorkerGrid2D worker2D;
-    private KernelContext context;
+    // Part of the result cache key: change it when the output changes
+    private static final String RESULT_VERSION = "1";
 
-    private static final boolean STORE_IMAGE = true;
+    private final ResultCache cache = ResultCache.getInstance();
+    // Null when the cache is disabled
+    private final String cacheKey;
+    // Cached PNG, or null
+    private byte[] cachedResult;
 
-    public enum Implementation {
-        SEQUENTIAL,
-        MT,
-        TORNADO_LOOP,
-        TORNADO_KERNEL
-    }
-    private static final HashMap<String, Implementation> VALID_OPTIONS = new HashMap<>();
-    static {
-        VALID_OPTIONS.put("sequential", Implementation.SEQUENTIAL);
-        VALID_OPTIONS.put("seq", Implementation.SEQUENTIAL);
-        VALID_OPTIONS.put("mt", Implementation.MT);
-        VALID_OPTIONS.put("tornado", Implementation.TORNADO_LOOP);
-        VALID_OPTIONS.put("tornadoContext", Implementation.TORNADO_KERNEL);
-        VALID_OPTIONS.put("tornadocontext", Implementation.TORNADO_KERNEL);
+    public JuliaSets(Implementation version) {
+        this(version, SIZE);
     }
 
-    public JuliaSets(Implementation version) {
-        result = new int[SIZE * SIZE];
-        hue = new float[SIZE * SIZE];
-        brightness = new float[SIZE * SIZE];
+    /**
+     * Julia Set of {@code size x size} pixels.
+     */
+    public JuliaSets(Implementation version, int size) {
+        this.size = size;
+        result = new int[size * size];
+        hue = new float[size * size];
+        brightness = new float[size * size];
         this.version = version;
-        if (version == Implementation.TORNADO_LOOP) {
-
-            s0 = new TaskSchedule("s0")
-                    .task("t0", JuliaSets::juliaSetTornado, SIZE, hue, brightness)
-                    .streamOut(hue, brightness);
+        ComputeBackend backend = Backends.get(version);
+        System.out.println(backend.getName() + ": " + backend.getDevice());
+        kernel = backend.juliaSet(size, hue, brightness);
+        cacheKey = cache.isEnabled() && STORE_IMAGE ? ResultCache.key(null, "JuliaSets", RESULT_VERSION, version.name(), String.valueOf(size), //
+                String.valueOf(MAX_ITERATIONS), String.valueOf(ZOOM), String.valueOf(CX), String.valueOf(CY), String.valueOf(MOVE_X), String.valueOf(MOVE_Y), "PNG") : null;
+    }
 
-        } else if (version == Implementation.TORNADO_KERNEL) {
-            worker2D = new WorkerGrid2D(SIZE, SIZE);
-            context = new KernelContext();
-            grid = new GridScheduler();
-            grid.setWorkerGrid("s0.t0", worker2D);
-            s0 = new TaskSchedule("s0")
-                    .task("t0", JuliaSets::juliaSetTornadoWithContext, SIZE, hue, brightness, context)
-                    .streamOut(hue, brightness);
+    private static byte[] encodePNG(int[] output, int size) {
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        WritableRaster write = img.getRaster();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                int colour = output[(i * size + j)];
+                write.setSample(i, j, 1, colour);
+            }
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(img, "PNG", png);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot encode the image: " + e.getMessage());
         }
+        return png.toByteArray();
     }
 
-    private static void juliaSetsStreamsSequential(int size, float[] hue, float[] brightness) {
-        IntStream.range(0, size).sequential().forEach(x -> {
-            IntStream.range(0, size).sequential().forEach(y -> {
-                float zx = 1.5f * (x - size / 2) / (0.5f * ZOOM * size) + MOVE_X;
-                float zy = (y - size / 2) / (0.5f * ZOOM * size) + MOVE_Y;
-                float i = MAX_ITERATIONS;
-                while (zx * zx + zy * zy < 4 && i > 0) {
-                    float tmp = zx * zx - zy * zy + CX;
-                    zy = 2.0f * zx * zy + CY;
-                    zx = tmp;
-                    i--;
-                }
-                hue[x * size + y] = (MAX_ITERATIONS / i);
-                brightness[x * size + y] = i > 0 ? 1 : 0;
-
-            });
-        });
+    private static void writeFile(byte[] png) {
+        try {
+            String tmpDirsLocation = System.getProperty("java.io.tmpdir");
+            File outputFile = new File(tmpDirsLocation + "/juliaSets.png");
+            Files.write(outputFile.toPath(), png);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
-    private static void juliaSetsStreamsParallel(int size, float[] hue, float[] brightness) {
-        IntStream.range(0, size).parallel().forEach(x -> {
-            IntStream.range(0, size).parallel().forEach(y -> {
-                float zx = 1.5f * (x - size / 2) / (0.5f * ZOOM * size) + MOVE_X;
-                float zy = (y - size / 2) / (0.5f * ZOOM * size) + MOVE_Y;
-                float i = MAX_ITERATIONS;
-                while (zx * zx + zy * zy < 4 && i > 0) {
-                    float tmp = zx * zx - zy * zy + CX;
-                    zy = 2.0f * zx * zy + CY;
-                    zx = tmp;
-                    i--;
-                }
-                hue[x * size + y] = (MAX_ITERATIONS / i);
-                brightness[x * size + y] = i > 0 ? 1 : 0;
-
-            });
-        });
+    @Override
+    public EnumSet<Phase> getPhases() {
+        return STORE_IMAGE ? EnumSet.of(Phase.COMPUTE, Phase.REPACK, Phase.ENCODE) : EnumSet.of(Phase.COMPUTE, Phase.REPACK);
     }
 
-    /**
-     * Julia Set version adapted for TornadoVM
-     *
-     * It has two parallel loops, generating a 2D kernel for GPUs and FPGAs.
-     *
-     */
-    private static void juliaSetTornado(int size, float[] hue, float[] brightness) {
-        for (@Parallel int ix = 0; ix < size; ix++) {
-            for (@Parallel int jx = 0; jx < size; jx++) {
-                float zx = 1.5f * (ix - size / 2) / (0.5f * ZOOM * size) + MOVE_X;
-                float zy = (jx - size / 2) / (0.5f * ZOOM * size) + MOVE_Y;
-                float k = MAX_ITERATIONS;
-                while (zx * zx + zy * zy < 4 && k > 0) {
-                    float tmp = zx * zx - zy * zy + CX;
-                    zy = 2.0f * zx * zy + CY;
-                    zx = tmp;
-                    k--;
-                }
-                hue[ix * size + jx] = (MAX_ITERATIONS / k);
-                brightness[ix * size + jx] = k > 0 ? 1 : 0;
+    @Override
+    public void compute() {
+        if (cacheKey != null) {
+            cachedResult = cache.get(cacheKey);
+            if (cachedResult != null) {
+                return;
             }
         }
+        kernel.execute();
     }
 
     /**
-     * Julia Set version adapted for TornadoVM
-     *
-     * It has two parallel loops, generating a 2D kernel for GPUs and FPGAs.
-     *
-     * It uses the KernelContext API
-     *
+     * Converts hue and brightness into RGB colours.
      */
-    private static void juliaSetTornadoWithContext(int size, float[] hue, float[] brightness, KernelContext context) {
-        int ix = context.globalIdx;
-        int jx = context.globalIdy;
-        float zx = 1.5f * (ix - size / 2) / (0.5f * ZOOM * size) + MOVE_X;
-        float zy = (jx - size / 2) / (0.5f * ZOOM * size) + MOVE_Y;
-        float k = MAX_ITERATIONS;
-        while (zx * zx + zy * zy < 4 && k > 0) {
-            float tmp = zx * zx - zy * zy + CX;
-            zy = 2.0f * zx * zy + CY;
-            zx = tmp;
-            k--;
+    @Override
+    public void repack() {
+        if (cachedResult != null) {
+            return;
         }
-        hue[ix * size + jx] = (MAX_ITERATIONS / k);
-        brightness[ix * size + jx] = k > 0 ? 1 : 0;
-    }
-
-
-    private static BufferedImage writeFile(int[] output, int size) {
-        BufferedImage img = null;
-        try {
-            img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
-            WritableRaster write = img.getRaster();
-
-            String tmpDirsLocation = System.getProperty("java.io.tmpdir");
-            File outputFile = new File(tmpDirsLocation + "/juliaSets.png");
-
-            for (int i = 0; i < size; i++) {
-                for (int j = 0; j < size; j++) {
-                    int colour = output[(i * size + j)];
-                    write.setSample(i, j, 1, colour);
-                }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                result[i * size + j] = colour(hue[i * size + j], brightness[i * size + j]);
             }
-            ImageIO.write(img, "PNG", outputFile);
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return img;
     }
 
-    private void runSequential() {
-        for (int i = 0; i < ITERATIONS; i++) {
-            long start = System.nanoTime();
-            juliaSetsStreamsSequential(SIZE, hue, brightness);
-            long end = System.nanoTime();
-            double seconds = (end - start) * 1E-9;
-            System.out.println("Total Sequential: " + (end - start) + " (ns) --  " +  seconds + " (s)");
+    @Override
+    public void encode() {
+        if (cachedResult != null) {
+            writeFile(cachedResult);
+            return;
         }
-    }
-
-    private void runMultiThread() {
-        for (int i = 0; i < ITERATIONS; i++) {
-            long start = System.nanoTime();
-            juliaSetsStreamsParallel(SIZE, hue, brightness);
-            long end = System.nanoTime();
-            double seconds = (end - start) * 1E-9;
-            System.out.println("Total Multi-threaded: " + (end - start) + " (ns) --  " +  seconds + " (s)");
+        byte[] png = encodePNG(result, size);
+        if (cacheKey != null) {
+            cache.put(cacheKey, png);
         }
+        writeFile(png);
     }
 
-    private void runWithTornado() {
-        for (int i = 0; i < ITERATIONS; i++) {
-            long start = System.nanoTime();
-            s0.execute();
-            long end = System.nanoTime();
-            double seconds = (end - start) * 1E-9;
-            System.out.println("Total Tornado: " + (end - start) + " (ns) --  " +  seconds + " (s)");
-        }
+    /**
+     * RGB colour of a pixel. The PNG file keeps its lowest 8 bits, in the green sample.
+     */
+    public static int colour(float hue, float brightness) {
+        return Color.HSBtoRGB(hue % 1, 1, brightness);
     }
 
-    private void runWithTornadoContext() {
-        for (int i = 0; i < ITERATIONS; i++) {
-            long start = System.nanoTime();
-            s0.execute(grid);
-            long end = System.nanoTime();
-            double seconds = (end - start) * 1E-9;
-            System.out.println("Total Tornado: " + (end - start) + " (ns) --  " +  seconds + " (s)");
-        }
+    public float[] getHue() {
+        return hue;
     }
 
-    public void run() {
-        switch (version) {
-            case SEQUENTIAL:
-                runSequential();
-                break;
-            case MT:
-                runMultiThread();
-                break;
-            case TORNADO_LOOP:
-                runWithTornado();
-                break;
-            case TORNADO_KERNEL:
-                runWithTornadoContext();
-                break;
-        }
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
-                result[i * SIZE + j] = Color.HSBtoRGB(hue[i * SIZE + j] % 1, 1, brightness[i * SIZE + j]);
-            }
-        }
-        if (STORE_IMAGE) {
-            writeFile(result, SIZE);
-        }
+    public float[] getBrightness() {
+        return brightness;
     }
 
     public static void main(String[] args) {
-        String version = "tornado";
-        if (args.length != 0) {
-            version = args[0].substring(2);
-            if (!VALID_OPTIONS.containsKey(version)) {
-                System.out.println("Option not valid. Use:");
-                System.out.println("\t--tornado: for accelerated version with TornadoVM");
-                System.out.println("\t--tornadoContext: for accelerated version with TornadoVM");
-                System.out.println("\t--seq: for running the sequential version with Java Streams");
-                System.out.println("\t--mt: for running the CPU multi-thread version with Java Parallel Streams");
-                System.exit(-1);
-            }
+        BenchmarkConfig config = BenchmarkConfig.parse(args);
+        Implementation implementation = config.getImplementation(Implementation.TORNADO_LOOP, SUPPORTED);
+        JuliaSets juliaSets = new JuliaSets(implementation);
+        new BenchmarkRunner(config).run("JuliaSets", implementation, juliaSets);
+        if (ResultCache.getInstance().isEnabled()) {
+            System.out.println(ResultCache.getInstance());
         }
-        JuliaSets juliaSets = new JuliaSets(VALID_OPTIONS.get(version));
-        juliaSets.run();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples;
+
+import qconplus2021.samples.backend.SequentialBackend;
+import qconplus2021.samples.bands.BandRenderer;
+import qconplus2021.samples.bands.ImageSink;
+import qconplus2021.samples.bands.PngSink;
+import qconplus2021.samples.bands.RawSink;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Julia Set of {@code size x size} pixels for sizes that do not fit in the arrays of {@link JuliaSets} (about 46K x 46K,
+ * since the whole image is indexed with an {@code int}). The image is rendered in horizontal bands on all the cores
+ * and each band is written to the file as soon as it is finished (see {@link BandRenderer}), so the memory needed is a
+ * few bands, and not the whole image.
+ *
+ * The pixels are the same as in the image written by {@link JuliaSets}.
+ *
+ * How to run?
+ *
+ * <code>
+ * java qconplus2021.samples.JuliaSetsPoster <size> <output.png|output.raw> [--band=ROWS] [--inFlight=N] [--threads=N]
+ *
+ * # Example:
+ *    $ java qconplus2021.samples.JuliaSetsPoster 100000 /tmp/juliaSetsPoster.png
+ * </code>
+ *
+ * --band=ROWS: rows per band (default: about 8 MB per band)
+ * --threads=N: threads rendering the bands (default: number of cores)
+ * --inFlight=N: bands rendered or waiting to be written at the same time (default: threads + 2)
+ *
+ * Files ending in {@code .raw} are written as raw RGB (3 bytes per pixel, no header); anything else as PNG.
+ */
+public class JuliaSetsPoster {
+
+    private static final long BAND_BYTES = 8 << 20;
+
+    private static void usage() {
+        System.out.println("Usage: <size> <output.png|output.raw> [--band=ROWS] [--inFlight=N] [--threads=N]");
+        System.exit(-1);
+    }
+
+    /**
+     * Renders the rows {@code [rowFrom, rowFrom + rows)} of the Julia Set into {@code pixels} (RGB).
+     */
+    static void render(int size, int rowFrom, int rows, byte[] pixels) {
+        for (int row = 0; row < rows; row++) {
+            int y = rowFrom + row;
+            int offset = row * size * 3;
+            for (int x = 0; x < size; x++) {
+                float i = SequentialBackend.juliaIterations(size, x, y);
+                int colour = JuliaSets.colour(JuliaSets.MAX_ITERATIONS / i, i > 0 ? 1 : 0);
+                pixels[offset + x * 3] = 0;
+                pixels[offset + x * 3 + 1] = (byte) colour;
+                pixels[offset + x * 3 + 2] = 0;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            usage();
+        }
+        int size = Integer.parseInt(args[0]);
+        String fileName = args[1];
+        int threads = Runtime.getRuntime().availableProcessors();
+        int inFlight = -1;
+        int bandRows = -1;
+        for (int k = 2; k < args.length; k++) {
+            String arg = args[k];
+            if (arg.startsWith("--band=")) {
+                bandRows = Integer.parseInt(arg.substring("--band=".length()));
+            } else if (arg.startsWith("--inFlight=")) {
+                inFlight = Integer.parseInt(arg.substring("--inFlight=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else {
+                usage();
+            }
+        }
+        if (size <= 0) {
+            usage();
+        }
+        if (bandRows < 0) {
+            bandRows = BandRenderer.rowsFor(size, BAND_BYTES);
+        }
+        if (inFlight < 0) {
+            inFlight = threads + 2;
+        }
+
+        BandRenderer renderer = new BandRenderer(size, size, bandRows, threads, inFlight);
+        System.out.println("Julia Set of " + size + "x" + size + " pixels into " + fileName);
+        BandRenderer.Stats stats;
+        try (ImageSink sink = create(fileName, size)) {
+            stats = renderer.run((rowFrom, rows, pixels) -> render(size, rowFrom, rows, pixels), sink);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write the output file: " + fileName + ": " + e.getMessage());
+        }
+        stats.print(System.out);
+    }
+
+    private static ImageSink create(String name, int size) throws IOException {
+        OutputStream output;
+        try {
+            output = new FileOutputStream(name);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("Cannot write the output file: " + name);
+        }
+        return name.endsWith(".raw") ? new RawSink(output, size) : new PngSink(output, size, size);
+    }
+}
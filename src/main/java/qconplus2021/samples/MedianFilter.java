@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples;
+
+import qconplus2021.samples.backend.Backends;
+import qconplus2021.samples.backend.ComputeBackend;
+import qconplus2021.samples.backend.Kernel;
+import qconplus2021.samples.backend.RankFilter;
+import qconplus2021.samples.harness.BenchmarkConfig;
+import qconplus2021.samples.harness.BenchmarkRunner;
+import qconplus2021.samples.harness.Phase;
+import qconplus2021.samples.harness.PhasedBenchmark;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Median filter (or any percentile) of a JPEG image, for denoising. Every channel is filtered with a
+ * {@code (2 radius + 1)^2} window:
+ *
+ * --seq: constant-time sliding histograms (see {@link RankFilter}), sequentially
+ * --mt: constant-time sliding histograms, with the rows split in stripes filtered in parallel
+ * --tornado: it runs with TornadoVM using the Loop Parallel API (using a hardware accelerator)
+ * --tornadoContext: it runs with TornadoVM using the Parallel Kernel API (using a hardware accelerator)
+ * --auto: it runs on the backend with the lowest predicted time for the image size (see {@link qconplus2021.samples.backend.Dispatcher})
+ *
+ * The TornadoVM kernels read the whole window once per bit of the result, so their cost grows with the square of the
+ * radius: above {@link #MAX_TORNADO_RADIUS} the --mt version runs instead.
+ *
+ * Options:
+ *
+ * --radius=N: radius of the window (default 15, as the 31x31 blur filter)
+ * --percentile=P: percentile of the window, 0-100 (default 50: median). 0 and 100 are the erosion and dilation.
+ *
+ * The options of the {@link BenchmarkRunner} (e.g., --iterations=N, --format=csv) are also accepted.
+ */
+public class MedianFilter implements PhasedBenchmark {
+
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.of(Implementation.SEQUENTIAL, Implementation.MT, Implementation.TORNADO_LOOP, Implementation.TORNADO_KERNEL, Implementation.AUTO);
+
+    public static final int DEFAULT_RADIUS = 15;
+    public static final int DEFAULT_PERCENTILE = 50;
+
+    // A 11x11 window read 8 times costs about as much as the 31x31 blur filter
+    public static final int MAX_TORNADO_RADIUS = 5;
+
+    private static final String IMAGE_FILE = "/tmp/image.jpg";
+
+    private BufferedImage image;
+    // Null when the image was given in memory
+    private String imageFile;
+    private Kernel kernel;
+
+    int w;
+    int h;
+    int[] redChannel;
+    int[] greenChannel;
+    int[] blueChannel;
+    int[] alphaChannel;
+    int[] redFilter;
+    int[] greenFilter;
+    int[] blueFilter;
+
+    public MedianFilter(Implementation implementation, int radius, int percentile) {
+        this(implementation, loadImage(), radius, percentile);
+        imageFile = IMAGE_FILE;
+    }
+
+    /**
+     * Rank filter over an image already in memory. The result is written back into it by {@link #repack()}.
+     */
+    public MedianFilter(Implementation implementation, BufferedImage image, int radius, int percentile) {
+        this.image = image;
+        initData();
+        int rank = RankFilter.rank(radius, percentile);
+        if ((implementation == Implementation.TORNADO_LOOP || implementation == Implementation.TORNADO_KERNEL) && radius > MAX_TORNADO_RADIUS) {
+            System.out.println("Radius " + radius + " is too large for the TornadoVM kernels (max " + MAX_TORNADO_RADIUS + "), using --mt");
+            implementation = Implementation.MT;
+        }
+        ComputeBackend backend = Backends.get(implementation);
+        System.out.println(backend.getName() + ": " + backend.getDevice());
+        kernel = backend.rankFilter(new int[][] { redChannel, greenChannel, blueChannel }, new int[][] { redFilter, greenFilter, blueFilter }, w, h, radius, rank);
+    }
+
+    @Override
+    public EnumSet<Phase> getPhases() {
+        return EnumSet.allOf(Phase.class);
+    }
+
+    public static BufferedImage loadImage() {
+        try {
+            return ImageIO.read(new File(IMAGE_FILE));
+        } catch (IOException e) {
+            throw new RuntimeException("Input file not found: " + IMAGE_FILE);
+        }
+    }
+
+    private void initData() {
+        w = image.getWidth();
+        h = image.getHeight();
+
+        redChannel = new int[w * h];
+        greenChannel = new int[w * h];
+        blueChannel = new int[w * h];
+        alphaChannel = new int[w * h];
+
+        redFilter = new int[w * h];
+        greenFilter = new int[w * h];
+        blueFilter = new int[w * h];
+        unpack();
+    }
+
+    /**
+     * Reads the input file again. No-op if the image was given in memory.
+     */
+    @Override
+    public void load() {
+        if (imageFile != null) {
+            image = loadImage();
+        }
+    }
+
+    /**
+     * Splits the image into the channel arrays. They are reused, since the kernels are bound to them.
+     */
+    @Override
+    public void unpack() {
+        if (image.getWidth() != w || image.getHeight() != h) {
+            throw new IllegalStateException("Image size changed: " + image.getWidth() + "x" + image.getHeight() + " vs " + w + "x" + h);
+        }
+        for (int i = 0; i < w; i++) {
+            for (int j = 0; j < h; j++) {
+                int rgb = image.getRGB(i, j);
+                alphaChannel[i * h + j] = (rgb >> 24) & 0xFF;
+                redChannel[i * h + j] = (rgb >> 16) & 0xFF;
+                greenChannel[i * h + j] = (rgb >> 8) & 0xFF;
+                blueChannel[i * h + j] = (rgb & 0xFF);
+            }
+        }
+    }
+
+    @Override
+    public void compute() {
+        kernel.execute();
+    }
+
+    @Override
+    public void repack() {
+        for (int i = 0; i < w; i++) {
+            for (int j = 0; j < h; j++) {
+                Color c = new Color(redFilter[i * h + j], greenFilter[i * h + j], blueFilter[i * h + j], alphaChannel[i * h + j]);
+                image.setRGB(i, j, c.getRGB());
+            }
+        }
+    }
+
+    @Override
+    public void encode() {
+        try {
+            String tmpDirsLocation = System.getProperty("java.io.tmpdir");
+            File outputFile = new File(tmpDirsLocation + "/median.jpeg");
+            ImageIO.write(image, "JPEG", outputFile);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) {
+        int radius = DEFAULT_RADIUS;
+        int percentile = DEFAULT_PERCENTILE;
+        List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--radius=")) {
+                radius = Integer.parseInt(arg.substring("--radius=".length()));
+            } else if (arg.startsWith("--percentile=")) {
+                percentile = Integer.parseInt(arg.substring("--percentile=".length()));
+            } else {
+                arguments.add(arg);
+            }
+        }
+        BenchmarkConfig config = BenchmarkConfig.parse(arguments.toArray(new String[0]));
+        Implementation implementation = config.getImplementation(Implementation.MT, SUPPORTED);
+        MedianFilter medianFilter = new MedianFilter(implementation, radius, percentile);
+        new BenchmarkRunner(config).run("MedianFilter", implementation, medianFilter);
+    }
+}
@@ -15,6 +15,15 @@
  */
 package qconplus2021.samples;
 
+import qconplus2021.samples.backend.Kernel;
+import qconplus2021.samples.expression.Float4Expression;
+import qconplus2021.samples.harness.BenchmarkConfig;
+import qconplus2021.samples.harness.BenchmarkRunner;
+import qconplus2021.samples.harness.Phase;
+import qconplus2021.samples.harness.PhasedBenchmark;
+import qconplus2021.samples.jfr.Events;
+import qconplus2021.samples.tuning.Autotuner;
+import qconplus2021.samples.vector.OffHeapVectorFloat4;
 import uk.ac.manchester.tornado.api.GridScheduler;
 import uk.ac.manchester.tornado.api.KernelContext;
 import uk.ac.manchester.tornado.api.TaskSchedule;
@@ -24,6 +33,8 @@ import uk.ac.manchester.tornado.api.annotations.Parallel;
 import uk.ac.manchester.tornado.api.collections.types.Float4;
 import uk.ac.manchester.tornado.api.collections.types.VectorFloat4;
 
+import java.nio.FloatBuffer;
+import java.util.EnumSet;
 import java.util.Random;
 
 /**
@@ -31,61 +42,137 @@ import java.util.Random;
  *
  * How to run?
  *
- * tornado --threadInfo --printKernel -cp target/qconplus2021-1.0-SNAPSHOT.jar samples.VectorTypes
+ * tornado --threadInfo --printKernel -cp target/qconplus2021-1.0-SNAPSHOT.jar samples.VectorTypes --<tornado|tornadoContext|seq>
  *
  * Flags:
  *  --threadInfo: prints in real time the accelerator used and the threads launched on the target device.
  *  --printKernel: prints the generated kernel by TornadoVM
  *
+ * --tornado runs the Loop Parallel API version, --tornadoContext the Kernel API version and --seq the Loop Parallel
+ * version on the JVM. The options of the {@link BenchmarkRunner} (e.g., --iterations=N, --format=csv) are also accepted.
  */
-public class VectorTypes {
+public class VectorTypes implements PhasedBenchmark {
+
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.of(Implementation.SEQUENTIAL, Implementation.TORNADO_LOOP, Implementation.TORNADO_KERNEL);
+
+    private static final int SIZE = 8192;
+
+    private final Implementation implementation;
+    private final VectorFloat4 a;
+    private final VectorFloat4 b;
+    private final VectorFloat4 c;
+    private TaskSchedule taskSchedule;
+    private GridScheduler grid;
+    private final Kernel kernel;
 
     // Loop Parallel API
-    private static void accelerateVectorOperations(VectorFloat4 inputA, VectorFloat4 inputB, VectorFloat4 output) {
+    public static void accelerateVectorOperations(VectorFloat4 inputA, VectorFloat4 inputB, VectorFloat4 output) {
         for (@Parallel int i = 0; i < inputA.getLength(); i++) {
             output.set(i, Float4.add(inputA.get(i), inputB.get(i)));
         }
     }
 
     // Kernel Parallel API
-    private static void accelerateVectorOperationsKernelAPI(KernelContext context, VectorFloat4 inputA, VectorFloat4 inputB, VectorFloat4 output) {
+    public static void accelerateVectorOperationsKernelAPI(KernelContext context, VectorFloat4 inputA, VectorFloat4 inputB, VectorFloat4 output) {
         int idx = context.globalIdx;
         output.set(idx, Float4.sub(inputA.get(idx), inputB.get(idx)));
     }
 
-    public static void main( String[] args ) {
+    /**
+     * Runs {@link #accelerateVectorOperations} over off-heap (e.g., memory-mapped) vectors of any size. Data goes through
+     * fixed-size staging vectors, one chunk at a time, so the heap footprint does not depend on the dataset size.
+     */
+    public static void accelerateVectorOperations(OffHeapVectorFloat4 inputA, OffHeapVectorFloat4 inputB, OffHeapVectorFloat4 output, int chunkSize) {
+        VectorFloat4 chunkA = new VectorFloat4(chunkSize);
+        VectorFloat4 chunkB = new VectorFloat4(chunkSize);
+        VectorFloat4 chunkOutput = new VectorFloat4(chunkSize);
+        TaskSchedule schedule = new TaskSchedule("offHeap") //
+                .streamIn(chunkA, chunkB) //
+                .task("t0", VectorTypes::accelerateVectorOperations, chunkA, chunkB, chunkOutput) //
+                .streamOut(chunkOutput);
+        for (long from = 0; from < inputA.getLength(); from += chunkSize) {
+            int count = inputA.copyTo(from, chunkA);
+            inputB.copyTo(from, chunkB);
+            schedule.execute();
+            output.copyFrom(chunkOutput, from, count);
+        }
+    }
 
-        VectorFloat4 a = new VectorFloat4(8192);
-        VectorFloat4 b = new VectorFloat4(8192);
-        VectorFloat4 c = new VectorFloat4(8192);
+    public VectorTypes(Implementation implementation, int size) {
+        this.implementation = implementation;
+        a = new VectorFloat4(size);
+        b = new VectorFloat4(size);
+        c = new VectorFloat4(size);
 
-        // Input Data Initialization
+        // Input Data Initialization: write the x, y, z, w components in place, without a Float4 per element
         Random r = new Random();
-        for (int i = 0; i < a.getLength(); i++) {
-            Float4 vectorElementA = new Float4();
-            Float4 vectorElementB = new Float4();
-            for (int j = 0; j < vectorElementA.size(); j++) {
-                vectorElementA.set(j, r.nextFloat());
-                vectorElementB.set(j, r.nextFloat());
-            }
-            a.set(i, vectorElementA);
-            b.set(i, vectorElementB);
+        float[] storageA = a.getArray();
+        float[] storageB = b.getArray();
+        for (int i = 0; i < storageA.length; i++) {
+            storageA[i] = r.nextFloat();
+            storageB[i] = r.nextFloat();
         }
 
-        // Loop Parallel API
-        new TaskSchedule("s0") //
-                .task("t0", VectorTypes::accelerateVectorOperations, a, b, c)
-                .streamOut(c) //
-                .execute();
-
-        // Kernel API
-        WorkerGrid workerGrid = new WorkerGrid1D(8192);
-        GridScheduler grid = new GridScheduler();
-        grid.setWorkerGrid("s1.t0", workerGrid);
-        KernelContext context = new KernelContext();
-        new TaskSchedule("s1") //
-                .task("t0", VectorTypes::accelerateVectorOperationsKernelAPI, context, a, b, c)
-                .streamOut(c)
-                .execute(grid);
+        if (implementation == Implementation.TORNADO_LOOP) {
+            // Loop Parallel API
+            taskSchedule = new TaskSchedule("s0") //
+                    .task("t0", VectorTypes::accelerateVectorOperations, a, b, c) //
+                    .streamOut(c);
+            kernel = Events.traced(() -> taskSchedule.execute(), implementation, "tornado-loop", "s0.t0", size, taskSchedule.getDevice().toString());
+        } else if (implementation == Implementation.TORNADO_KERNEL) {
+            // Kernel API
+            WorkerGrid workerGrid = new WorkerGrid1D(size);
+            grid = new GridScheduler();
+            grid.setWorkerGrid("s1.t0", workerGrid);
+            KernelContext context = new KernelContext();
+            taskSchedule = new TaskSchedule("s1") //
+                    .task("t0", VectorTypes::accelerateVectorOperationsKernelAPI, context, a, b, c) //
+                    .streamOut(c);
+            kernel = Events.traced(() -> taskSchedule.execute(grid), implementation, "tornado-kernel", "s1.t0", size, taskSchedule.getDevice().toString());
+        } else {
+            kernel = Events.traced(() -> accelerateVectorOperations(a, b, c), implementation, "sequential", "accelerateVectorOperations", size, Autotuner.cpuDevice());
+        }
+    }
+
+    @Override
+    public EnumSet<Phase> getPhases() {
+        return EnumSet.of(Phase.COMPUTE);
+    }
+
+    @Override
+    public void compute() {
+        kernel.execute();
+    }
+
+    public VectorFloat4 getOutput() {
+        return c;
+    }
+
+    public static void main( String[] args ) {
+
+        BenchmarkConfig config = BenchmarkConfig.parse(args);
+        Implementation implementation = config.getImplementation(Implementation.TORNADO_LOOP, SUPPORTED);
+        VectorTypes vectorTypes = new VectorTypes(implementation, SIZE);
+        new BenchmarkRunner(config).run("VectorTypes", implementation, vectorTypes);
+
+        VectorFloat4 a = vectorTypes.a;
+        VectorFloat4 b = vectorTypes.b;
+        VectorFloat4 c = vectorTypes.c;
+
+        // Fused expression: a * b + c - a evaluated in a single pass, without intermediate vectors. Expressions have no
+        // Kernel API evaluator: --tornadoContext uses the Loop Parallel API one
+        VectorFloat4 d = new VectorFloat4(SIZE);
+        Float4Expression.of(a).mul(b).add(c).sub(a).evaluate(d, implementation == Implementation.TORNADO_KERNEL ? Implementation.TORNADO_LOOP : implementation);
+
+        if (implementation == Implementation.SEQUENTIAL) {
+            return;
+        }
+        // Off-heap vectors (use OffHeapVectorFloat4.map to load them from a file), streamed in chunks through the kernel
+        OffHeapVectorFloat4 offHeapA = OffHeapVectorFloat4.allocate(a.getLength());
+        OffHeapVectorFloat4 offHeapB = OffHeapVectorFloat4.allocate(b.getLength());
+        OffHeapVectorFloat4 offHeapOutput = OffHeapVectorFloat4.allocate(a.getLength());
+        offHeapA.load(FloatBuffer.wrap(a.getArray()));
+        offHeapB.load(FloatBuffer.wrap(b.getArray()));
+        accelerateVectorOperations(offHeapA, offHeapB, offHeapOutput, 2048);
     }
 }
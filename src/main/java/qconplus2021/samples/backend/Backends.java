@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.backend;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.jfr.Events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the {@link ComputeBackend}s listed in {@code META-INF/services}. Providers that cannot be loaded (e.g.,
+ * the TornadoVM backends when the TornadoVM classes are not in the class path) or that are not available are skipped,
+ * so the same services file works for the CPU-only build.
+ *
+ * The kernels of the registered backends emit JDK Flight Recorder events (see {@link Events}).
+ */
+public final class Backends {
+
+    private static List<ComputeBackend> available;
+
+    private Backends() {
+    }
+
+    public static synchronized List<ComputeBackend> getAvailable() {
+        if (available == null) {
+            List<ComputeBackend> backends = new ArrayList<>();
+            Iterator<ComputeBackend> providers = ServiceLoader.load(ComputeBackend.class).iterator();
+            while (true) {
+                try {
+                    if (!providers.hasNext()) {
+                        break;
+                    }
+                    ComputeBackend backend = providers.next();
+                    if (backend.isAvailable()) {
+                        backends.add(Events.traced(backend));
+                    }
+                } catch (ServiceConfigurationError | LinkageError e) {
+                    // Provider without its runtime: not available
+                }
+            }
+            available = Collections.unmodifiableList(backends);
+        }
+        return available;
+    }
+
+    /**
+     * Implementations with an available backend, plus {@link Implementation#AUTO}.
+     */
+    public static EnumSet<Implementation> getImplementations() {
+        EnumSet<Implementation> implementations = EnumSet.of(Implementation.AUTO);
+        for (ComputeBackend backend : getAvailable()) {
+            implementations.add(backend.getImplementation());
+        }
+        return implementations;
+    }
+
+    /**
+     * Backend of an implementation. {@link Implementation#AUTO} returns the {@link Dispatcher}.
+     *
+     * @throws IllegalStateException
+     *             if the backend is not available in this JVM.
+     */
+    public static ComputeBackend get(Implementation implementation) {
+        if (implementation == Implementation.AUTO) {
+            return Dispatcher.getInstance();
+        }
+        for (ComputeBackend backend : getAvailable()) {
+            if (backend.getImplementation() == implementation) {
+                return backend;
+            }
+        }
+        throw new IllegalStateException("No backend available for --" + implementation.getOption() + " (is TornadoVM installed?)");
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.backend;
+
+import qconplus2021.samples.Implementation;
+
+/**
+ * Service-provider interface for the compute backends of the samples: sequential, ForkJoin (multi-threaded), TornadoVM
+ * Loop Parallel API and TornadoVM Kernel API. Backends are found with {@link java.util.ServiceLoader} (see
+ * {@link Backends}), so a build without TornadoVM only ships the CPU ones.
+ *
+ * Every method prepares a kernel over the given arrays: backends that need it (e.g., TornadoVM task schedules) build
+ * their state once, and {@link Kernel#execute()} runs it. Arrays use the layout of the samples.
+ *
+ * Every execution reads the current contents of the input arrays (images, channels and signals), so callers can reuse a
+ * kernel over new data. Filters and weights are constant for the lifetime of the kernel.
+ */
+public interface ComputeBackend {
+
+    /**
+     * Short name, e.g. {@code forkjoin}.
+     */
+    String getName();
+
+    Implementation getImplementation();
+
+    /**
+     * False if the backend cannot run in this JVM, e.g. TornadoVM backends without the TornadoVM runtime.
+     */
+    boolean isAvailable();
+
+    /**
+     * Device the kernels run on. It is part of the keys of the autotuner cache.
+     */
+    String getDevice();
+
+    /**
+     * Convolution of every channel ({@code numRows x numCols}, values 0-255) with a {@code filterWidth x filterWidth}
+     * filter, with clamp-to-edge borders. See {@link SequentialBackend#channelConvolutionSequential}.
+     */
+    Kernel blur(int[][] channels, int[][] outputs, int numRows, int numCols, float[] filter, int filterWidth);
+
+    /**
+     * Convolution of every channel ({@code numRows x numCols}, values 0-255) with the fixed-point weights of a
+     * {@link FixedPointFilter} ({@code shift} fraction bits), with integer arithmetic and clamp-to-edge borders. See
+     * {@link FixedPointFilter#convolvePixel}.
+     */
+    Kernel blurFixedPoint(int[][] channels, int[][] outputs, int numRows, int numCols, short[] weights, int shift, int filterWidth);
+
+    /**
+     * Rank filter of every channel ({@code numRows x numCols}, values 0-255): every output value is the one at position
+     * {@code rank} (0-based, see {@link RankFilter#rank}) of the sorted values of its {@code (2 radius + 1)^2} window,
+     * with clamp-to-edge borders. The median filter is the rank of percentile 50.
+     */
+    Kernel rankFilter(int[][] channels, int[][] outputs, int numRows, int numCols, int radius, int rank);
+
+    /**
+     * In-place conversion of ARGB pixels to gray levels.
+     */
+    Kernel grayscale(int[] image, int w, int h);
+
+    /**
+     * Edge detection: grayscale, convolution with a {@code filterWidth x filterWidth} filter (e.g., a blur) and
+     * gradient magnitude with the Sobel operator, from ARGB pixels to gray levels (0-255), with clamp-to-edge borders.
+     * The stages run fused, without intermediate images. See {@link qconplus2021.samples.pipeline.StencilPipeline}.
+     */
+    Kernel edgeDetection(int[] image, int[] edges, int w, int h, float[] filter, int filterWidth);
+
+    /**
+     * Julia Set of {@code size x size} pixels: hue and brightness of every pixel.
+     */
+    Kernel juliaSet(int size, float[] hue, float[] brightness);
+
+    /**
+     * Discrete Fourier Transform of a complex signal.
+     */
+    Kernel dft(float[] inReal, float[] inImag, float[] outReal, float[] outImag);
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.backend;
+
+import java.util.Locale;
+
+/**
+ * Linear cost of a kernel on a backend: {@code fixed + perUnit * work}, in nanoseconds. The fixed part is the launch
+ * overhead (task schedule, transfers of small buffers, thread wake-up), the per-unit part the throughput. It is fitted
+ * from the times of two problem sizes.
+ */
+public class CostModel {
+
+    private final double fixed;
+    private final double perUnit;
+
+    public CostModel(double fixed, double perUnit) {
+        this.fixed = fixed;
+        this.perUnit = perUnit;
+    }
+
+    /**
+     * Line through {@code (smallWork, smallTime)} and {@code (largeWork, largeTime)}, with non-negative coefficients.
+     */
+    public static CostModel fit(double smallWork, double smallTime, double largeWork, double largeTime) {
+        double perUnit = Math.max(0, (largeTime - smallTime) / (largeWork - smallWork));
+        double fixed = Math.max(0, smallTime - perUnit * smallWork);
+        return new CostModel(fixed, perUnit);
+    }
+
+    public double predict(double work) {
+        return fixed + perUnit * work;
+    }
+
+    public double getFixed() {
+        return fixed;
+    }
+
+    public double getPerUnit() {
+        return perUnit;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%.3f ms + %.3f ns/unit", fixed * 1e-6, perUnit);
+    }
+}
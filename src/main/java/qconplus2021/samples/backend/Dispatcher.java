@@ -0,0 +1,272 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.backend;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.jfr.Events;
+import qconplus2021.samples.tuning.Autotuner;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * Backend for {@code --auto}: every kernel runs on the available backend with the lowest predicted time for its size.
+ *
+ * The first time an operation is requested, every backend runs it at two small sizes (after warming up, so TornadoVM
+ * compiles the kernel), and a {@link CostModel} is fitted per backend. The fixed part captures the launch and transfer
+ * overhead of the accelerators, so small inputs stay on the CPU and large ones move to the device once the throughput
+ * pays for it.
+ *
+ * The calibration kernels use the default configuration of the backends (see {@link Autotuner#untuned}) and emit no
+ * JDK Flight Recorder events.
+ *
+ * The Loop Parallel API edge detection kernel of TornadoVM recomputes the blur for each Sobel tap, so it is never
+ * selected for filters wider than {@link #MAX_TORNADO_LOOP_FILTER_WIDTH}.
+ *
+ * -Ddispatch.trials=N: measured runs per calibration size (default 3)
+ */
+public class Dispatcher implements ComputeBackend {
+
+    public static final String TRIALS_PROPERTY = "dispatch.trials";
+
+    // 9 blurs of 9x9 pixels cost about as much as the 31x31 blur filter
+    public static final int MAX_TORNADO_LOOP_FILTER_WIDTH = 9;
+
+    private static final int WARMUP = 2;
+
+    enum Operation {
+        BLUR("blur", 32, 64),
+        BLUR_FIXED_POINT("blurFixedPoint", 32, 64),
+        RANK_FILTER("rankFilter", 64, 128),
+        GRAYSCALE("grayscale", 256, 1024),
+        EDGE_DETECTION("edgeDetection", 64, 128),
+        JULIA_SET("juliaSet", 64, 256),
+        DFT("dft", 512, 2048);
+
+        final String label;
+        // Calibration sizes: side of the image, or length of the signal
+        final int small;
+        final int large;
+
+        Operation(String label, int small, int large) {
+            this.label = label;
+            this.small = small;
+            this.large = large;
+        }
+    }
+
+    /**
+     * Prepares the operation on a backend for a problem of the given size, with synthetic data.
+     */
+    private interface Probe {
+        Kernel prepare(ComputeBackend backend, int size);
+    }
+
+    /**
+     * Work units of a problem size, e.g. multiply-adds for the blur filter.
+     */
+    private interface Work {
+        double of(int size);
+    }
+
+    private static Dispatcher instance;
+
+    private final int trials;
+    private final Map<Operation, Map<ComputeBackend, CostModel>> models = new EnumMap<>(Operation.class);
+
+    public Dispatcher(int trials) {
+        this.trials = Math.max(1, trials);
+    }
+
+    public static synchronized Dispatcher getInstance() {
+        if (instance == null) {
+            instance = new Dispatcher(Integer.getInteger(TRIALS_PROPERTY, 3));
+        }
+        return instance;
+    }
+
+    @Override
+    public String getName() {
+        return "auto";
+    }
+
+    @Override
+    public Implementation getImplementation() {
+        return Implementation.AUTO;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public String getDevice() {
+        StringBuilder devices = new StringBuilder();
+        for (ComputeBackend backend : Backends.getAvailable()) {
+            devices.append(devices.length() == 0 ? "" : ", ").append(backend.getName()).append(": ").append(backend.getDevice());
+        }
+        return devices.toString();
+    }
+
+    @Override
+    public Kernel blur(int[][] channels, int[][] outputs, int numRows, int numCols, float[] filter, int filterWidth) {
+        int numChannels = channels.length;
+        double work = (double) numChannels * numRows * numCols * filterWidth * filterWidth;
+        ComputeBackend backend = select(Operation.BLUR, work, //
+                (b, n) -> b.blur(randomChannels(numChannels, n * n), new int[numChannels][n * n], n, n, filter, filterWidth), //
+                n -> (double) numChannels * n * n * filterWidth * filterWidth);
+        return backend.blur(channels, outputs, numRows, numCols, filter, filterWidth);
+    }
+
+    @Override
+    public Kernel blurFixedPoint(int[][] channels, int[][] outputs, int numRows, int numCols, short[] weights, int shift, int filterWidth) {
+        int numChannels = channels.length;
+        double work = (double) numChannels * numRows * numCols * filterWidth * filterWidth;
+        ComputeBackend backend = select(Operation.BLUR_FIXED_POINT, work, //
+                (b, n) -> b.blurFixedPoint(randomChannels(numChannels, n * n), new int[numChannels][n * n], n, n, weights, shift, filterWidth), //
+                n -> (double) numChannels * n * n * filterWidth * filterWidth);
+        return backend.blurFixedPoint(channels, outputs, numRows, numCols, weights, shift, filterWidth);
+    }
+
+    @Override
+    public Kernel rankFilter(int[][] channels, int[][] outputs, int numRows, int numCols, int radius, int rank) {
+        int numChannels = channels.length;
+        // Calibrated with the radius and rank of the first request: the cost per pixel of the TornadoVM kernels grows with
+        // the radius, and the one of the CPU kernels does not
+        ComputeBackend backend = select(Operation.RANK_FILTER, (double) numChannels * numRows * numCols, //
+                (b, n) -> b.rankFilter(randomChannels(numChannels, n * n), new int[numChannels][n * n], n, n, radius, rank), //
+                n -> (double) numChannels * n * n);
+        return backend.rankFilter(channels, outputs, numRows, numCols, radius, rank);
+    }
+
+    @Override
+    public Kernel grayscale(int[] image, int w, int h) {
+        ComputeBackend backend = select(Operation.GRAYSCALE, (double) w * h, //
+                (b, n) -> b.grayscale(randomChannels(1, n * n)[0], n, n), n -> (double) n * n);
+        return backend.grayscale(image, w, h);
+    }
+
+    @Override
+    public Kernel edgeDetection(int[] image, int[] edges, int w, int h, float[] filter, int filterWidth) {
+        ComputeBackend backend = select(Operation.EDGE_DETECTION, (double) w * h * filterWidth * filterWidth, //
+                (b, n) -> b.edgeDetection(randomChannels(1, n * n)[0], new int[n * n], n, n, filter, filterWidth), //
+                n -> (double) n * n * filterWidth * filterWidth, //
+                b -> b.getImplementation() != Implementation.TORNADO_LOOP || filterWidth <= MAX_TORNADO_LOOP_FILTER_WIDTH);
+        return backend.edgeDetection(image, edges, w, h, filter, filterWidth);
+    }
+
+    @Override
+    public Kernel juliaSet(int size, float[] hue, float[] brightness) {
+        ComputeBackend backend = select(Operation.JULIA_SET, (double) size * size, //
+                (b, n) -> b.juliaSet(n, new float[n * n], new float[n * n]), n -> (double) n * n);
+        return backend.juliaSet(size, hue, brightness);
+    }
+
+    @Override
+    public Kernel dft(float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        ComputeBackend backend = select(Operation.DFT, (double) inReal.length * inReal.length, //
+                (b, n) -> b.dft(randomSignal(n), randomSignal(n), new float[n], new float[n]), n -> (double) n * n);
+        return backend.dft(inReal, inImag, outReal, outImag);
+    }
+
+    private ComputeBackend select(Operation operation, double work, Probe probe, Work workOf) {
+        return select(operation, work, probe, workOf, backend -> true);
+    }
+
+    /**
+     * Backend with the lowest predicted time among the eligible ones. Every backend is calibrated, since the cost models
+     * are shared by the later calls of the operation.
+     */
+    private synchronized ComputeBackend select(Operation operation, double work, Probe probe, Work workOf, Predicate<ComputeBackend> eligible) {
+        Map<ComputeBackend, CostModel> costs = models.get(operation);
+        if (costs == null) {
+            costs = calibrate(operation, probe, workOf);
+            models.put(operation, costs);
+        }
+        ComputeBackend best = null;
+        double bestTime = Double.MAX_VALUE;
+        for (Map.Entry<ComputeBackend, CostModel> entry : costs.entrySet()) {
+            if (!eligible.test(entry.getKey())) {
+                continue;
+            }
+            double time = entry.getValue().predict(work);
+            if (time < bestTime) {
+                bestTime = time;
+                best = entry.getKey();
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "Dispatcher: %s (%.3g units) -> %s, predicted %.3f ms", operation.label, work, best.getName(), bestTime * 1e-6));
+        return best;
+    }
+
+    private Map<ComputeBackend, CostModel> calibrate(Operation operation, Probe probe, Work workOf) {
+        Map<ComputeBackend, CostModel> costs = new LinkedHashMap<>();
+        for (ComputeBackend backend : Backends.getAvailable()) {
+            // Probes run without JFR events and with the default configuration: the autotuner must not search or cache
+            // configurations for the calibration sizes
+            ComputeBackend untraced = Events.untraced(backend);
+            long small = measure(Autotuner.untuned(() -> probe.prepare(untraced, operation.small)));
+            long large = measure(Autotuner.untuned(() -> probe.prepare(untraced, operation.large)));
+            CostModel model = CostModel.fit(workOf.of(operation.small), small, workOf.of(operation.large), large);
+            System.out.println("Dispatcher: calibrated " + operation.label + " on " + backend.getName() + ": " + model);
+            costs.put(backend, model);
+        }
+        return costs;
+    }
+
+    /**
+     * Median time of the kernel, in nanoseconds.
+     */
+    private long measure(Kernel kernel) {
+        for (int i = 0; i < WARMUP; i++) {
+            kernel.execute();
+        }
+        long[] times = new long[trials];
+        for (int i = 0; i < trials; i++) {
+            long start = System.nanoTime();
+            kernel.execute();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+
+    private static int[][] randomChannels(int numChannels, int length) {
+        Random random = new Random(42);
+        int[][] channels = new int[numChannels][length];
+        for (int[] channel : channels) {
+            for (int i = 0; i < length; i++) {
+                channel[i] = random.nextInt(256);
+            }
+        }
+        return channels;
+    }
+
+    private static float[] randomSignal(int length) {
+        Random random = new Random(42);
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++) {
+            signal[i] = random.nextFloat();
+        }
+        return signal;
+    }
+}
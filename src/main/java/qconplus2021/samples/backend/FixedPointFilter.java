@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.backend;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Convolution filter with fixed-point weights, for 8-bit channels: every weight is a 16-bit integer with {@code shift}
+ * fraction bits, the products are accumulated in an {@code int}, and the sum is rounded to the nearest level with a
+ * shift. The weights of a filter normalised to 1 are in Q15 format if its largest weight is close to 1, and keep more
+ * fraction bits when they are smaller (e.g., 23 for a 31x31 box filter), as long as the accumulator cannot overflow.
+ *
+ * The weights are rounded with the largest remainder method: they add up to the rounded sum of the float weights, so
+ * flat areas keep their exact level. {@link #getErrorBound()} is the largest difference, in levels, that the
+ * quantisation can cause against the float convolution of {@link SequentialBackend#convolvePixel}.
+ */
+public final class FixedPointFilter {
+
+    // Largest value of a 16-bit weight
+    private static final int MAX_WEIGHT = Short.MAX_VALUE;
+
+    private static final int MAX_SHIFT = 30;
+
+    private static final int MAX_LEVEL = 255;
+
+    private final short[] weights;
+    private final int shift;
+    private final int errorBound;
+
+    private FixedPointFilter(short[] weights, int shift, int errorBound) {
+        this.weights = weights;
+        this.shift = shift;
+        this.errorBound = errorBound;
+    }
+
+    /**
+     * Quantises a {@code filterWidth x filterWidth} filter. Returns null if its weights cannot be represented with 16
+     * bits and an {@code int} accumulator (e.g., a weight larger than 32767), or if a weight is negative: the error
+     * bound assumes non-negative sums, where the shift (rounding down) and the float path (truncating toward zero)
+     * agree on the direction of rounding.
+     */
+    public static FixedPointFilter quantise(float[] filter, int filterWidth) {
+        int n = filterWidth * filterWidth;
+        double maxWeight = 0;
+        double absoluteSum = 0;
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            if (filter[k] < 0) {
+                return null;
+            }
+            maxWeight = Math.max(maxWeight, Math.abs(filter[k]));
+            absoluteSum += Math.abs(filter[k]);
+            sum += filter[k];
+        }
+        // The most fraction bits such that every weight (rounded up) fits in 16 bits and the sum of products plus the
+        // rounding term fits in an int
+        int shift = MAX_SHIFT;
+        while (shift > 0 && (maxWeight * (1L << shift) + 1 > MAX_WEIGHT || //
+                (double) MAX_LEVEL * (absoluteSum * (1L << shift) + n) + (1L << (shift - 1)) > Integer.MAX_VALUE)) {
+            shift--;
+        }
+        if (shift == 0) {
+            return null;
+        }
+        double scale = 1L << shift;
+
+        long[] quantised = new long[n];
+        Integer[] order = new Integer[n];
+        double[] remainders = new double[n];
+        long total = 0;
+        for (int k = 0; k < n; k++) {
+            double scaled = filter[k] * scale;
+            quantised[k] = (long) Math.floor(scaled);
+            remainders[k] = scaled - quantised[k];
+            order[k] = k;
+            total += quantised[k];
+        }
+        // The weights with the largest remainders are rounded up, until they add up to the rounded sum
+        long missing = Math.round(sum * scale) - total;
+        Arrays.sort(order, Comparator.comparingDouble((Integer k) -> remainders[k]).reversed());
+        for (int k = 0; k < missing; k++) {
+            quantised[order[k]]++;
+        }
+
+        short[] weights = new short[n];
+        double error = 0;
+        for (int k = 0; k < n; k++) {
+            weights[k] = (short) quantised[k];
+            error += Math.abs(quantised[k] / scale - filter[k]);
+        }
+        // The sum moves by at most 255 times the error of the weights. With the rounding of the shift (the float path
+        // truncates), the output moves by at most ceil(error + 1/2) levels.
+        int errorBound = (int) Math.ceil(MAX_LEVEL * error + 0.5);
+        return new FixedPointFilter(weights, shift, errorBound);
+    }
+
+    public short[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Number of fraction bits of the weights.
+     */
+    public int getShift() {
+        return shift;
+    }
+
+    /**
+     * Largest difference, in levels, against the float convolution, for any image.
+     */
+    public int getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * True if no output level can differ by more than one from the float convolution.
+     */
+    public boolean isAccurate() {
+        return errorBound <= 1;
+    }
+
+    public static void filter(int[] channel, int[] channelBlurred, final int numRows, final int numCols, short[] weights, final int shift, final int filterWidth) {
+        for (int r = 0; r < numRows; r++) {
+            for (int c = 0; c < numCols; c++) {
+                channelBlurred[r * numCols + c] = convolvePixel(channel, r, c, numRows, numCols, weights, shift, filterWidth);
+            }
+        }
+    }
+
+    /**
+     * Blurred value of the pixel {@code (r, c)}, with clamp-to-edge borders.
+     */
+    static int convolvePixel(int[] channel, int r, int c, final int numRows, final int numCols, short[] weights, final int shift, final int filterWidth) {
+        int result = 1 << (shift - 1);
+        for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
+            int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
+            int row = (filter_r + filterWidth / 2) * filterWidth + filterWidth / 2;
+            for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
+                int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
+                result += channel[image_r * numCols + image_c] * weights[row + filter_c];
+            }
+        }
+        result >>= shift;
+        return result > 255 ? 255 : result;
+    }
+}
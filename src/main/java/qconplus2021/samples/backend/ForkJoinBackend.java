@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.backend;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.pipeline.Stages;
+import qconplus2021.samples.pipeline.StencilPipeline;
+import qconplus2021.samples.tuning.Autotuner;
+import qconplus2021.samples.tuning.Tiles;
+import qconplus2021.samples.tuning.TuningConfig;
+
+import java.util.stream.IntStream;
+
+/**
+ * Multi-threaded kernels with JDK 8 parallel streams (ForkJoin common pool). If the {@link Autotuner} has a
+ * configuration for the kernel and size (see {@code -Dautotune=true}), the image kernels run in tiles with its tile
+ * size and number of threads instead.
+ */
+public class ForkJoinBackend implements ComputeBackend {
+
+    @Override
+    public String getName() {
+        return "forkjoin";
+    }
+
+    @Override
+    public Implementation getImplementation() {
+        return Implementation.MT;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public String getDevice() {
+        return Autotuner.cpuDevice();
+    }
+
+    @Override
+    public Kernel blur(int[][] channels, int[][] outputs, int numRows, int numCols, float[] filter, int filterWidth) {
+        // The channels of a tile are computed together
+        Autotuner.Trial tiled = config -> Tiles.forEachTile(numRows, numCols, config, (rowFrom, rowTo, colFrom, colTo) -> {
+            for (int i = 0; i < channels.length; i++) {
+                for (int r = rowFrom; r < rowTo; r++) {
+                    for (int c = colFrom; c < colTo; c++) {
+                        outputs[i][r * numCols + c] = SequentialBackend.convolvePixel(channels[i], r, c, numRows, numCols, filter, filterWidth);
+                    }
+                }
+            }
+        });
+        TuningConfig tuning = Autotuner.getInstance().tuneCPU("blur.mt", numRows + "x" + numCols, tiled);
+        if (tuning != null) {
+            return () -> tiled.run(tuning);
+        }
+        return () -> {
+            for (int i = 0; i < channels.length; i++) {
+                computeWithParallelStreams(channels[i], outputs[i], numRows, numCols, filter, filterWidth);
+            }
+        };
+    }
+
+    private static void computeWithParallelStreams(int[] channel, int[] channelBlurred, final int numRows, final int numCols, float[] filter, final int filterWidth) {
+        // For every pixel in the image
+        assert (filterWidth % 2 == 1);
+        IntStream.range(0, numRows).parallel().forEach(r -> {
+            IntStream.range(0, numCols).parallel().forEach(c -> {
+                channelBlurred[r * numCols + c] = SequentialBackend.convolvePixel(channel, r, c, numRows, numCols, filter, filterWidth);
+            });
+        });
+    }
+
+    @Override
+    public Kernel blurFixedPoint(int[][] channels, int[][] outputs, int numRows, int numCols, short[] weights, int shift, int filterWidth) {
+        Autotuner.Trial tiled = config -> Tiles.forEachTile(numRows, numCols, config, (rowFrom, rowTo, colFrom, colTo) -> {
+            for (int i = 0; i < channels.length; i++) {
+                for (int r = rowFrom; r < rowTo; r++) {
+                    for (int c = colFrom; c < colTo; c++) {
+                        outputs[i][r * numCols + c] = FixedPointFilter.convolvePixel(channels[i], r, c, numRows, numCols, weights, shift, filterWidth);
+                    }
+                }
+            }
+        });
+        TuningConfig tuning = Autotuner.getInstance().tuneCPU("blurFixed.mt", numRows + "x" + numCols, tiled);
+        if (tuning != null) {
+            return () -> tiled.run(tuning);
+        }
+        return () -> IntStream.range(0, channels.length * numRows).parallel().forEach(task -> {
+            int i = task / numRows;
+            int r = task % numRows;
+            for (int c = 0; c < numCols; c++) {
+                outputs[i][r * numCols + c] = FixedPointFilter.convolvePixel(channels[i], r, c, numRows, numCols, weights, shift, filterWidth);
+            }
+        });
+    }
+
+    /**
+     * Every channel is split in stripes of rows, one per thread, filtered in parallel. Stripes are at least one window
+     * high, since each one starts by filling its column histograms with {@code 2 radius + 1} rows.
+     */
+    @Override
+    public Kernel rankFilter(int[][] channels, int[][] outputs, int numRows, int numCols, int radius, int rank) {
+        int stripes = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), numRows / (2 * radius + 1)));
+        int stripeRows = (numRows + stripes - 1) / stripes;
+        return () -> IntStream.range(0, channels.length * stripes).parallel().forEach(task -> {
+            int i = task / stripes;
+            int rowFrom = (task % stripes) * stripeRows;
+            RankFilter.filterStripe(channels[i], outputs[i], numRows, numCols, radius, rank, rowFrom, Math.min(rowFrom + stripeRows, numRows));
+        });
+    }
+
+    @Override
+    public Kernel grayscale(int[] image, int w, int h) {
+        Autotuner.Trial tiled = config -> Tiles.forEachTile(w, h, config, (rowFrom, rowTo, colFrom, colTo) -> {
+            for (int r = rowFrom; r < rowTo; r++) {
+                for (int c = colFrom; c < colTo; c++) {
+                    image[r * h + c] = SequentialBackend.gray(image[r * h + c]);
+                }
+            }
+        });
+        TuningConfig tuning = Autotuner.getInstance().tuneCPU("bnw.mt", w + "x" + h, tiled);
+        if (tuning != null) {
+            return () -> tiled.run(tuning);
+        }
+        return () -> IntStream.range(0, w).parallel().forEach(r -> {
+            IntStream.range(0, h).parallel().forEach(c -> {
+                image[r * h + c] = SequentialBackend.gray(image[r * h + c]);
+            });
+        });
+    }
+
+    /**
+     * Always in tiles, since the fused pipeline keeps its intermediates per tile.
+     */
+    @Override
+    public Kernel edgeDetection(int[] image, int[] edges, int w, int h, float[] filter, int filterWidth) {
+        StencilPipeline pipeline = Stages.edgeDetection(filter, filterWidth);
+        Autotuner.Trial tiled = config -> pipeline.run(image, edges, w, h, config);
+        TuningConfig tuning = Autotuner.getInstance().tuneCPU("edges.mt", w + "x" + h, tiled);
+        TuningConfig config = tuning != null ? tuning : TuningConfig.cpu(StencilPipeline.DEFAULT_TILE, Runtime.getRuntime().availableProcessors());
+        return () -> tiled.run(config);
+    }
+
+    @Override
+    public Kernel juliaSet(int size, float[] hue, float[] brightness) {
+        Autotuner.Trial tiled = config -> Tiles.forEachTile(size, size, config, (rowFrom, rowTo, colFrom, colTo) -> {
+            for (int x = rowFrom; x < rowTo; x++) {
+                for (int y = colFrom; y < colTo; y++) {
+                    SequentialBackend.juliaPixel(size, x, y, hue, brightness);
+                }
+            }
+        });
+        TuningConfig tuning = Autotuner.getInstance().tuneCPU("julia.mt", size + "x" + size, tiled);
+        if (tuning != null) {
+            return () -> tiled.run(tuning);
+        }
+        return () -> IntStream.range(0, size).parallel().forEach(x -> {
+            IntStream.range(0, size).parallel().forEach(y -> {
+                SequentialBackend.juliaPixel(size, x, y, hue, brightness);
+            });
+        });
+    }
+
+    @Override
+    public Kernel dft(float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        return () -> IntStream.range(0, inReal.length).parallel().forEach(k -> SequentialBackend.dftElement(inReal, inImag, outReal, outImag, k));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.backend;
+
+import java.util.Arrays;
+
+/**
+ * Constant-time rank filter (median, or any percentile) of a channel with values 0-255, with the sliding-histogram
+ * algorithm of Perreault and Hebert ("Median Filtering in Constant Time", IEEE TIP 2007).
+ *
+ * A histogram is kept for every column of the image, over the {@code 2 radius + 1} rows of the window, and updated
+ * with one removal and one addition when the window moves down a row. Along a row, the histogram of the window is the
+ * sum of {@code 2 radius + 1} column histograms, and it is updated with one column histogram out and one in when the
+ * window moves right. Histograms have two levels: 16 coarse bins, always up to date, and 256 fine bins, of which only
+ * the 16 of the coarse bin holding the rank are brought up to date. The cost per pixel does not depend on the radius.
+ *
+ * Borders are clamped to the edge, as in the blur filter. The rows of the image can be split in stripes, filtered
+ * independently (each one with its own column histograms).
+ */
+public final class RankFilter {
+
+    public static final int LEVELS = 256;
+
+    // Fine bins per coarse bin
+    private static final int FINE = 16;
+    private static final int COARSE = LEVELS / FINE;
+
+    private RankFilter() {
+    }
+
+    /**
+     * Position (0-based) of the given percentile (0-100) in the sorted {@code (2 radius + 1)^2} values of a window.
+     */
+    public static int rank(int radius, int percentile) {
+        if (radius < 0 || percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid radius or percentile: " + radius + ", " + percentile);
+        }
+        int window = (2 * radius + 1) * (2 * radius + 1);
+        return (int) Math.round(percentile / 100.0 * (window - 1));
+    }
+
+    public static void filter(int[] channel, int[] output, int numRows, int numCols, int radius, int rank) {
+        filterStripe(channel, output, numRows, numCols, radius, rank, 0, numRows);
+    }
+
+    /**
+     * Filters the rows {@code rowFrom} (inclusive) to {@code rowTo} (exclusive) of the channel.
+     */
+    public static void filterStripe(int[] channel, int[] output, int numRows, int numCols, int radius, int rank, int rowFrom, int rowTo) {
+        int[] columnFine = new int[numCols * LEVELS];
+        int[] columnCoarse = new int[numCols * COARSE];
+        for (int dr = -radius; dr <= radius; dr++) {
+            int offset = clamp(rowFrom + dr, numRows) * numCols;
+            for (int c = 0; c < numCols; c++) {
+                int value = channel[offset + c];
+                columnFine[c * LEVELS + value]++;
+                columnCoarse[c * COARSE + value / FINE]++;
+            }
+        }
+        int[] fine = new int[LEVELS];
+        int[] coarse = new int[COARSE];
+        // Column of the window each fine segment is up to date for
+        int[] updated = new int[COARSE];
+        for (int r = rowFrom; r < rowTo; r++) {
+            if (r > rowFrom) {
+                int removed = clamp(r - radius - 1, numRows) * numCols;
+                int added = clamp(r + radius, numRows) * numCols;
+                for (int c = 0; c < numCols; c++) {
+                    int out = channel[removed + c];
+                    int in = channel[added + c];
+                    columnFine[c * LEVELS + out]--;
+                    columnCoarse[c * COARSE + out / FINE]--;
+                    columnFine[c * LEVELS + in]++;
+                    columnCoarse[c * COARSE + in / FINE]++;
+                }
+            }
+            filterRow(output, r * numCols, numCols, radius, rank, columnFine, columnCoarse, fine, coarse, updated);
+        }
+    }
+
+    private static void filterRow(int[] output, int offset, int numCols, int radius, int rank, int[] columnFine, int[] columnCoarse, int[] fine, int[] coarse, int[] updated) {
+        Arrays.fill(coarse, 0);
+        for (int dc = -radius; dc <= radius; dc++) {
+            int column = clamp(dc, numCols) * COARSE;
+            for (int b = 0; b < COARSE; b++) {
+                coarse[b] += columnCoarse[column + b];
+            }
+        }
+        // The column histograms changed: every fine segment is stale
+        Arrays.fill(updated, -2 * radius - 2);
+        for (int c = 0; c < numCols; c++) {
+            if (c > 0) {
+                int out = clamp(c - radius - 1, numCols) * COARSE;
+                int in = clamp(c + radius, numCols) * COARSE;
+                for (int b = 0; b < COARSE; b++) {
+                    coarse[b] += columnCoarse[in + b] - columnCoarse[out + b];
+                }
+            }
+            int below = 0;
+            int bin = 0;
+            while (below + coarse[bin] <= rank) {
+                below += coarse[bin];
+                bin++;
+            }
+            int segment = bin * FINE;
+            if (2 * (c - updated[bin]) > 2 * radius + 1) {
+                // Cheaper to add the 2 radius + 1 columns again than to slide from the last update
+                Arrays.fill(fine, segment, segment + FINE, 0);
+                for (int dc = -radius; dc <= radius; dc++) {
+                    int column = clamp(c + dc, numCols) * LEVELS + segment;
+                    for (int f = 0; f < FINE; f++) {
+                        fine[segment + f] += columnFine[column + f];
+                    }
+                }
+            } else {
+                for (int j = updated[bin] + 1; j <= c; j++) {
+                    int out = clamp(j - radius - 1, numCols) * LEVELS + segment;
+                    int in = clamp(j + radius, numCols) * LEVELS + segment;
+                    for (int f = 0; f < FINE; f++) {
+                        fine[segment + f] += columnFine[in + f] - columnFine[out + f];
+                    }
+                }
+            }
+            updated[bin] = c;
+            int value = segment;
+            while (below + fine[value] <= rank) {
+                below += fine[value];
+                value++;
+            }
+            output[offset + c] = value;
+        }
+    }
+
+    private static int clamp(int index, int length) {
+        return Math.min(Math.max(index, 0), length - 1);
+    }
+}
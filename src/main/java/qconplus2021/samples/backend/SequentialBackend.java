@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.backend;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.pipeline.Stages;
+import qconplus2021.samples.pipeline.StencilPipeline;
+import qconplus2021.samples.tuning.Autotuner;
+import qconplus2021.samples.tuning.TuningConfig;
+
+import static qconplus2021.samples.JuliaSets.CX;
+import static qconplus2021.samples.JuliaSets.CY;
+import static qconplus2021.samples.JuliaSets.MAX_ITERATIONS;
+import static qconplus2021.samples.JuliaSets.MOVE_X;
+import static qconplus2021.samples.JuliaSets.MOVE_Y;
+import static qconplus2021.samples.JuliaSets.ZOOM;
+
+/**
+ * Plain Java kernels, in one thread. They are also the reference results of the other backends.
+ */
+public class SequentialBackend implements ComputeBackend {
+
+    @Override
+    public String getName() {
+        return "sequential";
+    }
+
+    @Override
+    public Implementation getImplementation() {
+        return Implementation.SEQUENTIAL;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public String getDevice() {
+        return Autotuner.cpuDevice();
+    }
+
+    @Override
+    public Kernel blur(int[][] channels, int[][] outputs, int numRows, int numCols, float[] filter, int filterWidth) {
+        return () -> {
+            for (int i = 0; i < channels.length; i++) {
+                channelConvolutionSequential(channels[i], outputs[i], numRows, numCols, filter, filterWidth);
+            }
+        };
+    }
+
+    @Override
+    public Kernel blurFixedPoint(int[][] channels, int[][] outputs, int numRows, int numCols, short[] weights, int shift, int filterWidth) {
+        return () -> {
+            for (int i = 0; i < channels.length; i++) {
+                FixedPointFilter.filter(channels[i], outputs[i], numRows, numCols, weights, shift, filterWidth);
+            }
+        };
+    }
+
+    @Override
+    public Kernel rankFilter(int[][] channels, int[][] outputs, int numRows, int numCols, int radius, int rank) {
+        return () -> {
+            for (int i = 0; i < channels.length; i++) {
+                RankFilter.filter(channels[i], outputs[i], numRows, numCols, radius, rank);
+            }
+        };
+    }
+
+    @Override
+    public Kernel grayscale(int[] image, int w, int h) {
+        return () -> grayscaleSequential(image, w, h);
+    }
+
+    @Override
+    public Kernel edgeDetection(int[] image, int[] edges, int w, int h, float[] filter, int filterWidth) {
+        StencilPipeline pipeline = Stages.edgeDetection(filter, filterWidth);
+        TuningConfig config = TuningConfig.cpu(StencilPipeline.DEFAULT_TILE, 1);
+        return () -> pipeline.run(image, edges, w, h, config);
+    }
+
+    @Override
+    public Kernel juliaSet(int size, float[] hue, float[] brightness) {
+        return () -> juliaSetSequential(size, hue, brightness);
+    }
+
+    @Override
+    public Kernel dft(float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        return () -> computeDft(inReal, inImag, outReal, outImag);
+    }
+
+    public static void channelConvolutionSequential(int[] channel, int[] channelBlurred, final int numRows, final int numCols, float[] filter, final int filterWidth) {
+        assert (filterWidth % 2 == 1);
+        for (int r = 0; r < numRows; r++) {
+            for (int c = 0; c < numCols; c++) {
+                channelBlurred[r * numCols + c] = convolvePixel(channel, r, c, numRows, numCols, filter, filterWidth);
+            }
+        }
+    }
+
+    /**
+     * Blurred value of the pixel {@code (r, c)}, with clamp-to-edge borders.
+     */
+    static int convolvePixel(int[] channel, int r, int c, final int numRows, final int numCols, float[] filter, final int filterWidth) {
+        float result = 0.0f;
+        for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
+            for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
+                int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
+                int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
+                float image_value = (channel[image_r * numCols + image_c]);
+                float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
+                result += image_value * filter_value;
+            }
+        }
+        return result > 255 ? 255 : (int) result;
+    }
+
+    public static void grayscaleSequential(int[] image, final int w, final int s) {
+        for (int i = 0; i < w; i++) {
+            for (int j = 0; j < s; j++) {
+                image[i * s + j] = gray(image[i * s + j]);
+            }
+        }
+    }
+
+    static int gray(int rgb) {
+        int alpha = (rgb >> 24) & 0xff;
+        int red = (rgb >> 16) & 0xFF;
+        int green = (rgb >> 8) & 0xFF;
+        int blue = (rgb & 0xFF);
+        int grayLevel = (red + green + blue) / 3;
+        return (alpha << 24) | (grayLevel << 16) | (grayLevel << 8) | grayLevel;
+    }
+
+    public static void juliaSetSequential(int size, float[] hue, float[] brightness) {
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                juliaPixel(size, x, y, hue, brightness);
+            }
+        }
+    }
+
+    static void juliaPixel(int size, int x, int y, float[] hue, float[] brightness) {
+        float i = juliaIterations(size, x, y);
+        hue[x * size + y] = (MAX_ITERATIONS / i);
+        brightness[x * size + y] = i > 0 ? 1 : 0;
+    }
+
+    /**
+     * Iterations left when the pixel {@code (x, y)} of a {@code size x size} Julia Set escapes (0 if it does not).
+     */
+    public static float juliaIterations(int size, int x, int y) {
+        float zx = 1.5f * (x - size / 2) / (0.5f * ZOOM * size) + MOVE_X;
+        float zy = (y - size / 2) / (0.5f * ZOOM * size) + MOVE_Y;
+        float i = MAX_ITERATIONS;
+        while (zx * zx + zy * zy < 4 && i > 0) {
+            float tmp = zx * zx - zy * zy + CX;
+            zy = 2.0f * zx * zy + CY;
+            zx = tmp;
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * DFT with {@link Math} in float precision, as the TornadoVM version does with {@code TornadoMath}.
+     */
+    public static void computeDft(float[] inreal, float[] inimag, float[] outreal, float[] outimag) {
+        int n = inreal.length;
+        for (int k = 0; k < n; k++) {
+            dftElement(inreal, inimag, outreal, outimag, k);
+        }
+    }
+
+    static void dftElement(float[] inreal, float[] inimag, float[] outreal, float[] outimag, int k) {
+        int n = inreal.length;
+        float sumreal = 0;
+        float sumimag = 0;
+        for (int t = 0; t < n; t++) { // For each input element
+            float angle = ((2 * (float) Math.PI * t * k) / n);
+            float cos = (float) Math.cos(angle);
+            float sin = (float) Math.sin(angle);
+            sumreal += (inreal[t] * cos + inimag[t] * sin);
+            sumimag += -(inreal[t] * sin + inimag[t] * cos);
+        }
+        outreal[k] = sumreal;
+        outimag[k] = sumimag;
+    }
+}
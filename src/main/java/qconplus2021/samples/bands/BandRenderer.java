@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.bands;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders an image as a sequence of horizontal bands of {@code bandRows} rows. Up to {@code inFlight} bands are
+ * computed in parallel, and the finished bands are written to an {@link ImageSink} in order, from the calling thread.
+ *
+ * Each band has its own buffer (RGB, 3 bytes per pixel, indexed from the first row of the band), which is reused once
+ * the band is written. The memory used is {@code inFlight} bands, whatever the size of the image: the number of pixels
+ * is not limited by the size of a Java array.
+ */
+public class BandRenderer {
+
+    /**
+     * Computes the rows {@code [rowFrom, rowFrom + rows)} of the image into {@code pixels}.
+     */
+    public interface Band {
+        void render(int rowFrom, int rows, byte[] pixels);
+    }
+
+    private final int width;
+    private final int height;
+    private final int bandRows;
+    private final int threads;
+    private final int inFlight;
+
+    public BandRenderer(int width, int height, int bandRows, int threads, int inFlight) {
+        if (width <= 0 || height <= 0 || bandRows <= 0 || threads <= 0 || inFlight <= 0) {
+            throw new IllegalArgumentException("Invalid band configuration");
+        }
+        if (bandRows > Integer.MAX_VALUE / (width * 3L)) {
+            throw new IllegalArgumentException("A band of " + bandRows + " rows of " + width + " pixels does not fit in an array");
+        }
+        this.width = width;
+        this.height = height;
+        this.bandRows = Math.min(bandRows, height);
+        this.threads = threads;
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * Number of rows per band, so that a band takes about {@code bytes} bytes.
+     */
+    public static int rowsFor(int width, long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE / (width * 3L), bytes / (width * 3L)));
+    }
+
+    private static class Pending {
+        final byte[] pixels;
+        final int rows;
+        final Future<?> done;
+
+        Pending(byte[] pixels, int rows, Future<?> done) {
+            this.pixels = pixels;
+            this.rows = rows;
+            this.done = done;
+        }
+    }
+
+    public Stats run(Band band, ImageSink sink) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "band-renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Stats stats = new Stats();
+        stats.pixels = (long) width * height;
+        stats.bandBytes = (long) bandRows * width * 3;
+        stats.buffers = Math.min(inFlight, (height + bandRows - 1) / bandRows);
+        ArrayDeque<byte[]> free = new ArrayDeque<>();
+        ArrayDeque<Pending> pending = new ArrayDeque<>();
+        stats.start = System.nanoTime();
+        try {
+            int next = 0;
+            while (next < height || !pending.isEmpty()) {
+                // Keep inFlight bands in the pool
+                while (next < height && pending.size() < inFlight) {
+                    final int rowFrom = next;
+                    final int rows = Math.min(bandRows, height - rowFrom);
+                    final byte[] pixels = free.isEmpty() ? new byte[bandRows * width * 3] : free.pop();
+                    pending.add(new Pending(pixels, rows, pool.submit(() -> band.render(rowFrom, rows, pixels))));
+                    next += rows;
+                }
+                Pending head = pending.poll();
+                long waitStart = System.nanoTime();
+                await(head.done);
+                stats.waiting += System.nanoTime() - waitStart;
+                long writeStart = System.nanoTime();
+                sink.writeRows(head.pixels, head.rows);
+                stats.writing += System.nanoTime() - writeStart;
+                stats.bands++;
+                free.push(head.pixels);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        stats.end = System.nanoTime();
+        return stats;
+    }
+
+    private static void await(Future<?> band) {
+        try {
+            band.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while rendering a band");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Band failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    public static class Stats {
+
+        private long start;
+        private long end;
+        private long pixels;
+        private long bands;
+        private long bandBytes;
+        private int buffers;
+        private long waiting;
+        private long writing;
+
+        public long getPixels() {
+            return pixels;
+        }
+
+        public long getBands() {
+            return bands;
+        }
+
+        /**
+         * Memory taken by the band buffers, in bytes.
+         */
+        public long getBandMemory() {
+            return bandBytes * buffers;
+        }
+
+        public double getPixelsPerSecond() {
+            return end > start ? pixels * 1e9 / (end - start) : 0;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Pixels         : %d (%d bands)%n", pixels, bands);
+            out.printf("Total time     : %.2f s%n", (end - start) * 1e-9);
+            out.printf("Throughput     : %.1f Mpixels/s%n", getPixelsPerSecond() * 1e-6);
+            out.printf("Waiting bands  : %.2f s%n", waiting * 1e-9);
+            out.printf("Writing bands  : %.2f s%n", writing * 1e-9);
+            out.printf("Band memory    : %.1f MB (%d buffers of %.1f MB)%n", getBandMemory() / 1e6, buffers, bandBytes / 1e6);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.bands;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of an image written incrementally, from the top row to the bottom one. Rows are RGB, 3 bytes per pixel.
+ */
+public interface ImageSink extends Closeable {
+
+    /**
+     * Appends the first {@code rows} rows of {@code pixels} to the image.
+     */
+    void writeRows(byte[] pixels, int rows) throws IOException;
+}
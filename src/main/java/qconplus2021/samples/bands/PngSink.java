@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.bands;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PNG output (8-bit RGB, no interlacing) written row by row: the compressed rows are emitted as a sequence of
+ * {@code IDAT} chunks of at most {@link #CHUNK_SIZE} bytes, so the encoder never keeps more than one chunk in memory.
+ * Unlike {@link javax.imageio.ImageIO}, it does not need the whole image in a {@link java.awt.image.BufferedImage}.
+ * The rows are compressed with {@link Deflater#BEST_SPEED}, since a single thread writes them.
+ *
+ * The file is only complete (with its {@code IEND} chunk) if all the rows were written before {@link #close()}.
+ */
+public class PngSink implements ImageSink {
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    // PNG row filter: none
+    private static final int FILTER_NONE = 0;
+
+    private final DataOutputStream output;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final DeflaterOutputStream rows;
+    private int rowsWritten;
+
+    public PngSink(OutputStream output, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid PNG size: " + width + "x" + height);
+        }
+        this.output = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+        this.width = width;
+        this.height = height;
+        this.output.write(SIGNATURE);
+        writeHeader();
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        rows = new DeflaterOutputStream(new ChunkStream(), deflater, 1 << 16);
+    }
+
+    private void writeHeader() throws IOException {
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 2; // colour type: RGB
+        // compression, filter and interlace methods: 0
+        writeChunk("IHDR", header, header.length);
+    }
+
+    @Override
+    public void writeRows(byte[] pixels, int numRows) throws IOException {
+        if (numRows > height - rowsWritten) {
+            throw new IllegalStateException("More than " + height + " rows written");
+        }
+        int rowBytes = width * 3;
+        for (int row = 0; row < numRows; row++) {
+            rows.write(FILTER_NONE);
+            rows.write(pixels, row * rowBytes, rowBytes);
+        }
+        rowsWritten += numRows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            rows.close();
+            if (rowsWritten == height) {
+                writeChunk("IEND", new byte[0], 0);
+            }
+        } finally {
+            deflater.end();
+            output.close();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        output.writeInt(length);
+        output.write(name);
+        output.write(data, 0, length);
+        output.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects the compressed stream and writes it as {@code IDAT} chunks.
+     */
+    private class ChunkStream extends OutputStream {
+
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int length;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == chunk.length) {
+                flushChunk();
+            }
+            chunk[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (length == chunk.length) {
+                    flushChunk();
+                }
+                int n = Math.min(count, chunk.length - length);
+                System.arraycopy(data, offset, chunk, length, n);
+                length += n;
+                offset += n;
+                count -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            writeChunk("IDAT", chunk, length);
+            length = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (length > 0) {
+                flushChunk();
+            }
+        }
+    }
+}
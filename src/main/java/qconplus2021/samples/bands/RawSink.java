@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.bands;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Raw RGB output (3 bytes per pixel, row-major, no header), as read by {@code ffmpeg -f rawvideo -pix_fmt rgb24} or
+ * ImageMagick ({@code rgb:} format).
+ */
+public class RawSink implements ImageSink {
+
+    private final OutputStream output;
+    private final int rowBytes;
+
+    public RawSink(OutputStream output, int width) {
+        this.output = new BufferedOutputStream(output, 1 << 20);
+        this.rowBytes = width * 3;
+    }
+
+    @Override
+    public void writeRows(byte[] pixels, int rows) throws IOException {
+        output.write(pixels, 0, rows * rowBytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.cache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of encoded results (e.g., the JPEG written by a filter), in a local directory shared by all
+ * processes. The key is the SHA-256 of the input bytes and the parameters of the result, including the sample, the
+ * implementation and a result version (see {@link #key}); the entry is the file named after it.
+ *
+ * - Writes go to a temporary file, moved into place atomically: readers never see a partial entry.
+ * - A hit updates the modification time of the entry. Each cache keeps an estimate of the size of the directory: it
+ *   is listed at the first write, and then only when the writes of this process take the estimate over
+ *   {@code cache.maxBytes}; the least recently used entries are deleted then. Writes of other processes are counted at
+ *   the next listing. An entry deleted by another process is just a miss.
+ *
+ * Configuration, with system properties:
+ *
+ * -Dcache=true: enables the cache (default false)
+ * -Dcache.dir=DIR: directory (default ~/.qconplus2021/results)
+ * -Dcache.maxBytes=N: maximum size of the entries (default 1 GiB)
+ */
+public class ResultCache {
+
+    public static final String ENABLED_PROPERTY = "cache";
+    public static final String DIRECTORY_PROPERTY = "cache.dir";
+    public static final String MAX_BYTES_PROPERTY = "cache.maxBytes";
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    // Temporary files older than this are left over by crashed processes
+    private static final long STALE_TEMPORARY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final long UNKNOWN_SIZE = -1;
+
+    private static ResultCache instance;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final boolean enabled;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Bytes in the directory at the last listing, plus the writes since then
+    private final AtomicLong estimatedBytes = new AtomicLong(UNKNOWN_SIZE);
+
+    public ResultCache(Path directory, long maxBytes, boolean enabled) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Cache configured with the system properties, shared by all samples of the JVM.
+     */
+    public static synchronized ResultCache getInstance() {
+        if (instance == null) {
+            String defaultDirectory = Paths.get(System.getProperty("user.home"), ".qconplus2021", "results").toString();
+            instance = new ResultCache(Paths.get(System.getProperty(DIRECTORY_PROPERTY, defaultDirectory)), //
+                    Long.getLong(MAX_BYTES_PROPERTY, 1L << 30), //
+                    Boolean.getBoolean(ENABLED_PROPERTY));
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * SHA-256 (hex) of the input bytes (may be null, e.g. for fractals) and the parameters, in order. The code that
+     * produced the result is not part of the key: callers pass a result version among the parameters, and must change
+     * it whenever their output changes, or results of older builds are reused.
+     */
+    public static String key(byte[] input, String... parameters) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+        if (input != null) {
+            digest.update(input);
+        }
+        for (String parameter : parameters) {
+            digest.update((byte) 0);
+            digest.update(parameter.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Cached result, or null on a miss.
+     */
+    public byte[] get(String key) {
+        Path entry = directory.resolve(key);
+        try {
+            byte[] data = Files.readAllBytes(entry);
+            hits.incrementAndGet();
+            try {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // Evicted in the meantime: the data read is still valid
+            }
+            return data;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the result cache: " + entry, e);
+        }
+    }
+
+    public void put(String key, byte[] data) {
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, TEMPORARY_SUFFIX);
+            Files.write(temporary, data);
+            Files.move(temporary, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write the result cache: " + directory, e);
+        }
+        if (estimatedBytes.get() == UNKNOWN_SIZE || estimatedBytes.addAndGet(data.length) > maxBytes) {
+            evict();
+        }
+    }
+
+    private static final class Entry {
+        final Path path;
+        final long size;
+        final long lastModified;
+
+        Entry(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Lists the directory and deletes the least recently used entries until the cache fits in {@code maxBytes}.
+     */
+    private synchronized void evict() {
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                try {
+                    long lastModified = Files.getLastModifiedTime(file).toMillis();
+                    if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                        if (now - lastModified > STALE_TEMPORARY_MILLIS) {
+                            Files.deleteIfExists(file);
+                        }
+                        continue;
+                    }
+                    Entry entry = new Entry(file, Files.size(file), lastModified);
+                    entries.add(entry);
+                    total += entry.size;
+                } catch (NoSuchFileException e) {
+                    // Deleted by another process
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot list the result cache: " + directory, e);
+        }
+        if (total <= maxBytes) {
+            estimatedBytes.set(total);
+            return;
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.lastModified));
+        for (Entry entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            try {
+                if (Files.deleteIfExists(entry.path)) {
+                    evictions.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // In use or deleted by another process: try the next one
+                continue;
+            }
+            total -= entry.size;
+        }
+        estimatedBytes.set(total);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Result cache " + directory + ": " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+}
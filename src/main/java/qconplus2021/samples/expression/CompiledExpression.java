@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.expression;
+
+import uk.ac.manchester.tornado.api.collections.types.VectorFloat4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Stack program for a {@link Float4Expression}.
+ *
+ * The tree is compiled in post-order into instructions of three ints: {@code opcode, operand kind, operand index}.
+ * {@code PUSH} pushes its operand; the arithmetic opcodes apply their operand to the top of the stack. The operand is a
+ * vector, a scalar or, for non-leaf right-hand sides, the value popped from the stack. Leaf right-hand sides are folded
+ * into the instruction, so {@code a * b + c - d} runs as {@code PUSH a; MUL b; ADD c; SUB d}.
+ *
+ * Vector and scalar operands are numbered by order of appearance (the same vector used twice gets one index), so the
+ * program only depends on the shape of the expression and can be used as part of the key of the evaluator caches.
+ */
+final class CompiledExpression {
+
+    static final int PUSH = 0;
+    static final int ADD = 1;
+    static final int SUB = 2;
+    static final int MUL = 3;
+    static final int DIV = 4;
+
+    static final int STACK = 0;
+    static final int VECTOR = 1;
+    static final int SCALAR = 2;
+
+    static final int INSTRUCTION_SIZE = 3;
+
+    // Per-element stack of the TornadoVM stack interpreter, allocated in private memory
+    static final int MAX_STACK_DEPTH = 8;
+
+    final int[] program;
+    final int stackDepth;
+    final VectorFloat4[] vectors;
+    final float[] scalars;
+    private final String shape;
+
+    private CompiledExpression(int[] program, int stackDepth, VectorFloat4[] vectors, float[] scalars) {
+        this.program = program;
+        this.stackDepth = stackDepth;
+        this.vectors = vectors;
+        this.scalars = scalars;
+        this.shape = Arrays.toString(program);
+    }
+
+    /**
+     * Key of the evaluator caches (with the arrays, for TornadoVM): two expressions with the same key only differ in
+     * their operands.
+     */
+    String getShape() {
+        return shape;
+    }
+
+    static CompiledExpression compile(Float4Expression expression) {
+        Compiler compiler = new Compiler();
+        compiler.emit(expression);
+        int[] program = new int[compiler.code.size()];
+        for (int i = 0; i < program.length; i++) {
+            program[i] = compiler.code.get(i);
+        }
+        float[] scalars = new float[compiler.scalars.size()];
+        for (int i = 0; i < scalars.length; i++) {
+            scalars[i] = compiler.scalars.get(i);
+        }
+        return new CompiledExpression(program, compiler.maxDepth, compiler.vectors.toArray(new VectorFloat4[0]), scalars);
+    }
+
+    private static final class Compiler {
+        private final List<Integer> code = new ArrayList<>();
+        private final List<VectorFloat4> vectors = new ArrayList<>();
+        private final IdentityHashMap<VectorFloat4, Integer> vectorIndex = new IdentityHashMap<>();
+        private final List<Float> scalars = new ArrayList<>();
+        private int depth;
+        private int maxDepth;
+
+        private void emit(Float4Expression node) {
+            if (node instanceof Float4Expression.Binary) {
+                Float4Expression.Binary binary = (Float4Expression.Binary) node;
+                emit(binary.left);
+                int opcode = opcode(binary.operator);
+                if (binary.right instanceof Float4Expression.Binary) {
+                    emit(binary.right);
+                    instruction(opcode, STACK, 0);
+                    depth--;
+                } else {
+                    leaf(opcode, binary.right);
+                }
+            } else {
+                leaf(PUSH, node);
+                depth++;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+        }
+
+        private void leaf(int opcode, Float4Expression node) {
+            if (node instanceof Float4Expression.Vector) {
+                VectorFloat4 vector = ((Float4Expression.Vector) node).vector;
+                Integer index = vectorIndex.get(vector);
+                if (index == null) {
+                    index = vectors.size();
+                    vectors.add(vector);
+                    vectorIndex.put(vector, index);
+                }
+                instruction(opcode, VECTOR, index);
+            } else {
+                scalars.add(((Float4Expression.Scalar) node).value);
+                instruction(opcode, SCALAR, scalars.size() - 1);
+            }
+        }
+
+        private void instruction(int opcode, int kind, int index) {
+            code.add(opcode);
+            code.add(kind);
+            code.add(index);
+        }
+
+        private static int opcode(Float4Expression.Operator operator) {
+            switch (operator) {
+                case ADD:
+                    return ADD;
+                case SUB:
+                    return SUB;
+                case MUL:
+                    return MUL;
+                case DIV:
+                    return DIV;
+                default:
+                    throw new IllegalArgumentException("Operator not supported: " + operator);
+            }
+        }
+    }
+}
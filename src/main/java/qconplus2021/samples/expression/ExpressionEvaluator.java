@@ -0,0 +1,357 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.expression;
+
+import qconplus2021.samples.Implementation;
+import uk.ac.manchester.tornado.api.TaskSchedule;
+import uk.ac.manchester.tornado.api.annotations.Parallel;
+import uk.ac.manchester.tornado.api.collections.types.VectorFloat4;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static qconplus2021.samples.expression.CompiledExpression.ADD;
+import static qconplus2021.samples.expression.CompiledExpression.DIV;
+import static qconplus2021.samples.expression.CompiledExpression.INSTRUCTION_SIZE;
+import static qconplus2021.samples.expression.CompiledExpression.MAX_STACK_DEPTH;
+import static qconplus2021.samples.expression.CompiledExpression.MUL;
+import static qconplus2021.samples.expression.CompiledExpression.PUSH;
+import static qconplus2021.samples.expression.CompiledExpression.SCALAR;
+import static qconplus2021.samples.expression.CompiledExpression.STACK;
+import static qconplus2021.samples.expression.CompiledExpression.SUB;
+import static qconplus2021.samples.expression.CompiledExpression.VECTOR;
+
+/**
+ * Evaluators for {@link Float4Expression}.
+ *
+ * A {@link VectorFloat4} stores its elements as an interleaved float array (x, y, z, w, x, ...). Since every operation
+ * is applied per component, the expression is evaluated over that flat array.
+ *
+ * - CPU (sequential and multi-threaded): the flat array is split in blocks of {@code BLOCK_SIZE} floats. The program
+ *   runs one instruction at a time over a whole block, so the interpretation cost is paid per block and the inner loops
+ *   are simple enough for the JIT compiler to vectorize them. The stack holds block-sized buffers, not full vectors.
+ * - TornadoVM: one thread per float interprets the whole program, which is passed to the kernel as data: the same two
+ *   kernels run every shape. Programs with a stack depth of 1 (e.g. {@code a * b + c - d}) keep the value in a
+ *   register; the others use a small stack in private memory. The task schedule binds the arrays of the caller (at most
+ *   {@link #MAX_TORNADO_VECTORS} operand vectors), so it is cached per shape and arrays, and reused by later evaluations
+ *   over the same vectors. The cache keeps the {@link #MAX_TORNADO_EVALUATORS} most recently used schedules.
+ */
+final class ExpressionEvaluator {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    // Vector parameters of the TornadoVM kernels
+    static final int MAX_TORNADO_VECTORS = 6;
+
+    // Task schedules kept, least recently used first. An evicted schedule is built (and its kernel compiled) again if
+    // its arrays are used again.
+    private static final int MAX_TORNADO_EVALUATORS = 16;
+
+    private static final Map<Binding, TornadoEvaluator> TORNADO_EVALUATORS = new LinkedHashMap<Binding, TornadoEvaluator>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Binding, TornadoEvaluator> eldest) {
+            return size() > MAX_TORNADO_EVALUATORS;
+        }
+    };
+    private static final AtomicInteger SCHEDULE_ID = new AtomicInteger();
+
+    private static final ThreadLocal<float[][]> CPU_STACK = ThreadLocal.withInitial(() -> new float[MAX_STACK_DEPTH][BLOCK_SIZE]);
+
+    private ExpressionEvaluator() {
+    }
+
+    static void evaluate(Float4Expression expression, VectorFloat4 output, Implementation implementation) {
+        CompiledExpression compiled = CompiledExpression.compile(expression);
+        if (compiled.stackDepth > MAX_STACK_DEPTH) {
+            throw new IllegalArgumentException("Expression too deep: needs a stack of " + compiled.stackDepth + ", max " + MAX_STACK_DEPTH);
+        }
+        float[][] vectors = new float[compiled.vectors.length][];
+        for (int i = 0; i < vectors.length; i++) {
+            if (compiled.vectors[i].getLength() != output.getLength()) {
+                throw new IllegalArgumentException("Vector length mismatch: " + compiled.vectors[i].getLength() + " vs " + output.getLength());
+            }
+            vectors[i] = compiled.vectors[i].getArray();
+        }
+        float[] result = output.getArray();
+
+        switch (implementation) {
+            case SEQUENTIAL:
+                for (int block = 0; block < numBlocks(result.length); block++) {
+                    evaluateBlock(compiled.program, vectors, compiled.scalars, result, block);
+                }
+                break;
+            case MT:
+                IntStream.range(0, numBlocks(result.length)).parallel().forEach(block -> {
+                    evaluateBlock(compiled.program, vectors, compiled.scalars, result, block);
+                });
+                break;
+            case TORNADO_LOOP:
+                if (vectors.length > MAX_TORNADO_VECTORS) {
+                    throw new IllegalArgumentException("Too many vectors for TornadoVM: " + vectors.length + ", max " + MAX_TORNADO_VECTORS);
+                }
+                tornadoEvaluator(compiled, vectors, result).evaluate(compiled.scalars);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported implementation for expressions: " + implementation);
+        }
+    }
+
+    private static TornadoEvaluator tornadoEvaluator(CompiledExpression compiled, float[][] vectors, float[] result) {
+        Binding binding = new Binding(compiled.getShape(), vectors, result);
+        synchronized (TORNADO_EVALUATORS) {
+            TornadoEvaluator evaluator = TORNADO_EVALUATORS.get(binding);
+            if (evaluator == null) {
+                evaluator = new TornadoEvaluator(compiled, vectors, result);
+                TORNADO_EVALUATORS.put(binding, evaluator);
+            }
+            return evaluator;
+        }
+    }
+
+    private static int numBlocks(int length) {
+        return (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    private static void evaluateBlock(int[] program, float[][] vectors, float[] scalars, float[] output, int block) {
+        float[][] stack = CPU_STACK.get();
+        int from = block * BLOCK_SIZE;
+        int length = Math.min(BLOCK_SIZE, output.length - from);
+        int sp = 0;
+        for (int pc = 0; pc < program.length; pc += INSTRUCTION_SIZE) {
+            int opcode = program[pc];
+            int kind = program[pc + 1];
+            int index = program[pc + 2];
+            if (opcode == PUSH) {
+                if (kind == VECTOR) {
+                    System.arraycopy(vectors[index], from, stack[sp], 0, length);
+                } else {
+                    Arrays.fill(stack[sp], 0, length, scalars[index]);
+                }
+                sp++;
+            } else if (kind == STACK) {
+                sp--;
+                apply(opcode, stack[sp - 1], stack[sp], 0, length);
+            } else if (kind == VECTOR) {
+                apply(opcode, stack[sp - 1], vectors[index], from, length);
+            } else {
+                apply(opcode, stack[sp - 1], scalars[index], length);
+            }
+        }
+        System.arraycopy(stack[0], 0, output, from, length);
+    }
+
+    private static void apply(int opcode, float[] target, float[] operand, int offset, int length) {
+        switch (opcode) {
+            case ADD:
+                for (int i = 0; i < length; i++) {
+                    target[i] += operand[offset + i];
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < length; i++) {
+                    target[i] -= operand[offset + i];
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < length; i++) {
+                    target[i] *= operand[offset + i];
+                }
+                break;
+            case DIV:
+                for (int i = 0; i < length; i++) {
+                    target[i] /= operand[offset + i];
+                }
+                break;
+        }
+    }
+
+    private static void apply(int opcode, float[] target, float operand, int length) {
+        switch (opcode) {
+            case ADD:
+                for (int i = 0; i < length; i++) {
+                    target[i] += operand;
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < length; i++) {
+                    target[i] -= operand;
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < length; i++) {
+                    target[i] *= operand;
+                }
+                break;
+            case DIV:
+                for (int i = 0; i < length; i++) {
+                    target[i] /= operand;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Interpreter compiled by TornadoVM for programs with a stack depth of 1 (every right-hand side is a leaf, e.g.
+     * {@code a * b + c - d}): the value of the element lives in a single register.
+     */
+    private static void evaluateLinearKernel(int[] program, float[] v0, float[] v1, float[] v2, float[] v3, float[] v4, float[] v5, float[] scalars, float[] output, int length) {
+        for (@Parallel int i = 0; i < length; i++) {
+            float value = 0;
+            for (int pc = 0; pc < program.length; pc += INSTRUCTION_SIZE) {
+                int opcode = program[pc];
+                int index = program[pc + 2];
+                float operand = program[pc + 1] == VECTOR ? vector(index, i, v0, v1, v2, v3, v4, v5) : scalars[index];
+                if (opcode == PUSH) {
+                    value = operand;
+                } else if (opcode == ADD) {
+                    value = value + operand;
+                } else if (opcode == SUB) {
+                    value = value - operand;
+                } else if (opcode == MUL) {
+                    value = value * operand;
+                } else {
+                    value = value / operand;
+                }
+            }
+            output[i] = value;
+        }
+    }
+
+    /**
+     * Stack interpreter compiled by TornadoVM, for any program: every element has a stack of {@code MAX_STACK_DEPTH}
+     * floats in private memory.
+     */
+    private static void evaluateKernel(int[] program, float[] v0, float[] v1, float[] v2, float[] v3, float[] v4, float[] v5, float[] scalars, float[] output, int length) {
+        for (@Parallel int i = 0; i < length; i++) {
+            float[] stack = new float[MAX_STACK_DEPTH];
+            int sp = 0;
+            for (int pc = 0; pc < program.length; pc += INSTRUCTION_SIZE) {
+                int opcode = program[pc];
+                int kind = program[pc + 1];
+                int index = program[pc + 2];
+                float operand;
+                if (kind == VECTOR) {
+                    operand = vector(index, i, v0, v1, v2, v3, v4, v5);
+                } else if (kind == SCALAR) {
+                    operand = scalars[index];
+                } else {
+                    sp--;
+                    operand = stack[sp];
+                }
+                if (opcode == PUSH) {
+                    stack[sp] = operand;
+                    sp++;
+                } else if (opcode == ADD) {
+                    stack[sp - 1] = stack[sp - 1] + operand;
+                } else if (opcode == SUB) {
+                    stack[sp - 1] = stack[sp - 1] - operand;
+                } else if (opcode == MUL) {
+                    stack[sp - 1] = stack[sp - 1] * operand;
+                } else {
+                    stack[sp - 1] = stack[sp - 1] / operand;
+                }
+            }
+            output[i] = stack[0];
+        }
+    }
+
+    private static float vector(int index, int i, float[] v0, float[] v1, float[] v2, float[] v3, float[] v4, float[] v5) {
+        if (index == 0) {
+            return v0[i];
+        } else if (index == 1) {
+            return v1[i];
+        } else if (index == 2) {
+            return v2[i];
+        } else if (index == 3) {
+            return v3[i];
+        } else if (index == 4) {
+            return v4[i];
+        }
+        return v5[i];
+    }
+
+    /**
+     * Operands and output of a TornadoVM evaluation: a task schedule binds its arrays when it is built, so it can only be
+     * reused for the same shape over the same arrays. Arrays are compared by identity.
+     */
+    private static final class Binding {
+        private final String shape;
+        private final float[][] arrays;
+
+        Binding(String shape, float[][] vectors, float[] output) {
+            this.shape = shape;
+            arrays = Arrays.copyOf(vectors, vectors.length + 1);
+            arrays[vectors.length] = output;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Binding) || !shape.equals(((Binding) other).shape) || arrays.length != ((Binding) other).arrays.length) {
+                return false;
+            }
+            for (int i = 0; i < arrays.length; i++) {
+                if (arrays[i] != ((Binding) other).arrays[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = shape.hashCode();
+            for (float[] array : arrays) {
+                hash = 31 * hash + System.identityHashCode(array);
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * Task schedule over the arrays of the caller: the operand vectors are streamed in and the output streamed out on
+     * every evaluation, without copies on the host. Only the scalars go through a buffer of the evaluator, since they are
+     * not stored in an array of the caller. Unused vector parameters are bound to the output, and never read.
+     */
+    private static final class TornadoEvaluator {
+        private final float[] scalars;
+        private final TaskSchedule schedule;
+
+        TornadoEvaluator(CompiledExpression compiled, float[][] vectors, float[] output) {
+            scalars = new float[Math.max(1, compiled.scalars.length)];
+            float[][] v = new float[MAX_TORNADO_VECTORS][];
+            for (int i = 0; i < v.length; i++) {
+                v[i] = i < vectors.length ? vectors[i] : output;
+            }
+            Object[] inputs = Arrays.copyOf(vectors, vectors.length + 1, Object[].class);
+            inputs[vectors.length] = scalars;
+            schedule = new TaskSchedule("expression" + SCHEDULE_ID.getAndIncrement()).streamIn(inputs);
+            if (compiled.stackDepth == 1) {
+                schedule.task("t0", ExpressionEvaluator::evaluateLinearKernel, compiled.program, v[0], v[1], v[2], v[3], v[4], v[5], scalars, output, output.length);
+            } else {
+                schedule.task("t0", ExpressionEvaluator::evaluateKernel, compiled.program, v[0], v[1], v[2], v[3], v[4], v[5], scalars, output, output.length);
+            }
+            schedule.streamOut(output);
+        }
+
+        synchronized void evaluate(float[] scalarOperands) {
+            System.arraycopy(scalarOperands, 0, scalars, 0, scalarOperands.length);
+            schedule.execute();
+        }
+    }
+}
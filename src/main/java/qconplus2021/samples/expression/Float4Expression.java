@@ -0,0 +1,145 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.expression;
+
+import qconplus2021.samples.Implementation;
+import uk.ac.manchester.tornado.api.collections.types.VectorFloat4;
+
+import java.util.EnumSet;
+
+/**
+ * Lazy element-wise expression over {@link VectorFloat4}.
+ *
+ * Operations do not compute anything, they build an expression tree. {@link #evaluate(VectorFloat4)} evaluates the
+ * whole tree in a single fused pass over the elements, without full-size temporaries:
+ *
+ * <code>
+ *     Float4Expression.of(a).mul(b).add(c).sub(d).evaluate(output);
+ * </code>
+ *
+ * Operations are applied per component (x, y, z and w), as {@code Float4.add}, {@code Float4.sub} and
+ * {@code Float4.mult}. Scalar operands are broadcast to the four components. The expression can be evaluated with the
+ * {@link #SUPPORTED} implementations.
+ */
+public abstract class Float4Expression {
+
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.of(Implementation.SEQUENTIAL, Implementation.MT, Implementation.TORNADO_LOOP);
+
+    enum Operator {
+        ADD,
+        SUB,
+        MUL,
+        DIV
+    }
+
+    public static Float4Expression of(VectorFloat4 vector) {
+        return new Vector(vector);
+    }
+
+    public static Float4Expression of(float scalar) {
+        return new Scalar(scalar);
+    }
+
+    public Float4Expression add(Float4Expression other) {
+        return new Binary(Operator.ADD, this, other);
+    }
+
+    public Float4Expression add(VectorFloat4 other) {
+        return add(of(other));
+    }
+
+    public Float4Expression add(float other) {
+        return add(of(other));
+    }
+
+    public Float4Expression sub(Float4Expression other) {
+        return new Binary(Operator.SUB, this, other);
+    }
+
+    public Float4Expression sub(VectorFloat4 other) {
+        return sub(of(other));
+    }
+
+    public Float4Expression sub(float other) {
+        return sub(of(other));
+    }
+
+    public Float4Expression mul(Float4Expression other) {
+        return new Binary(Operator.MUL, this, other);
+    }
+
+    public Float4Expression mul(VectorFloat4 other) {
+        return mul(of(other));
+    }
+
+    public Float4Expression mul(float other) {
+        return mul(of(other));
+    }
+
+    public Float4Expression div(Float4Expression other) {
+        return new Binary(Operator.DIV, this, other);
+    }
+
+    public Float4Expression div(VectorFloat4 other) {
+        return div(of(other));
+    }
+
+    public Float4Expression div(float other) {
+        return div(of(other));
+    }
+
+    /**
+     * Evaluates the expression with the CPU multi-threaded evaluator.
+     */
+    public void evaluate(VectorFloat4 output) {
+        evaluate(output, Implementation.MT);
+    }
+
+    public void evaluate(VectorFloat4 output, Implementation implementation) {
+        if (!SUPPORTED.contains(implementation)) {
+            throw new IllegalArgumentException("Unsupported implementation for expressions: " + implementation);
+        }
+        ExpressionEvaluator.evaluate(this, output, implementation);
+    }
+
+    static final class Vector extends Float4Expression {
+        final VectorFloat4 vector;
+
+        Vector(VectorFloat4 vector) {
+            this.vector = vector;
+        }
+    }
+
+    static final class Scalar extends Float4Expression {
+        final float value;
+
+        Scalar(float value) {
+            this.value = value;
+        }
+    }
+
+    static final class Binary extends Float4Expression {
+        final Operator operator;
+        final Float4Expression left;
+        final Float4Expression right;
+
+        Binary(Operator operator, Float4Expression left, Float4Expression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
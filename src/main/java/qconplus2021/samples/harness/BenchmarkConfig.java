@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.harness;
+
+import qconplus2021.samples.Implementation;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Command line options of the {@link BenchmarkRunner}, common to all samples:
+ *
+ * --warmup=N: iterations run before measuring (default 2)
+ * --iterations=N: measured iterations (default 10)
+ * --format=text|csv|json: report format (default text)
+ * --output=FILE: writes the report to a file instead of the standard output
+ *
+ * The remaining arguments are left for the sample, e.g. the implementation ({@code --tornado}, {@code --mt}, ...).
+ */
+public class BenchmarkConfig {
+
+    public static final int DEFAULT_WARMUP = 2;
+    public static final int DEFAULT_ITERATIONS = 10;
+
+    public enum Format {
+        TEXT,
+        CSV,
+        JSON
+    }
+
+    private int warmup = DEFAULT_WARMUP;
+    private int iterations;
+    private Format format = Format.TEXT;
+    private String output;
+    private final List<String> arguments = new ArrayList<>();
+
+    private BenchmarkConfig(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public static BenchmarkConfig parse(String[] args) {
+        return parse(args, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param defaultIterations
+     *            measured iterations when {@code --iterations} is not given.
+     */
+    public static BenchmarkConfig parse(String[] args, int defaultIterations) {
+        BenchmarkConfig config = new BenchmarkConfig(defaultIterations);
+        for (String arg : args) {
+            if (arg.startsWith("--warmup=")) {
+                config.warmup = parseCount(arg);
+            } else if (arg.startsWith("--iterations=")) {
+                config.iterations = Math.max(1, parseCount(arg));
+            } else if (arg.startsWith("--format=")) {
+                config.format = Format.valueOf(value(arg).toUpperCase());
+            } else if (arg.startsWith("--output=")) {
+                config.output = value(arg);
+            } else {
+                config.arguments.add(arg);
+            }
+        }
+        return config;
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    private static int parseCount(String arg) {
+        int count = Integer.parseInt(value(arg));
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid count: " + arg);
+        }
+        return count;
+    }
+
+    public int getWarmup() {
+        return warmup;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Report file, or null for the standard output.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * Arguments that are not options of the runner, in order.
+     */
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Implementation selected with {@code --<option>} in the sample arguments, or {@code defaultImplementation} if
+     * there is none. Prints the usage and exits if the option is not valid or not supported by the sample.
+     */
+    public Implementation getImplementation(Implementation defaultImplementation, EnumSet<Implementation> supported) {
+        for (String arg : arguments) {
+            if (arg.startsWith("--")) {
+                Implementation implementation = Implementation.fromOption(arg.substring(2));
+                if (implementation == null || !supported.contains(implementation)) {
+                    Implementation.printUsage(supported);
+                    System.exit(-1);
+                }
+                return implementation;
+            }
+        }
+        return defaultImplementation;
+    }
+}
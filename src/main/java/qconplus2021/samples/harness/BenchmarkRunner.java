@@ -0,0 +1,217 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.harness;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.jfr.Events;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs a {@link PhasedBenchmark}: {@code warmup} iterations followed by {@code iterations} measured ones. Every phase
+ * of every measured iteration is recorded in its own {@link Histogram}, plus one for the whole iteration, and the
+ * report shows min, median, p90, p99, max, mean and standard deviation of each of them.
+ *
+ * Every phase also emits a JDK Flight Recorder event (see {@link Events}), in warmup iterations too.
+ */
+public class BenchmarkRunner {
+
+    private static final String TOTAL = "total";
+
+    private final BenchmarkConfig config;
+
+    public BenchmarkRunner(BenchmarkConfig config) {
+        this.config = config;
+    }
+
+    public Report run(String name, Implementation implementation, PhasedBenchmark benchmark) {
+        Map<Phase, Histogram> histograms = new EnumMap<>(Phase.class);
+        for (Phase phase : benchmark.getPhases()) {
+            histograms.put(phase, new Histogram());
+        }
+        Histogram total = new Histogram();
+        for (int i = 0; i < config.getWarmup() + config.getIterations(); i++) {
+            boolean measure = i >= config.getWarmup();
+            long iterationStart = System.nanoTime();
+            for (Map.Entry<Phase, Histogram> entry : histograms.entrySet()) {
+                long start = System.nanoTime();
+                Phase phase = entry.getKey();
+                Events.phase(phase, name, implementation, () -> runPhase(benchmark, phase));
+                long end = System.nanoTime();
+                if (measure) {
+                    entry.getValue().record(end - start);
+                }
+            }
+            if (measure) {
+                total.record(System.nanoTime() - iterationStart);
+            }
+        }
+        Report report = new Report(name, implementation, histograms, total);
+        report.print(config);
+        return report;
+    }
+
+    private static void runPhase(PhasedBenchmark benchmark, Phase phase) {
+        switch (phase) {
+            case LOAD:
+                benchmark.load();
+                break;
+            case UNPACK:
+                benchmark.unpack();
+                break;
+            case COMPUTE:
+                benchmark.compute();
+                break;
+            case REPACK:
+                benchmark.repack();
+                break;
+            case ENCODE:
+                benchmark.encode();
+                break;
+        }
+    }
+
+    /**
+     * Histograms of one run. Times are recorded in nanoseconds; the text format prints milliseconds.
+     */
+    public static class Report {
+
+        private final String name;
+        private final Implementation implementation;
+        private final Map<Phase, Histogram> phases;
+        private final Histogram total;
+
+        Report(String name, Implementation implementation, Map<Phase, Histogram> phases, Histogram total) {
+            this.name = name;
+            this.implementation = implementation;
+            this.phases = phases;
+            this.total = total;
+        }
+
+        public Histogram getHistogram(Phase phase) {
+            return phases.get(phase);
+        }
+
+        public Histogram getTotal() {
+            return total;
+        }
+
+        void print(BenchmarkConfig config) {
+            if (config.getOutput() == null) {
+                print(System.out, config);
+                return;
+            }
+            try (PrintStream stream = new PrintStream(config.getOutput())) {
+                print(stream, config);
+            } catch (FileNotFoundException e) {
+                throw new RuntimeException("Cannot write the report: " + config.getOutput());
+            }
+            System.out.println("Report written to " + config.getOutput());
+        }
+
+        private void print(PrintStream stream, BenchmarkConfig config) {
+            switch (config.getFormat()) {
+                case TEXT:
+                    printText(stream, config);
+                    break;
+                case CSV:
+                    printCSV(stream);
+                    break;
+                case JSON:
+                    printJSON(stream, config);
+                    break;
+            }
+        }
+
+        private void printText(PrintStream stream, BenchmarkConfig config) {
+            stream.println(name + " (" + implementation + "): " + config.getWarmup() + " warmup, " + config.getIterations() + " measured iterations, times in ms");
+            stream.println(String.format(Locale.ROOT, "%-8s %10s %10s %10s %10s %10s %10s %10s %6s", "phase", "min", "median", "p90", "p99", "max", "mean", "stddev", "%"));
+            for (Map.Entry<Phase, Histogram> entry : phases.entrySet()) {
+                printTextRow(stream, entry.getKey().getLabel(), entry.getValue());
+            }
+            printTextRow(stream, TOTAL, total);
+        }
+
+        private void printTextRow(PrintStream stream, String label, Histogram histogram) {
+            double share = total.getMean() == 0 ? 0 : 100.0 * histogram.getMean() / total.getMean();
+            stream.println(String.format(Locale.ROOT, "%-8s %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f %6.1f", label, //
+                    millis(histogram.getMin()), //
+                    millis(histogram.getValueAtPercentile(50)), //
+                    millis(histogram.getValueAtPercentile(90)), //
+                    millis(histogram.getValueAtPercentile(99)), //
+                    millis(histogram.getMax()), //
+                    millis(histogram.getMean()), //
+                    millis(histogram.getStdDeviation()), //
+                    share));
+        }
+
+        private static double millis(double nanoseconds) {
+            return nanoseconds * 1e-6;
+        }
+
+        private void printCSV(PrintStream stream) {
+            stream.println("benchmark,implementation,phase,count,min_ns,median_ns,p90_ns,p99_ns,max_ns,mean_ns,stddev_ns");
+            for (Map.Entry<Phase, Histogram> entry : phases.entrySet()) {
+                printCSVRow(stream, entry.getKey().getLabel(), entry.getValue());
+            }
+            printCSVRow(stream, TOTAL, total);
+        }
+
+        private void printCSVRow(PrintStream stream, String label, Histogram histogram) {
+            stream.println(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%d,%d,%d,%.1f,%.1f", name, implementation, label, //
+                    histogram.getTotalCount(), //
+                    histogram.getMin(), //
+                    histogram.getValueAtPercentile(50), //
+                    histogram.getValueAtPercentile(90), //
+                    histogram.getValueAtPercentile(99), //
+                    histogram.getMax(), //
+                    histogram.getMean(), //
+                    histogram.getStdDeviation()));
+        }
+
+        private void printJSON(PrintStream stream, BenchmarkConfig config) {
+            stream.println("{");
+            stream.println("  \"benchmark\": \"" + name + "\",");
+            stream.println("  \"implementation\": \"" + implementation + "\",");
+            stream.println("  \"warmup\": " + config.getWarmup() + ",");
+            stream.println("  \"iterations\": " + config.getIterations() + ",");
+            stream.println("  \"unit\": \"ns\",");
+            stream.println("  \"phases\": {");
+            for (Map.Entry<Phase, Histogram> entry : phases.entrySet()) {
+                stream.println("    \"" + entry.getKey().getLabel() + "\": " + toJSON(entry.getValue()) + ",");
+            }
+            stream.println("    \"" + TOTAL + "\": " + toJSON(total));
+            stream.println("  }");
+            stream.println("}");
+        }
+
+        private static String toJSON(Histogram histogram) {
+            return String.format(Locale.ROOT, "{\"count\": %d, \"min\": %d, \"median\": %d, \"p90\": %d, \"p99\": %d, \"max\": %d, \"mean\": %.1f, \"stddev\": %.1f}", //
+                    histogram.getTotalCount(), //
+                    histogram.getMin(), //
+                    histogram.getValueAtPercentile(50), //
+                    histogram.getValueAtPercentile(90), //
+                    histogram.getValueAtPercentile(99), //
+                    histogram.getMax(), //
+                    histogram.getMean(), //
+                    histogram.getStdDeviation());
+        }
+    }
+}
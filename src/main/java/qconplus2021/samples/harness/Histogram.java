@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.harness;
+
+/**
+ * Histogram of non-negative values (e.g., nanoseconds) with log-linear buckets, in the style of HdrHistogram.
+ *
+ * Values below {@code 2^SUB_BUCKET_BITS} are counted exactly. Larger values are grouped by their highest bit, and every
+ * power of two is split in {@code 2^(SUB_BUCKET_BITS - 1)} linear sub-buckets, so percentiles have a relative error
+ * below 1% for any value in the {@code long} range, with a fixed footprint and O(1) recording. Min, max, mean and
+ * standard deviation are exact.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int NUM_BUCKETS = SUB_BUCKET_COUNT + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private final long[] counts = new long[NUM_BUCKETS];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+    private double sumOfSquares;
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        counts[bucketIndex(value)]++;
+        totalCount++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        sumOfSquares += (double) value * value;
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_HALF;
+        return SUB_BUCKET_COUNT + (highestBit - SUB_BUCKET_BITS) * SUB_BUCKET_HALF + subBucket;
+    }
+
+    private static long lowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int bucket = index - SUB_BUCKET_COUNT;
+        int highestBit = bucket / SUB_BUCKET_HALF + SUB_BUCKET_BITS;
+        long subBucket = bucket % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return subBucket << (highestBit - (SUB_BUCKET_BITS - 1));
+    }
+
+    private static long highestValue(int index) {
+        return index + 1 < NUM_BUCKETS ? lowestValue(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    public double getStdDeviation() {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double mean = getMean();
+        return Math.sqrt(Math.max(0, sumOfSquares / totalCount - mean * mean));
+    }
+
+    /**
+     * Value at the given percentile (0-100): the middle of the bucket that holds it, clamped to the recorded range.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long accumulated = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            accumulated += counts[i];
+            if (accumulated >= rank) {
+                long lowest = lowestValue(i);
+                long middle = lowest + (highestValue(i) - lowest) / 2;
+                return Math.min(Math.max(middle, getMin()), max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.harness;
+
+/**
+ * Phases of a sample run, in execution order. Each phase is timed separately by the {@link BenchmarkRunner}.
+ */
+public enum Phase {
+    /**
+     * Read and decode the input (e.g., the JPEG image).
+     */
+    LOAD,
+    /**
+     * Copy the input into the arrays used by the kernels (e.g., one array per colour channel).
+     */
+    UNPACK,
+    /**
+     * The computation itself: sequential, multi-threaded or with TornadoVM.
+     */
+    COMPUTE,
+    /**
+     * Copy the results back to the output representation (e.g., a {@code BufferedImage}).
+     */
+    REPACK,
+    /**
+     * Encode and write the output (e.g., the JPEG or PNG file).
+     */
+    ENCODE;
+
+    public String getLabel() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.harness;
+
+import java.util.EnumSet;
+
+/**
+ * A sample that runs with the {@link BenchmarkRunner}. Every iteration runs the phases returned by {@link #getPhases()},
+ * in the order of {@link Phase}. Phases that do not apply to a sample keep the default empty implementation.
+ */
+public interface PhasedBenchmark {
+
+    EnumSet<Phase> getPhases();
+
+    default void load() {
+    }
+
+    default void unpack() {
+    }
+
+    void compute();
+
+    default void repack() {
+    }
+
+    default void encode() {
+    }
+}
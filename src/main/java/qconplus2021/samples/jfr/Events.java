@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.jfr;
+
+import jdk.jfr.FlightRecorder;
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.backend.ComputeBackend;
+import qconplus2021.samples.backend.Kernel;
+import qconplus2021.samples.harness.Phase;
+
+/**
+ * JDK Flight Recorder events of the samples:
+ *
+ * - qconplus2021.Decode, Unpack, Compute, Repack and Encode: one per {@link Phase} of the
+ *   {@link qconplus2021.samples.harness.BenchmarkRunner}, with the benchmark and the implementation.
+ * - qconplus2021.Kernel: every {@link Kernel#execute()} of a {@link ComputeBackend}, with the implementation, backend,
+ *   task, problem size and device.
+ *
+ * The events are always registered, so they can be left on: without a recording, or with the event disabled, a phase
+ * or kernel only pays for the creation of an event object and a check of its enabled flag. Events have no stack trace,
+ * and their fields are only set when the event is committed. Record them with, e.g.,
+ * {@code -XX:StartFlightRecording=filename=/tmp/samples.jfr}, and summarise the recording with {@link JfrSummary}.
+ *
+ * -Djfr.events=false: run the phases and kernels without events
+ *
+ * The classes of this package are compiled against {@code jdk.jfr}, so the samples must be built with a JDK that has
+ * it (JDK 8u262 or later, or JDK 11 and later without {@code --release 8}, whose JDK 8 API has no JFR). A jar built
+ * that way also runs on a JDK without JFR: the events are then not used.
+ */
+public final class Events {
+
+    public static final String ENABLED_PROPERTY = "jfr.events";
+
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY)) && isJfrAvailable();
+
+    private Events() {
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            return FlightRecorder.isAvailable();
+        } catch (LinkageError e) {
+            // No jdk.jfr module in this JDK
+            return false;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Backend whose kernels emit a {@link KernelEvent} on every execution. The task is the operation, e.g. {@code blur}.
+     */
+    public static ComputeBackend traced(ComputeBackend backend) {
+        return ENABLED ? new TracedBackend(backend) : backend;
+    }
+
+    /**
+     * Backend without the events of {@link #traced(ComputeBackend)}, e.g. for kernels that are only measured internally.
+     */
+    public static ComputeBackend untraced(ComputeBackend backend) {
+        return backend instanceof TracedBackend ? ((TracedBackend) backend).getBackend() : backend;
+    }
+
+    /**
+     * Kernel that emits a {@link KernelEvent} on every execution, for kernels that do not come from a backend.
+     */
+    public static Kernel traced(Kernel kernel, Implementation implementation, String backend, String task, long size, String device) {
+        return ENABLED ? KernelEvent.trace(kernel, implementation, backend, task, size, device) : kernel;
+    }
+
+    /**
+     * Runs one phase of a benchmark inside its {@link PhaseEvent}.
+     */
+    public static void phase(Phase phase, String benchmark, Implementation implementation, Runnable body) {
+        if (ENABLED) {
+            PhaseEvents.run(phase, benchmark, implementation, body);
+        } else {
+            body.run();
+        }
+    }
+}
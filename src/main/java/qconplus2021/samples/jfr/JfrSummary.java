@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import qconplus2021.samples.harness.Histogram;
+import qconplus2021.samples.harness.Phase;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summarises the events of the samples (see {@link Events}) in a JFR recording: the latency of every phase per
+ * benchmark and implementation, and of every kernel per backend, task, problem size and device. Times are in ms; the
+ * share of a phase is the part of the total time of the benchmark spent in it.
+ *
+ * How to run?
+ *
+ * <code>
+ *    $ java -XX:StartFlightRecording=filename=/tmp/blur.jfr -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.BlurFilter --mt
+ *    $ java -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.jfr.JfrSummary /tmp/blur.jfr
+ * </code>
+ */
+public class JfrSummary {
+
+    private final Map<String, Map<Phase, Histogram>> phases = new TreeMap<>();
+    private final Map<String, Histogram> kernels = new TreeMap<>();
+
+    public void add(RecordedEvent event) {
+        String name = event.getEventType().getName();
+        long duration = event.getDuration().toNanos();
+        if (name.equals(KernelEvent.NAME)) {
+            String key = event.getString("backend") + " " + event.getString("task") + " (" + event.getString("implementation") + "), size " + event.getLong("size") + ", " + event.getString("device");
+            kernels.computeIfAbsent(key, k -> new Histogram()).record(duration);
+            return;
+        }
+        Phase phase = PhaseEvents.phaseOf(name);
+        if (phase != null) {
+            String key = event.getString("benchmark") + " (" + event.getString("implementation") + ")";
+            phases.computeIfAbsent(key, k -> new EnumMap<>(Phase.class)).computeIfAbsent(phase, p -> new Histogram()).record(duration);
+        }
+    }
+
+    public void print(PrintStream stream) {
+        if (phases.isEmpty() && kernels.isEmpty()) {
+            stream.println("No events of the samples in the recording (were they run with -Djfr.events=false?)");
+            return;
+        }
+        for (Map.Entry<String, Map<Phase, Histogram>> benchmark : phases.entrySet()) {
+            double total = 0;
+            for (Histogram histogram : benchmark.getValue().values()) {
+                total += histogram.getMean() * histogram.getTotalCount();
+            }
+            stream.println(benchmark.getKey() + ", times in ms");
+            printHeader(stream, "phase");
+            for (Map.Entry<Phase, Histogram> entry : benchmark.getValue().entrySet()) {
+                Histogram histogram = entry.getValue();
+                double share = total == 0 ? 0 : 100.0 * histogram.getMean() * histogram.getTotalCount() / total;
+                printRow(stream, entry.getKey().getLabel(), histogram, share);
+            }
+            stream.println();
+        }
+        for (Map.Entry<String, Histogram> kernel : kernels.entrySet()) {
+            stream.println("Kernel " + kernel.getKey() + ", times in ms");
+            printHeader(stream, "");
+            printRow(stream, "execute", kernel.getValue(), 100);
+            stream.println();
+        }
+    }
+
+    private static void printHeader(PrintStream stream, String label) {
+        stream.println(String.format(Locale.ROOT, "%-8s %8s %10s %10s %10s %10s %10s %10s %10s %6s", label, "count", "min", "median", "p90", "p99", "max", "mean", "stddev", "%"));
+    }
+
+    private static void printRow(PrintStream stream, String label, Histogram histogram, double share) {
+        stream.println(String.format(Locale.ROOT, "%-8s %8d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f %6.1f", label, //
+                histogram.getTotalCount(), //
+                millis(histogram.getMin()), //
+                millis(histogram.getValueAtPercentile(50)), //
+                millis(histogram.getValueAtPercentile(90)), //
+                millis(histogram.getValueAtPercentile(99)), //
+                millis(histogram.getMax()), //
+                millis(histogram.getMean()), //
+                millis(histogram.getStdDeviation()), //
+                share));
+    }
+
+    private static double millis(double nanoseconds) {
+        return nanoseconds * 1e-6;
+    }
+
+    public static JfrSummary read(Path recording) throws IOException {
+        JfrSummary summary = new JfrSummary();
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                summary.add(file.readEvent());
+            }
+        }
+        return summary;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: <recording.jfr>");
+            System.exit(-1);
+        }
+        try {
+            read(Paths.get(args[0])).print(System.out);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the recording: " + args[0]);
+        }
+    }
+}
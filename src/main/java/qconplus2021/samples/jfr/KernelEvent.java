@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.backend.Kernel;
+
+/**
+ * One execution of a compute kernel. See {@link Events}.
+ */
+@Name(KernelEvent.NAME)
+@Label("Kernel")
+@Category({ "QCon Plus 2021", "Kernels" })
+@Description("Execution of a compute kernel on a backend")
+@StackTrace(false)
+class KernelEvent extends Event {
+
+    static final String NAME = "qconplus2021.Kernel";
+
+    @Label("Implementation")
+    String implementation;
+
+    @Label("Backend")
+    String backend;
+
+    @Label("Task")
+    String task;
+
+    @Label("Problem Size")
+    @Description("Pixels of the image, or length of the signal")
+    long size;
+
+    @Label("Device")
+    String device;
+
+    static Kernel trace(Kernel kernel, Implementation implementation, String backend, String task, long size, String device) {
+        return () -> {
+            KernelEvent event = new KernelEvent();
+            event.begin();
+            kernel.execute();
+            event.end();
+            if (event.shouldCommit()) {
+                event.implementation = implementation.name();
+                event.backend = backend;
+                event.task = task;
+                event.size = size;
+                event.device = device;
+                event.commit();
+            }
+        };
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import qconplus2021.samples.harness.Phase;
+
+/**
+ * One phase of a benchmark iteration. There is an event type per {@link Phase}, so each one can be enabled and given a
+ * threshold separately. See {@link Events} and {@link PhaseEvents}.
+ */
+@Category({ "QCon Plus 2021", "Phases" })
+@StackTrace(false)
+abstract class PhaseEvent extends Event {
+
+    static final String PREFIX = "qconplus2021.";
+
+    @Label("Benchmark")
+    String benchmark;
+
+    @Label("Implementation")
+    String implementation;
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.jfr;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.harness.Phase;
+
+/**
+ * Mapping between the {@link Phase}s and their {@link PhaseEvent} types. It is kept out of the event classes, which JFR
+ * instruments when they are registered.
+ */
+final class PhaseEvents {
+
+    private PhaseEvents() {
+    }
+
+    /**
+     * Phase of an event type name, or null for other events.
+     */
+    static Phase phaseOf(String eventName) {
+        for (Phase phase : Phase.values()) {
+            if (eventName.equals(PhaseEvent.PREFIX + label(phase))) {
+                return phase;
+            }
+        }
+        return null;
+    }
+
+    private static String label(Phase phase) {
+        switch (phase) {
+            case LOAD:
+                return "Decode";
+            case UNPACK:
+                return "Unpack";
+            case COMPUTE:
+                return "Compute";
+            case REPACK:
+                return "Repack";
+            default:
+                return "Encode";
+        }
+    }
+
+    private static PhaseEvent create(Phase phase) {
+        switch (phase) {
+            case LOAD:
+                return new DecodeEvent();
+            case UNPACK:
+                return new UnpackEvent();
+            case COMPUTE:
+                return new ComputeEvent();
+            case REPACK:
+                return new RepackEvent();
+            default:
+                return new EncodeEvent();
+        }
+    }
+
+    static void run(Phase phase, String benchmark, Implementation implementation, Runnable body) {
+        PhaseEvent event = create(phase);
+        event.begin();
+        body.run();
+        event.end();
+        if (event.shouldCommit()) {
+            event.benchmark = benchmark;
+            event.implementation = implementation.name();
+            event.commit();
+        }
+    }
+}
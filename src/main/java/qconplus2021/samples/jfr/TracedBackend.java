@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.jfr;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.backend.ComputeBackend;
+import qconplus2021.samples.backend.Kernel;
+
+/**
+ * Backend whose kernels emit a {@link KernelEvent} on every execution. See {@link Events#traced(ComputeBackend)}.
+ */
+class TracedBackend implements ComputeBackend {
+
+    private final ComputeBackend backend;
+    private String device;
+
+    TracedBackend(ComputeBackend backend) {
+        this.backend = backend;
+    }
+
+    ComputeBackend getBackend() {
+        return backend;
+    }
+
+    @Override
+    public String getName() {
+        return backend.getName();
+    }
+
+    @Override
+    public Implementation getImplementation() {
+        return backend.getImplementation();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return backend.isAvailable();
+    }
+
+    @Override
+    public synchronized String getDevice() {
+        if (device == null) {
+            device = backend.getDevice();
+        }
+        return device;
+    }
+
+    @Override
+    public Kernel blur(int[][] channels, int[][] outputs, int numRows, int numCols, float[] filter, int filterWidth) {
+        return trace(backend.blur(channels, outputs, numRows, numCols, filter, filterWidth), "blur", (long) numRows * numCols);
+    }
+
+    @Override
+    public Kernel blurFixedPoint(int[][] channels, int[][] outputs, int numRows, int numCols, short[] weights, int shift, int filterWidth) {
+        return trace(backend.blurFixedPoint(channels, outputs, numRows, numCols, weights, shift, filterWidth), "blurFixedPoint", (long) numRows * numCols);
+    }
+
+    @Override
+    public Kernel rankFilter(int[][] channels, int[][] outputs, int numRows, int numCols, int radius, int rank) {
+        return trace(backend.rankFilter(channels, outputs, numRows, numCols, radius, rank), "rankFilter", (long) numRows * numCols);
+    }
+
+    @Override
+    public Kernel grayscale(int[] image, int w, int h) {
+        return trace(backend.grayscale(image, w, h), "grayscale", (long) w * h);
+    }
+
+    @Override
+    public Kernel edgeDetection(int[] image, int[] edges, int w, int h, float[] filter, int filterWidth) {
+        return trace(backend.edgeDetection(image, edges, w, h, filter, filterWidth), "edgeDetection", (long) w * h);
+    }
+
+    @Override
+    public Kernel juliaSet(int size, float[] hue, float[] brightness) {
+        return trace(backend.juliaSet(size, hue, brightness), "juliaSet", (long) size * size);
+    }
+
+    @Override
+    public Kernel dft(float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        return trace(backend.dft(inReal, inImag, outReal, outImag), "dft", inReal.length);
+    }
+
+    private Kernel trace(Kernel kernel, String task, long size) {
+        return KernelEvent.trace(kernel, getImplementation(), getName(), task, size, getDevice());
+    }
+}
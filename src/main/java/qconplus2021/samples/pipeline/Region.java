@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.pipeline;
+
+/**
+ * Rectangle of an image, rows {@code [rowFrom, rowTo)} and columns {@code [colFrom, colTo)}. It is also the layout of a
+ * buffer that holds the rectangle: row by row, starting at {@code (rowFrom, colFrom)}. The whole image is the region
+ * from {@code (0, 0)}, with the layout of the sample arrays ({@code r * numCols + c}).
+ */
+public final class Region {
+
+    final int rowFrom;
+    final int rowTo;
+    final int colFrom;
+    final int colTo;
+
+    public Region(int rowFrom, int rowTo, int colFrom, int colTo) {
+        this.rowFrom = rowFrom;
+        this.rowTo = rowTo;
+        this.colFrom = colFrom;
+        this.colTo = colTo;
+    }
+
+    public static Region image(int numRows, int numCols) {
+        return new Region(0, numRows, 0, numCols);
+    }
+
+    int rows() {
+        return rowTo - rowFrom;
+    }
+
+    int cols() {
+        return colTo - colFrom;
+    }
+
+    int size() {
+        return rows() * cols();
+    }
+
+    /**
+     * Index of the pixel {@code (r, c)} in a buffer with this layout.
+     */
+    int index(int r, int c) {
+        return (r - rowFrom) * cols() + (c - colFrom);
+    }
+
+    /**
+     * This region grown by {@code radius} pixels on every side, within the image.
+     */
+    Region expand(int radius, int numRows, int numCols) {
+        return new Region(Math.max(rowFrom - radius, 0), Math.min(rowTo + radius, numRows), Math.max(colFrom - radius, 0), Math.min(colTo + radius, numCols));
+    }
+
+    @Override
+    public String toString() {
+        return "[" + rowFrom + ", " + rowTo + ") x [" + colFrom + ", " + colTo + ")";
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.pipeline;
+
+/**
+ * Stage of a {@link StencilPipeline}: every output pixel depends on the input pixels at most {@link #getRadius()}
+ * away (0 for point stages). Pixels outside the image are clamped to the edge, so a stage computes the same values on
+ * a tile as on the whole image.
+ */
+public interface Stage {
+
+    int getRadius();
+
+    /**
+     * Computes the pixels of {@code area}. The input buffer holds at least {@code area} grown by the radius (within the
+     * image), and the output buffer holds at least {@code area}.
+     */
+    void apply(int[] input, Region inputLayout, int[] output, Region outputLayout, Region area, int numRows, int numCols);
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.pipeline;
+
+/**
+ * Stages of the edge detection: grayscale, blur and Sobel. They compute the same values as the kernels of the
+ * backends, e.g. {@link qconplus2021.samples.backend.SequentialBackend#channelConvolutionSequential} for the blur.
+ */
+public final class Stages {
+
+    private Stages() {
+    }
+
+    /**
+     * Grayscale, convolution and Sobel: gray levels of the edges of an image of ARGB pixels.
+     */
+    public static StencilPipeline edgeDetection(float[] filter, int filterWidth) {
+        return new StencilPipeline(grayscale(), convolution(filter, filterWidth), sobel());
+    }
+
+    /**
+     * ARGB pixels to gray levels (0-255), as the black and white filter.
+     */
+    public static Stage grayscale() {
+        return new Stage() {
+            @Override
+            public int getRadius() {
+                return 0;
+            }
+
+            @Override
+            public void apply(int[] input, Region inputLayout, int[] output, Region outputLayout, Region area, int numRows, int numCols) {
+                for (int r = area.rowFrom; r < area.rowTo; r++) {
+                    for (int c = area.colFrom; c < area.colTo; c++) {
+                        int rgb = input[inputLayout.index(r, c)];
+                        output[outputLayout.index(r, c)] = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Convolution with a {@code filterWidth x filterWidth} filter (odd width), e.g. a blur.
+     */
+    public static Stage convolution(float[] filter, int filterWidth) {
+        return new Stage() {
+            @Override
+            public int getRadius() {
+                return filterWidth / 2;
+            }
+
+            @Override
+            public void apply(int[] input, Region inputLayout, int[] output, Region outputLayout, Region area, int numRows, int numCols) {
+                for (int r = area.rowFrom; r < area.rowTo; r++) {
+                    for (int c = area.colFrom; c < area.colTo; c++) {
+                        float result = 0.0f;
+                        for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
+                            int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
+                            for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
+                                int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
+                                float image_value = input[inputLayout.index(image_r, image_c)];
+                                float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
+                                result += image_value * filter_value;
+                            }
+                        }
+                        output[outputLayout.index(r, c)] = result > 255 ? 255 : (int) result;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Gradient magnitude with the 3x3 Sobel operator, capped to 255.
+     */
+    public static Stage sobel() {
+        return new Stage() {
+            @Override
+            public int getRadius() {
+                return 1;
+            }
+
+            @Override
+            public void apply(int[] input, Region inputLayout, int[] output, Region outputLayout, Region area, int numRows, int numCols) {
+                for (int r = area.rowFrom; r < area.rowTo; r++) {
+                    for (int c = area.colFrom; c < area.colTo; c++) {
+                        int gx = 0;
+                        int gy = 0;
+                        for (int dr = -1; dr <= 1; dr++) {
+                            int image_r = Math.min(Math.max(r + dr, 0), (numRows - 1));
+                            for (int dc = -1; dc <= 1; dc++) {
+                                int image_c = Math.min(Math.max(c + dc, 0), (numCols - 1));
+                                int value = input[inputLayout.index(image_r, image_c)];
+                                gx += dc * (dr == 0 ? 2 : 1) * value;
+                                gy += dr * (dc == 0 ? 2 : 1) * value;
+                            }
+                        }
+                        float magnitude = (float) Math.sqrt(gx * gx + gy * gy);
+                        output[outputLayout.index(r, c)] = magnitude > 255 ? 255 : (int) magnitude;
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.pipeline;
+
+import qconplus2021.samples.tuning.Tiles;
+import qconplus2021.samples.tuning.TuningConfig;
+
+/**
+ * Chain of point and stencil {@link Stage}s, fused per tile.
+ *
+ * For every output tile, the area each stage has to compute is the tile grown by the radii of the stages after it (the
+ * accumulated halo), so the first stage reads the tile grown by the halo of the whole pipeline. Intermediate results
+ * are kept in two tile-local buffers, used in turns, that every thread allocates once for the largest tile: no
+ * intermediate image is written to memory. The first stage reads the input image and the last one writes the output
+ * image directly. Halo pixels are computed again by the neighbouring tiles; the extra work is
+ * {@code ((tile + 2 halo) / tile)^2} for the first stage, and less for the next ones.
+ *
+ * {@link #runSeparately} runs the same stages one after the other over the whole image, with full-size intermediates.
+ */
+public class StencilPipeline {
+
+    // Tile size when there is no tuned configuration
+    public static final int DEFAULT_TILE = 64;
+
+    private final Stage[] stages;
+    private final int halo;
+    private final ThreadLocal<int[][]> buffers = new ThreadLocal<>();
+
+    public StencilPipeline(Stage... stages) {
+        if (stages.length == 0) {
+            throw new IllegalArgumentException("A pipeline needs at least one stage");
+        }
+        this.stages = stages.clone();
+        int radius = 0;
+        for (Stage stage : stages) {
+            radius += stage.getRadius();
+        }
+        this.halo = radius;
+    }
+
+    /**
+     * Pixels read around an output pixel by the whole pipeline.
+     */
+    public int getHalo() {
+        return halo;
+    }
+
+    /**
+     * Fused version, with the tile size and number of threads of the configuration.
+     */
+    public void run(int[] input, int[] output, int numRows, int numCols, TuningConfig config) {
+        int maxArea = (config.getTileSize() + 2 * halo) * (config.getTileSize() + 2 * halo);
+        Tiles.forEachTile(numRows, numCols, config, (rowFrom, rowTo, colFrom, colTo) -> {
+            runTile(input, output, numRows, numCols, new Region(rowFrom, rowTo, colFrom, colTo), buffers(maxArea));
+        });
+    }
+
+    private int[][] buffers(int size) {
+        int[][] tileBuffers = buffers.get();
+        if (tileBuffers == null || tileBuffers[0].length < size) {
+            tileBuffers = new int[][] { new int[size], new int[size] };
+            buffers.set(tileBuffers);
+        }
+        return tileBuffers;
+    }
+
+    private void runTile(int[] input, int[] output, int numRows, int numCols, Region tile, int[][] tileBuffers) {
+        // Area of every stage, from the last one (the tile) back to the first one
+        Region[] areas = new Region[stages.length];
+        areas[stages.length - 1] = tile;
+        for (int s = stages.length - 2; s >= 0; s--) {
+            areas[s] = areas[s + 1].expand(stages[s + 1].getRadius(), numRows, numCols);
+        }
+        Region image = Region.image(numRows, numCols);
+        int[] stageInput = input;
+        Region inputLayout = image;
+        for (int s = 0; s < stages.length; s++) {
+            boolean last = s == stages.length - 1;
+            int[] stageOutput = last ? output : tileBuffers[s % 2];
+            Region outputLayout = last ? image : areas[s];
+            stages[s].apply(stageInput, inputLayout, stageOutput, outputLayout, areas[s], numRows, numCols);
+            stageInput = stageOutput;
+            inputLayout = outputLayout;
+        }
+    }
+
+    /**
+     * Unfused version: every stage runs over the whole image, sequentially. It is the reference of {@link #run}.
+     */
+    public void runSeparately(int[] input, int[] output, int numRows, int numCols) {
+        Region image = Region.image(numRows, numCols);
+        int[] stageInput = input;
+        for (int s = 0; s < stages.length; s++) {
+            int[] stageOutput = s == stages.length - 1 ? output : new int[numRows * numCols];
+            stages[s].apply(stageInput, image, stageOutput, image, image, numRows, numCols);
+            stageInput = stageOutput;
+        }
+    }
+}
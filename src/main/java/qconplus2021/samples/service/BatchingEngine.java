@@ -0,0 +1,324 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.service;
+
+import qconplus2021.samples.BlurFilter;
+import qconplus2021.samples.backend.ComputeBackend;
+import qconplus2021.samples.backend.Kernel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived compute engine of the {@link ImageService}. One thread takes the jobs in order and coalesces the ones
+ * with the same filter and image size into a micro-batch: after the first job, it waits up to {@code window} for more
+ * (at most {@code maxBatch}). Jobs of other sizes are kept for the next batches.
+ *
+ * Every batch runs as one kernel of the backend: the black and white filter over the images one after the other, and
+ * the blur filter with 3 channels per image. The kernels and their arrays are built and warmed up once per filter,
+ * size and batch size, and kept (at most {@code MAX_SLOTS}, least recently used first out), so requests do not
+ * rebuild task schedules or reallocate arrays. The kernels read their inputs on every execution (see
+ * {@link ComputeBackend}), so a slot can be reused by any batch of its size.
+ *
+ * {@link #close()} stops the engine: the jobs still queued, and the ones submitted later, fail with a
+ * {@link RejectedExecutionException}.
+ */
+public class BatchingEngine implements AutoCloseable {
+
+    private static final int MAX_SLOTS = 32;
+
+    public enum Filter {
+        BNW,
+        BLUR
+    }
+
+    /**
+     * An image to filter, in place: ARGB pixels, row-major.
+     */
+    public static final class Job {
+        private final String key;
+        private final Filter filter;
+        private final int filterWidth;
+        private final int width;
+        private final int height;
+        private final int[] pixels;
+        private final CompletableFuture<int[]> result = new CompletableFuture<>();
+        private long enqueued;
+
+        Job(Filter filter, int filterWidth, int width, int height, int[] pixels) {
+            this.filter = filter;
+            this.filterWidth = filterWidth;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+            this.key = filter + "/" + filterWidth + "/" + width + "x" + height;
+        }
+    }
+
+    private final ComputeBackend backend;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final int maxQueue;
+    private final ServiceMetrics metrics;
+
+    private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    // Only used by the engine thread
+    private final ArrayDeque<Job> deferred = new ArrayDeque<>();
+    private final List<Job> batch;
+    private final LinkedHashMap<String, Slot> slots = new LinkedHashMap<String, Slot>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Slot> eldest) {
+            return size() > MAX_SLOTS;
+        }
+    };
+
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param windowMicros
+     *            time the engine waits for more jobs of the same size after the first one (0: only the jobs already
+     *            queued are batched).
+     * @param maxQueue
+     *            jobs waiting beyond this are rejected.
+     */
+    public BatchingEngine(ComputeBackend backend, int maxBatch, long windowMicros, int maxQueue, ServiceMetrics metrics) {
+        this.backend = backend;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxQueue = maxQueue;
+        this.metrics = metrics;
+        this.batch = new ArrayList<>(this.maxBatch);
+        thread = new Thread(this::run, "batching-engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues an image. The future completes with {@code pixels} once filtered, or fails with a
+     * {@link RejectedExecutionException} if the queue is full.
+     */
+    public CompletableFuture<int[]> submit(Filter filter, int filterWidth, int width, int height, int[] pixels) {
+        Job job = new Job(filter, filterWidth, width, height, pixels);
+        if (!running) {
+            job.result.completeExceptionally(new RejectedExecutionException("Engine closed"));
+            return job.result;
+        }
+        int queued = depth.incrementAndGet();
+        if (queued > maxQueue) {
+            depth.decrementAndGet();
+            metrics.recordRejected();
+            job.result.completeExceptionally(new RejectedExecutionException("Queue full: " + maxQueue + " jobs"));
+            return job.result;
+        }
+        metrics.recordQueueDepth(queued);
+        job.enqueued = System.nanoTime();
+        queue.add(job);
+        if (!running) {
+            // Closed while queuing: the engine thread may not see the job
+            rejectQueued();
+        }
+        return job.result;
+    }
+
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                Job first = deferred.isEmpty() ? queue.poll(100, TimeUnit.MILLISECONDS) : deferred.poll();
+                if (first == null) {
+                    continue;
+                }
+                collectBatch(first);
+                runBatch();
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } finally {
+            // Jobs of a batch interrupted while it was collected, kept for later batches, or still queued
+            for (Job job : batch) {
+                if (!job.result.isDone()) {
+                    reject(job);
+                }
+            }
+            for (Job job : deferred) {
+                reject(job);
+            }
+            deferred.clear();
+            rejectQueued();
+        }
+    }
+
+    private void collectBatch(Job first) throws InterruptedException {
+        batch.clear();
+        batch.add(first);
+        for (Iterator<Job> it = deferred.iterator(); it.hasNext() && batch.size() < maxBatch;) {
+            Job job = it.next();
+            if (job.key.equals(first.key)) {
+                it.remove();
+                batch.add(job);
+            }
+        }
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatch) {
+            Job job = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (job == null) {
+                return;
+            }
+            if (job.key.equals(first.key)) {
+                batch.add(job);
+            } else {
+                deferred.add(job);
+            }
+        }
+    }
+
+    private void runBatch() {
+        long start = System.nanoTime();
+        for (Job job : batch) {
+            depth.decrementAndGet();
+            metrics.recordQueueWait(start - job.enqueued);
+        }
+        try {
+            Slot slot = slots.get(batch.get(0).key + "/" + batch.size());
+            if (slot == null) {
+                slot = new Slot(batch.get(0), batch.size());
+                slots.put(batch.get(0).key + "/" + batch.size(), slot);
+            }
+            slot.run(batch);
+            metrics.recordBatch(batch.size(), System.nanoTime() - start);
+            for (Job job : batch) {
+                job.result.complete(job.pixels);
+            }
+        } catch (RuntimeException e) {
+            for (Job job : batch) {
+                job.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Kernel and arrays for a filter, image size and batch size.
+     */
+    private final class Slot {
+        private final Filter filter;
+        private final int width;
+        private final int height;
+        private final int[] pixels;
+        private final int[][] channels;
+        private final int[][] outputs;
+        private final Kernel kernel;
+
+        Slot(Job job, int batchSize) {
+            filter = job.filter;
+            width = job.width;
+            height = job.height;
+            int size = width * height;
+            if (filter == Filter.BNW) {
+                // The filter is per pixel: the images are processed as one
+                pixels = new int[batchSize * size];
+                channels = null;
+                outputs = null;
+                kernel = backend.grayscale(pixels, batchSize * height, width);
+            } else {
+                pixels = null;
+                channels = new int[3 * batchSize][size];
+                outputs = new int[3 * batchSize][size];
+                // Column-major channels, as in BlurFilter
+                kernel = backend.blur(channels, outputs, width, height, BlurFilter.boxFilter(job.filterWidth), job.filterWidth);
+            }
+            // Warm up: TornadoVM compiles the kernel on the first execution
+            kernel.execute();
+        }
+
+        void run(List<Job> jobs) {
+            int size = width * height;
+            if (filter == Filter.BNW) {
+                for (int k = 0; k < jobs.size(); k++) {
+                    System.arraycopy(jobs.get(k).pixels, 0, pixels, k * size, size);
+                }
+                kernel.execute();
+                for (int k = 0; k < jobs.size(); k++) {
+                    System.arraycopy(pixels, k * size, jobs.get(k).pixels, 0, size);
+                }
+                return;
+            }
+            for (int k = 0; k < jobs.size(); k++) {
+                int[] image = jobs.get(k).pixels;
+                int[] red = channels[3 * k];
+                int[] green = channels[3 * k + 1];
+                int[] blue = channels[3 * k + 2];
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int rgb = image[y * width + x];
+                        red[x * height + y] = (rgb >> 16) & 0xFF;
+                        green[x * height + y] = (rgb >> 8) & 0xFF;
+                        blue[x * height + y] = rgb & 0xFF;
+                    }
+                }
+            }
+            kernel.execute();
+            for (int k = 0; k < jobs.size(); k++) {
+                int[] image = jobs.get(k).pixels;
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int alpha = image[y * width + x] & 0xFF000000;
+                        image[y * width + x] = alpha | outputs[3 * k][x * height + y] << 16 | outputs[3 * k + 1][x * height + y] << 8 | outputs[3 * k + 2][x * height + y];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the engine thread, after the batch it is running, and fails the jobs that were not run.
+     */
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void rejectQueued() {
+        Job job;
+        while ((job = queue.poll()) != null) {
+            reject(job);
+        }
+    }
+
+    private void reject(Job job) {
+        depth.decrementAndGet();
+        job.result.completeExceptionally(new RejectedExecutionException("Engine closed"));
+    }
+}
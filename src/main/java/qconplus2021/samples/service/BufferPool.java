@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.service;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Pool of {@code int[]} pixel buffers, by length. At most {@code maxPerSize} free buffers are kept per length, and at
+ * most {@code maxBytes} in all: a release over that budget leaves the free buffers of the least recently used lengths
+ * to the garbage collector first, so clients sending many image sizes cannot make the pool grow without limit.
+ */
+public class BufferPool {
+
+    private final int maxPerSize;
+    private final long maxBytes;
+    // Free buffers by length, least recently used length first
+    private final LinkedHashMap<Integer, ArrayDeque<int[]>> free = new LinkedHashMap<>(16, 0.75f, true);
+    private long freeBytes;
+
+    public BufferPool(int maxPerSize, long maxBytes) {
+        this.maxPerSize = maxPerSize;
+        this.maxBytes = maxBytes;
+    }
+
+    public int[] acquire(int length) {
+        int[] buffer = poll(length);
+        return buffer != null ? buffer : new int[length];
+    }
+
+    private synchronized int[] poll(int length) {
+        ArrayDeque<int[]> queue = free.get(length);
+        if (queue == null) {
+            return null;
+        }
+        int[] buffer = queue.poll();
+        if (queue.isEmpty()) {
+            free.remove(length);
+        }
+        freeBytes -= bytes(buffer);
+        return buffer;
+    }
+
+    public synchronized void release(int[] buffer) {
+        long size = bytes(buffer);
+        if (size > maxBytes) {
+            return;
+        }
+        ArrayDeque<int[]> queue = free.computeIfAbsent(buffer.length, length -> new ArrayDeque<>());
+        if (queue.size() >= maxPerSize) {
+            return;
+        }
+        queue.push(buffer);
+        freeBytes += size;
+        // The length just released is the most recently used: others go first
+        Iterator<ArrayDeque<int[]>> lengths = free.values().iterator();
+        while (freeBytes > maxBytes) {
+            ArrayDeque<int[]> eldest = lengths.next();
+            while (freeBytes > maxBytes && !eldest.isEmpty()) {
+                freeBytes -= bytes(eldest.poll());
+            }
+            if (eldest.isEmpty()) {
+                lengths.remove();
+            }
+        }
+    }
+
+    private static long bytes(int[] buffer) {
+        return (long) buffer.length * Integer.BYTES;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import qconplus2021.samples.BlurFilter;
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.backend.Backends;
+import qconplus2021.samples.backend.ComputeBackend;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * HTTP service for the black and white and blur filters, with the JDK {@link HttpServer}. Requests are processed by a
+ * shared {@link BatchingEngine}.
+ *
+ * POST /filter?name=bnw|blur[&filterWidth=N][&format=png|jpg]: the body is the image (any format ImageIO reads), the
+ * response the filtered image (default PNG). {@code filterWidth} is the width of the blur filter (odd, default 31).
+ *
+ * GET /metrics: request, queue-depth, batch and latency metrics, as text.
+ *
+ * How to run?
+ *
+ * <code>
+ * tornado qconplus2021.samples.service.ImageService --<tornado|tornadoContext|mt|seq|auto> [options]
+ * </code>
+ *
+ * --port=N: port (default 8080)
+ * --threads=N: threads handling the connections (default 2 x processors). See the service-jdk21 module for a version
+ *              with a virtual thread per connection.
+ * --batch=N: maximum images per batch (default 8)
+ * --window=N: microseconds the engine waits for more images of the same size (default 2000)
+ * --queue=N: maximum images waiting; more requests get 503 (default 256). Requests are counted from their arrival:
+ *            with N + batch requests in flight, the next ones get 503 before their body is read.
+ * --maxBytes=N: largest request body, in bytes; larger ones get 413 (default 67108864). The Content-Length is checked
+ *               first, and the body is decoded as it is read, without a copy, up to that size.
+ * --maxPixels=N: largest image accepted, in pixels; larger ones get 413 before they are decoded (default 16777216,
+ *                e.g. 4096x4096). Every image size gets its own buffers and kernels in the engine.
+ *
+ * The memory held by requests is bounded by (queue + batch) x (maxBytes + 4 x maxPixels), plus the free pixel buffers
+ * (at most {@code POOL_BYTES}).
+ */
+public class ImageService {
+
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.of(Implementation.SEQUENTIAL, Implementation.MT, Implementation.TORNADO_LOOP, Implementation.TORNADO_KERNEL, Implementation.AUTO);
+
+    private static final int MAX_FILTER_WIDTH = 63;
+
+    public static final long DEFAULT_MAX_PIXELS = 4096 * 4096;
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+    public static final int DEFAULT_MAX_REQUESTS = 256;
+
+    // Free pixel buffers kept between requests, for all image sizes
+    private static final long POOL_BYTES = 256L << 20;
+
+    private final BatchingEngine engine;
+    private final BufferPool pool;
+    private final ServiceMetrics metrics;
+    private final long maxPixels;
+    private final long maxBytes;
+    private final int maxRequests;
+    // Requests in flight: from the arrival of the request to its response
+    private final Semaphore requests;
+
+    public ImageService(BatchingEngine engine, BufferPool pool, ServiceMetrics metrics) {
+        this(engine, pool, metrics, DEFAULT_MAX_PIXELS, DEFAULT_MAX_BYTES, DEFAULT_MAX_REQUESTS);
+    }
+
+    public ImageService(BatchingEngine engine, BufferPool pool, ServiceMetrics metrics, long maxPixels, long maxBytes, int maxRequests) {
+        this.engine = engine;
+        this.pool = pool;
+        this.metrics = metrics;
+        this.maxPixels = maxPixels;
+        this.maxBytes = maxBytes;
+        this.maxRequests = maxRequests;
+        this.requests = new Semaphore(maxRequests);
+    }
+
+    public HttpServer start(InetSocketAddress address, Executor executor) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/filter", this::filter);
+        server.createContext("/metrics", this::metrics);
+        server.setExecutor(executor);
+        server.start();
+        System.out.println("Listening on http://" + address.getHostString() + ":" + server.getAddress().getPort());
+        return server;
+    }
+
+    private void filter(HttpExchange exchange) throws IOException {
+        if (!requests.tryAcquire()) {
+            send(exchange, 503, "Too many requests: " + maxRequests + " in flight");
+            return;
+        }
+        try {
+            filterAdmitted(exchange);
+        } finally {
+            requests.release();
+        }
+    }
+
+    private void filterAdmitted(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, "Use POST");
+                return;
+            }
+            Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+            BatchingEngine.Filter filter;
+            try {
+                filter = BatchingEngine.Filter.valueOf(parameters.getOrDefault("name", "").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "Unknown filter, use name=bnw|blur");
+                return;
+            }
+            int filterWidth = Integer.parseInt(parameters.getOrDefault("filterWidth", String.valueOf(BlurFilter.FILTER_WIDTH)));
+            String format = parameters.getOrDefault("format", "png");
+            if (filterWidth % 2 == 0 || filterWidth < 1 || filterWidth > MAX_FILTER_WIDTH) {
+                send(exchange, 400, "filterWidth must be odd, between 1 and " + MAX_FILTER_WIDTH);
+                return;
+            }
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null && Long.parseLong(contentLength) > maxBytes) {
+                send(exchange, 413, "Body too large: " + contentLength + " bytes, max " + maxBytes);
+                return;
+            }
+            BufferedImage image;
+            try (ImageInputStream input = ImageIO.createImageInputStream(new LimitedInputStream(exchange.getRequestBody(), maxBytes))) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (!readers.hasNext()) {
+                    send(exchange, 400, "Unsupported image format");
+                    return;
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    // The size comes from the header: the image is only decoded if it is accepted
+                    long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                    if (pixels > maxPixels) {
+                        send(exchange, 413, "Image too large: " + pixels + " pixels, max " + maxPixels);
+                        return;
+                    }
+                    image = reader.read(0);
+                } finally {
+                    reader.dispose();
+                }
+            }
+
+            long start = System.nanoTime();
+            int w = image.getWidth();
+            int h = image.getHeight();
+            int[] pixels = pool.acquire(w * h);
+            try {
+                image.getRGB(0, 0, w, h, pixels, 0, w);
+                engine.submit(filter, filterWidth, w, h, pixels).get();
+                image.setRGB(0, 0, w, h, pixels, 0, w);
+            } finally {
+                pool.release(pixels);
+            }
+            metrics.recordRequest(System.nanoTime() - start);
+            byte[] response = encode(image, format);
+            exchange.getResponseHeaders().set("Content-Type", "image/" + format);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(response);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                send(exchange, 503, e.getCause().getMessage());
+            } else {
+                metrics.recordFailed();
+                send(exchange, 500, String.valueOf(e.getCause()));
+            }
+        } catch (IOException e) {
+            // Image readers may wrap the failure of the body
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof BodyTooLargeException) {
+                    send(exchange, 413, cause.getMessage());
+                    return;
+                }
+            }
+            throw e;
+        } catch (NumberFormatException e) {
+            send(exchange, 400, "Invalid number: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "Interrupted");
+        } catch (RuntimeException e) {
+            metrics.recordFailed();
+            send(exchange, 500, String.valueOf(e));
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        send(exchange, 200, metrics.format(engine.getQueueDepth()));
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        BufferedImage output = image;
+        if (image.getColorModel().hasAlpha() && !format.equals("png")) {
+            // JPEG writers do not support alpha
+            output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            output.getGraphics().drawImage(image, 0, 0, null);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (!ImageIO.write(output, format, bytes)) {
+            throw new IllegalArgumentException("Unsupported output format: " + format);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final class BodyTooLargeException extends IOException {
+        BodyTooLargeException(long maxBytes) {
+            super("Body too large: more than " + maxBytes + " bytes");
+        }
+    }
+
+    /**
+     * Request body that fails with a {@link BodyTooLargeException} once more than {@code maxBytes} are read.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        private final long maxBytes;
+
+        LimitedInputStream(InputStream input, long maxBytes) {
+            super(input);
+            this.remaining = maxBytes;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                consume(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            // One byte past the limit, to tell a body of exactly maxBytes from a larger one
+            int n = super.read(buffer, offset, (int) Math.min(length, remaining + 1));
+            if (n > 0) {
+                consume(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining + 1));
+            consume(skipped);
+            return skipped;
+        }
+
+        private void consume(long n) throws BodyTooLargeException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new BodyTooLargeException(maxBytes);
+            }
+        }
+    }
+
+    private static Map<String, String> parameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+
+    /**
+     * Command line options of the service.
+     */
+    public static class Options {
+        private int port = 8080;
+        private int threads = 2 * Runtime.getRuntime().availableProcessors();
+        private int maxBatch = 8;
+        private long windowMicros = 2000;
+        private int maxQueue = 256;
+        private long maxPixels = DEFAULT_MAX_PIXELS;
+        private long maxBytes = DEFAULT_MAX_BYTES;
+        private Implementation implementation = Implementation.TORNADO_LOOP;
+
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--port=")) {
+                    options.port = Integer.parseInt(value);
+                } else if (arg.startsWith("--threads=")) {
+                    options.threads = Integer.parseInt(value);
+                } else if (arg.startsWith("--batch=")) {
+                    options.maxBatch = Integer.parseInt(value);
+                } else if (arg.startsWith("--window=")) {
+                    options.windowMicros = Long.parseLong(value);
+                } else if (arg.startsWith("--queue=")) {
+                    options.maxQueue = Integer.parseInt(value);
+                } else if (arg.startsWith("--maxBytes=")) {
+                    options.maxBytes = Long.parseLong(value);
+                } else if (arg.startsWith("--maxPixels=")) {
+                    options.maxPixels = Long.parseLong(value);
+                } else if (arg.startsWith("--")) {
+                    options.implementation = Implementation.fromOption(arg.substring(2));
+                    if (options.implementation == null || !SUPPORTED.contains(options.implementation)) {
+                        System.out.println("Usage: --<implementation> [--port=N] [--threads=N] [--batch=N] [--window=MICROSECONDS] [--queue=N] [--maxBytes=N] [--maxPixels=N]");
+                        Implementation.printUsage(SUPPORTED);
+                        System.exit(-1);
+                    }
+                }
+            }
+            return options;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public ImageService createService() {
+            ComputeBackend backend = Backends.get(implementation);
+            System.out.println(backend.getName() + ": " + backend.getDevice() + " -- batches of up to " + maxBatch + " images, window " + windowMicros + " us");
+            ServiceMetrics metrics = new ServiceMetrics();
+            BatchingEngine engine = new BatchingEngine(backend, maxBatch, windowMicros, maxQueue, metrics);
+            // Enough free buffers for the images in flight, within the pool budget
+            return new ImageService(engine, new BufferPool(maxBatch + threads, POOL_BYTES), metrics, maxPixels, maxBytes, maxQueue + maxBatch);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = Options.parse(args);
+        ImageService service = options.createService();
+        service.start(new InetSocketAddress(options.getPort()), Executors.newFixedThreadPool(options.getThreads()));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.service;
+
+import qconplus2021.samples.harness.Histogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for the {@link ImageService}, over the loopback interface: {@code clients} concurrent connections send
+ * {@code requests} images each, and the client latency percentiles, the throughput and the metrics of the service are
+ * printed.
+ *
+ * <code>
+ * java qconplus2021.samples.service.LoadClient [--port=8080] [--filter=bnw|blur] [--image=/tmp/image.jpg] [--clients=16] [--requests=20]
+ * </code>
+ */
+public class LoadClient {
+
+    public static void main(String[] args) throws Exception {
+        int port = 8080;
+        String filter = "bnw";
+        String imageFile = "/tmp/image.jpg";
+        int clients = 16;
+        int requests = 20;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(value);
+            } else if (arg.startsWith("--filter=")) {
+                filter = value;
+            } else if (arg.startsWith("--image=")) {
+                imageFile = value;
+            } else if (arg.startsWith("--clients=")) {
+                clients = Integer.parseInt(value);
+            } else if (arg.startsWith("--requests=")) {
+                requests = Integer.parseInt(value);
+            }
+        }
+        byte[] image;
+        try {
+            image = Files.readAllBytes(Paths.get(imageFile));
+        } catch (IOException e) {
+            throw new RuntimeException("Input file not found: " + imageFile);
+        }
+        String base = "http://127.0.0.1:" + port;
+        URL url = new URL(base + "/filter?name=" + filter + "&format=jpg");
+
+        Histogram latency = new Histogram();
+        AtomicLong failed = new AtomicLong();
+        int requestsPerClient = requests;
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            executor.execute(() -> {
+                for (int i = 0; i < requestsPerClient; i++) {
+                    long requestStart = System.nanoTime();
+                    try {
+                        int status = post(url, image);
+                        if (status != 200) {
+                            failed.incrementAndGet();
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        continue;
+                    }
+                    long time = System.nanoTime() - requestStart;
+                    synchronized (latency) {
+                        latency.record(time);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) * 1e-9;
+
+        System.out.println(String.format(Locale.ROOT, "%d clients x %d requests: %d ok, %d failed in %.3f s -- %.1f requests/s", clients, requests, latency.getTotalCount(), failed.get(), seconds,
+                latency.getTotalCount() / seconds));
+        System.out.println(String.format(Locale.ROOT, "client latency (ms): min %.3f, median %.3f, p90 %.3f, p99 %.3f, max %.3f", latency.getMin() * 1e-6, latency.getValueAtPercentile(50) * 1e-6,
+                latency.getValueAtPercentile(90) * 1e-6, latency.getValueAtPercentile(99) * 1e-6, latency.getMax() * 1e-6));
+        System.out.println("Service metrics:");
+        System.out.print(get(new URL(base + "/metrics")));
+    }
+
+    private static int post(URL url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream stream = connection.getOutputStream()) {
+            stream.write(body);
+        }
+        int status = connection.getResponseCode();
+        try (InputStream stream = status == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            read(stream);
+        }
+        return status;
+    }
+
+    private static String get(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try (InputStream stream = connection.getInputStream()) {
+            return new String(read(stream), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] read(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (stream == null) {
+            return bytes.toByteArray();
+        }
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = stream.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.service;
+
+import qconplus2021.samples.harness.Histogram;
+
+import java.util.Locale;
+
+/**
+ * Counters and latency histograms of the {@link ImageService}, served as text by {@code GET /metrics}. Times are in
+ * nanoseconds.
+ */
+public class ServiceMetrics {
+
+    private long requests;
+    private long rejected;
+    private long failed;
+    private long batches;
+    private long batchedJobs;
+    private int maxBatch;
+    private int maxQueueDepth;
+    private final Histogram latency = new Histogram();
+    private final Histogram queueWait = new Histogram();
+    private final Histogram batchCompute = new Histogram();
+
+    /**
+     * A request served, from the end of its upload to the start of its response.
+     */
+    public synchronized void recordRequest(long latencyNanos) {
+        requests++;
+        latency.record(latencyNanos);
+    }
+
+    public synchronized void recordRejected() {
+        rejected++;
+    }
+
+    public synchronized void recordFailed() {
+        failed++;
+    }
+
+    public synchronized void recordQueueDepth(int depth) {
+        maxQueueDepth = Math.max(maxQueueDepth, depth);
+    }
+
+    public synchronized void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    public synchronized void recordBatch(int size, long computeNanos) {
+        batches++;
+        batchedJobs += size;
+        maxBatch = Math.max(maxBatch, size);
+        batchCompute.record(computeNanos);
+    }
+
+    public synchronized String format(int queueDepth) {
+        StringBuilder text = new StringBuilder();
+        line(text, "requests_total", requests);
+        line(text, "requests_rejected_total", rejected);
+        line(text, "requests_failed_total", failed);
+        line(text, "queue_depth", queueDepth);
+        line(text, "queue_depth_max", maxQueueDepth);
+        line(text, "batches_total", batches);
+        line(text, "batch_size_mean", batches == 0 ? 0 : (double) batchedJobs / batches);
+        line(text, "batch_size_max", maxBatch);
+        histogram(text, "request_latency", latency);
+        histogram(text, "queue_wait", queueWait);
+        histogram(text, "batch_compute", batchCompute);
+        return text.toString();
+    }
+
+    private static void line(StringBuilder text, String name, double value) {
+        text.append(String.format(Locale.ROOT, value == Math.rint(value) ? "%s %.0f%n" : "%s %.3f%n", name, value));
+    }
+
+    private static void histogram(StringBuilder text, String name, Histogram histogram) {
+        line(text, name + "_count", histogram.getTotalCount());
+        line(text, name + "_ms_mean", histogram.getMean() * 1e-6);
+        line(text, name + "_ms_p50", histogram.getValueAtPercentile(50) * 1e-6);
+        line(text, name + "_ms_p90", histogram.getValueAtPercentile(90) * 1e-6);
+        line(text, name + "_ms_p99", histogram.getValueAtPercentile(99) * 1e-6);
+        line(text, name + "_ms_max", histogram.getMax() * 1e-6);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.stream;
+
+import qconplus2021.samples.BlurFilter;
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.backend.Backends;
+import qconplus2021.samples.backend.Kernel;
+
+/**
+ * {@link BlurFilter} over raw RGB frames, with the same box filter.
+ */
+public class BlurFrameProcessor implements FrameProcessor {
+
+    private final int width;
+    private final int height;
+    private final int[][] channels;
+    private final int[][] outputs;
+    private final Kernel kernel;
+
+    public BlurFrameProcessor(Implementation implementation, int width, int height) {
+        this.width = width;
+        this.height = height;
+        channels = new int[3][width * height];
+        outputs = new int[3][width * height];
+        kernel = Backends.get(implementation).blur(channels, outputs, width, height, BlurFilter.boxFilter(BlurFilter.FILTER_WIDTH), BlurFilter.FILTER_WIDTH);
+    }
+
+    @Override
+    public void process(byte[] frame) {
+        // Channels are column-major, as in BlurFilter, so the results are the same
+        for (int y = 0, j = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, j += 3) {
+                channels[0][x * height + y] = frame[j] & 0xFF;
+                channels[1][x * height + y] = frame[j + 1] & 0xFF;
+                channels[2][x * height + y] = frame[j + 2] & 0xFF;
+            }
+        }
+        kernel.execute();
+        for (int y = 0, j = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, j += 3) {
+                frame[j] = (byte) outputs[0][x * height + y];
+                frame[j + 1] = (byte) outputs[1][x * height + y];
+                frame[j + 2] = (byte) outputs[2][x * height + y];
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.stream;
+
+import qconplus2021.samples.harness.Histogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Processes a stream of fixed-size frames with three threads and a ring of preallocated buffers:
+ *
+ * <pre>
+ *   free --> reader --> ready --> compute --> done --> writer --> free
+ * </pre>
+ *
+ * With the default ring of 3 buffers, frame N+1 is read while frame N is processed and frame N-1 is written. Buffers
+ * are only passed between threads (the queues are array-based), so no memory is allocated per frame.
+ *
+ * When all buffers are in use the reader applies backpressure: it blocks until the writer returns one, or, in
+ * {@code dropWhenFull} mode (live sources that cannot be paused), it reads the frame into a scratch buffer and drops it.
+ *
+ * The latency of a frame is the time from the end of its read to the end of its write.
+ *
+ * If a thread fails, the pipeline stops instead of waiting for the end of the input (a live source may never end): the
+ * reader is interrupted and the input closed, the frames already read are dropped, and {@link #run} throws the first
+ * failure once the threads are done. A reader blocked in a read that closing the input does not interrupt is left
+ * behind (it is a daemon thread) after {@code STOP_TIMEOUT_MILLIS}.
+ */
+public class FramePipeline {
+
+    private static final class Frame {
+        final byte[] data;
+        long arrival;
+
+        Frame(int size) {
+            data = new byte[size];
+        }
+    }
+
+    // End of the stream, passed through the queues after the last frame
+    private static final Frame END = new Frame(0);
+
+    // Time given to the reader to notice a stop
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private final FrameProcessor processor;
+    private final int frameSize;
+    private final int ringSize;
+    private final boolean dropWhenFull;
+    private final long sourceInterval;
+
+    /**
+     * @param frameSize
+     *            bytes per frame.
+     * @param ringSize
+     *            number of frame buffers (at least 2).
+     * @param dropWhenFull
+     *            drops frames instead of blocking the source when all buffers are in use.
+     * @param sourceFps
+     *            rate at which the reader delivers frames, to replay a recorded stream as a live one (0: as fast as
+     *            possible).
+     */
+    public FramePipeline(FrameProcessor processor, int frameSize, int ringSize, boolean dropWhenFull, double sourceFps) {
+        if (ringSize < 2) {
+            throw new IllegalArgumentException("The ring needs at least 2 buffers: " + ringSize);
+        }
+        this.processor = processor;
+        this.frameSize = frameSize;
+        this.ringSize = ringSize;
+        this.dropWhenFull = dropWhenFull;
+        this.sourceInterval = sourceFps > 0 ? (long) (1e9 / sourceFps) : 0;
+    }
+
+    public Stats run(InputStream input, OutputStream output) {
+        BlockingQueue<Frame> free = new ArrayBlockingQueue<>(ringSize);
+        // One more slot for END
+        BlockingQueue<Frame> ready = new ArrayBlockingQueue<>(ringSize + 1);
+        BlockingQueue<Frame> done = new ArrayBlockingQueue<>(ringSize + 1);
+        for (int i = 0; i < ringSize; i++) {
+            free.add(new Frame(frameSize));
+        }
+        Stats stats = new Stats();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        Thread reader = new Thread(() -> {
+            try {
+                read(input, free, ready, stats, stopped);
+            } catch (Throwable e) {
+                // After a stop, the failure that caused it is already recorded
+                failure.compareAndSet(null, e);
+            } finally {
+                ready.offer(END);
+            }
+        }, "frame-reader");
+        reader.setDaemon(true);
+        Runnable stop = () -> {
+            if (stopped.compareAndSet(false, true)) {
+                reader.interrupt();
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // The reader still sees the stop flag or the interrupt
+                }
+            }
+        };
+        Thread writer = new Thread(() -> {
+            try {
+                write(output, done, free, stats);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                stop.run();
+            }
+        }, "frame-writer");
+
+        stats.start = System.nanoTime();
+        reader.start();
+        writer.start();
+        try {
+            compute(ready, done, stats);
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            stop.run();
+        } finally {
+            done.offer(END);
+        }
+        join(writer, 0);
+        join(reader, stopped.get() ? STOP_TIMEOUT_MILLIS : 0);
+        stats.end = System.nanoTime();
+
+        Throwable error = failure.get();
+        if (error != null) {
+            throw new RuntimeException("Frame stream failed: " + error.getMessage(), error);
+        }
+        return stats;
+    }
+
+    private void read(InputStream input, BlockingQueue<Frame> free, BlockingQueue<Frame> ready, Stats stats, AtomicBoolean stopped) throws IOException, InterruptedException {
+        byte[] scratch = dropWhenFull ? new byte[frameSize] : null;
+        long next = System.nanoTime();
+        while (!stopped.get()) {
+            if (sourceInterval > 0) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                }
+                next += sourceInterval;
+            }
+            Frame frame = free.poll();
+            if (frame == null) {
+                if (dropWhenFull) {
+                    if (!readFrame(input, scratch, stats)) {
+                        return;
+                    }
+                    stats.dropped++;
+                    continue;
+                }
+                long start = System.nanoTime();
+                frame = free.take();
+                stats.backpressure += System.nanoTime() - start;
+            }
+            if (!readFrame(input, frame.data, stats)) {
+                free.add(frame);
+                return;
+            }
+            frame.arrival = System.nanoTime();
+            stats.read++;
+            ready.put(frame);
+        }
+    }
+
+    /**
+     * Reads a whole frame. Returns false at the end of the stream; an incomplete last frame is discarded.
+     */
+    private static boolean readFrame(InputStream input, byte[] buffer, Stats stats) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int n = input.read(buffer, offset, buffer.length - offset);
+            if (n < 0) {
+                if (offset > 0) {
+                    stats.truncatedBytes = offset;
+                }
+                return false;
+            }
+            offset += n;
+        }
+        return true;
+    }
+
+    private void compute(BlockingQueue<Frame> ready, BlockingQueue<Frame> done, Stats stats) throws InterruptedException {
+        while (true) {
+            Frame frame = ready.take();
+            if (frame == END) {
+                return;
+            }
+            long start = System.nanoTime();
+            processor.process(frame.data);
+            stats.compute.record(System.nanoTime() - start);
+            done.put(frame);
+        }
+    }
+
+    private static void write(OutputStream output, BlockingQueue<Frame> done, BlockingQueue<Frame> free, Stats stats) throws IOException, InterruptedException {
+        while (true) {
+            Frame frame = done.take();
+            if (frame == END) {
+                output.flush();
+                return;
+            }
+            output.write(frame.data);
+            stats.latency.record(System.nanoTime() - frame.arrival);
+            stats.written++;
+            free.put(frame);
+        }
+    }
+
+    /**
+     * Waits for {@code thread} to finish, at most {@code millis} (0: without limit).
+     */
+    private static void join(Thread thread, long millis) {
+        try {
+            thread.join(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counters and latencies of a run. Every field is written by one thread and read after the run.
+     */
+    public static class Stats {
+
+        private long start;
+        private long end;
+        private long read;
+        private long written;
+        private long dropped;
+        private long backpressure;
+        private int truncatedBytes;
+        private final Histogram compute = new Histogram();
+        private final Histogram latency = new Histogram();
+
+        public long getFramesRead() {
+            return read;
+        }
+
+        public long getFramesWritten() {
+            return written;
+        }
+
+        public long getFramesDropped() {
+            return dropped;
+        }
+
+        /**
+         * Time the reader waited for a free buffer, in nanoseconds.
+         */
+        public long getBackpressureTime() {
+            return backpressure;
+        }
+
+        /**
+         * Sustained throughput: frames written per second over the whole run.
+         */
+        public double getFps() {
+            return end > start ? written * 1e9 / (end - start) : 0;
+        }
+
+        public Histogram getComputeTime() {
+            return compute;
+        }
+
+        public Histogram getLatency() {
+            return latency;
+        }
+
+        public void print(PrintStream stream) {
+            stream.println(String.format(Locale.ROOT, "frames: %d read, %d written, %d dropped%s", read, written, dropped, //
+                    truncatedBytes > 0 ? ", incomplete last frame of " + truncatedBytes + " bytes discarded" : ""));
+            stream.println(String.format(Locale.ROOT, "elapsed: %.3f s, sustained: %.2f fps, backpressure: %.3f ms", (end - start) * 1e-9, getFps(), backpressure * 1e-6));
+            stream.println(String.format(Locale.ROOT, "%-8s %10s %10s %10s %10s %10s %10s", "ms", "min", "median", "p90", "p99", "max", "mean"));
+            printRow(stream, "compute", compute);
+            printRow(stream, "latency", latency);
+        }
+
+        private static void printRow(PrintStream stream, String label, Histogram histogram) {
+            stream.println(String.format(Locale.ROOT, "%-8s %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f", label, //
+                    histogram.getMin() * 1e-6, //
+                    histogram.getValueAtPercentile(50) * 1e-6, //
+                    histogram.getValueAtPercentile(90) * 1e-6, //
+                    histogram.getValueAtPercentile(99) * 1e-6, //
+                    histogram.getMax() * 1e-6, //
+                    histogram.getMean() * 1e-6));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.stream;
+
+/**
+ * Filter applied to every frame of a {@link FramePipeline}. Frames are raw RGB (3 bytes per pixel, row-major) and are
+ * processed in place. Implementations keep their working arrays and kernels for the whole stream: {@link #process}
+ * must not allocate.
+ */
+public interface FrameProcessor {
+
+    void process(byte[] frame);
+}
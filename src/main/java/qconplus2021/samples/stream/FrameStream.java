@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.stream;
+
+import qconplus2021.samples.Implementation;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Applies the {@code BnW} or blur filter to a stream of raw RGB frames (3 bytes per pixel, row-major, no header), e.g.
+ * recorded from a camera with {@code ffmpeg -f rawvideo -pix_fmt rgb24}. See {@link FramePipeline}.
+ *
+ * How to run?
+ *
+ * <code>
+ * tornado qconplus2021.samples.stream.FrameStream <input|-> <output|-> <width>x<height> --<tornado|tornadoContext|mt|seq|auto> [options]
+ * </code>
+ *
+ * {@code -} reads from the standard input or writes to the standard output (the messages and the report then go to
+ * the standard error).
+ *
+ * --filter=bnw|blur: filter to apply (default bnw)
+ * --ring=N: number of frame buffers (default 3)
+ * --drop: drops frames when all buffers are in use, instead of blocking the source
+ * --fps=N: replays the input at N frames per second, as a live source (default: as fast as possible)
+ */
+public class FrameStream {
+
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.of(Implementation.SEQUENTIAL, Implementation.MT, Implementation.TORNADO_LOOP, Implementation.TORNADO_KERNEL, Implementation.AUTO);
+
+    private static final String STANDARD_STREAM = "-";
+
+    private static void usage() {
+        System.out.println("Usage: <input|-> <output|-> <width>x<height> --<implementation> [--filter=bnw|blur] [--ring=N] [--drop] [--fps=N]");
+        Implementation.printUsage(SUPPORTED);
+        System.exit(-1);
+    }
+
+    public static void main(String[] args) {
+        String filter = "bnw";
+        int ring = 3;
+        boolean drop = false;
+        double fps = 0;
+        Implementation implementation = Implementation.TORNADO_LOOP;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--filter=")) {
+                filter = arg.substring("--filter=".length());
+            } else if (arg.startsWith("--ring=")) {
+                ring = Integer.parseInt(arg.substring("--ring=".length()));
+            } else if (arg.equals("--drop")) {
+                drop = true;
+            } else if (arg.startsWith("--fps=")) {
+                fps = Double.parseDouble(arg.substring("--fps=".length()));
+            } else if (arg.startsWith("--")) {
+                implementation = Implementation.fromOption(arg.substring(2));
+                if (implementation == null || !SUPPORTED.contains(implementation)) {
+                    usage();
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() != 3 || !positional.get(2).matches("\\d+x\\d+")) {
+            usage();
+        }
+        String[] size = positional.get(2).split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+
+        OutputStream output;
+        boolean toStandardOutput = positional.get(1).equals(STANDARD_STREAM);
+        if (toStandardOutput) {
+            output = new BufferedOutputStream(System.out);
+            // Messages of the backends must not end up in the frames
+            System.setOut(System.err);
+        } else {
+            output = create(positional.get(1));
+        }
+
+        FrameProcessor processor;
+        if (filter.equals("blur")) {
+            processor = new BlurFrameProcessor(implementation, width, height);
+        } else if (filter.equals("bnw")) {
+            processor = new GrayscaleFrameProcessor(implementation, width, height);
+        } else {
+            throw new IllegalArgumentException("Unknown filter: " + filter);
+        }
+
+        FramePipeline pipeline = new FramePipeline(processor, width * height * 3, ring, drop, fps);
+        FramePipeline.Stats stats;
+        try (InputStream input = open(positional.get(0)); OutputStream frames = output) {
+            stats = pipeline.run(input, frames);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot close the frame streams: " + e.getMessage());
+        }
+        stats.print(System.out);
+    }
+
+    private static InputStream open(String name) {
+        if (name.equals(STANDARD_STREAM)) {
+            return System.in;
+        }
+        try {
+            return new FileInputStream(name);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("Input file not found: " + name);
+        }
+    }
+
+    private static OutputStream create(String name) {
+        try {
+            return new FileOutputStream(name);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("Cannot write the output file: " + name);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.stream;
+
+import qconplus2021.samples.BnW;
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.backend.Backends;
+import qconplus2021.samples.backend.Kernel;
+
+/**
+ * {@link BnW} filter over raw RGB frames.
+ */
+public class GrayscaleFrameProcessor implements FrameProcessor {
+
+    private final int[] pixels;
+    private final Kernel kernel;
+
+    public GrayscaleFrameProcessor(Implementation implementation, int width, int height) {
+        pixels = new int[width * height];
+        // The filter is per pixel: the layout of the array does not matter
+        kernel = Backends.get(implementation).grayscale(pixels, height, width);
+    }
+
+    @Override
+    public void process(byte[] frame) {
+        for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+            pixels[i] = 0xFF000000 | (frame[j] & 0xFF) << 16 | (frame[j + 1] & 0xFF) << 8 | (frame[j + 2] & 0xFF);
+        }
+        kernel.execute();
+        for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+            byte gray = (byte) pixels[i];
+            frame[j] = gray;
+            frame[j + 1] = gray;
+            frame[j + 2] = gray;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.tornado;
+
+import qconplus2021.samples.backend.ComputeBackend;
+import uk.ac.manchester.tornado.api.common.TornadoDevice;
+import uk.ac.manchester.tornado.api.runtime.TornadoRuntime;
+
+/**
+ * Common part of the TornadoVM backends. Task schedules run on the default device, which can be changed with the
+ * TornadoVM flags (e.g., {@code -Ds0.t0.device=0:1}).
+ *
+ * The input images, channels and signals are streamed in on every execution, since the samples rewrite them between
+ * executions (e.g., every iteration of the runner, or every frame of a stream). The filters are copied once.
+ */
+abstract class TornadoBackend implements ComputeBackend {
+
+    // Tasks of the schedules with one task per channel ("blur", "blurFixed" and "rank")
+    private static final String[] CHANNEL_TASKS = { "red", "green", "blue" };
+
+    private String device;
+
+    /**
+     * True if the TornadoVM runtime is installed and has at least one device.
+     */
+    @Override
+    public boolean isAvailable() {
+        try {
+            getDevice();
+            return true;
+        } catch (Throwable e) {
+            // Running on a plain JVM
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized String getDevice() {
+        if (device == null) {
+            TornadoDevice defaultDevice = TornadoRuntime.getTornadoRuntime().getDriver(0).getDevice(0);
+            device = defaultDevice.toString();
+        }
+        return device;
+    }
+
+    static String channelTask(int channel) {
+        return channel < CHANNEL_TASKS.length ? CHANNEL_TASKS[channel] : "channel" + channel;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.tornado;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.backend.Kernel;
+import qconplus2021.samples.tuning.Autotuner;
+import qconplus2021.samples.tuning.TuningConfig;
+import uk.ac.manchester.tornado.api.GridScheduler;
+import uk.ac.manchester.tornado.api.KernelContext;
+import uk.ac.manchester.tornado.api.TaskSchedule;
+import uk.ac.manchester.tornado.api.WorkerGrid;
+import uk.ac.manchester.tornado.api.WorkerGrid1D;
+import uk.ac.manchester.tornado.api.WorkerGrid2D;
+
+/**
+ * TornadoVM backend with the Kernel API. The local work size is the one found by the {@link Autotuner} (see
+ * {@code -Dautotune=true}), if any.
+ */
+public class TornadoKernelBackend extends TornadoBackend {
+
+    @Override
+    public String getName() {
+        return "tornado-kernel";
+    }
+
+    @Override
+    public Implementation getImplementation() {
+        return Implementation.TORNADO_KERNEL;
+    }
+
+    @Override
+    public Kernel blur(int[][] channels, int[][] outputs, int numRows, int numCols, float[] filter, int filterWidth) {
+        KernelContext context = new KernelContext();
+        GridScheduler grid = new GridScheduler();
+        // This version might run slower, since thread block size can influence performance.
+        // TornadoVM implements a heuristic for thread block selection (available for loop-parallel API)
+        WorkerGrid2D worker = new WorkerGrid2D(numRows, numCols);
+        TaskSchedule schedule = new TaskSchedule("blur").streamIn((Object[]) channels);
+        for (int i = 0; i < channels.length; i++) {
+            grid.setWorkerGrid("blur." + channelTask(i), worker);
+            schedule.task(channelTask(i), TornadoKernels::blurWithContext, channels[i], outputs[i], numRows, numCols, filter, filterWidth, context);
+        }
+        schedule.streamOut((Object[]) outputs);
+        tune("blur.kernel", numRows, numCols, worker, schedule, grid);
+        return () -> schedule.execute(grid);
+    }
+
+    @Override
+    public Kernel blurFixedPoint(int[][] channels, int[][] outputs, int numRows, int numCols, short[] weights, int shift, int filterWidth) {
+        KernelContext context = new KernelContext();
+        GridScheduler grid = new GridScheduler();
+        WorkerGrid2D worker = new WorkerGrid2D(numRows, numCols);
+        TaskSchedule schedule = new TaskSchedule("blurFixed").streamIn((Object[]) channels);
+        for (int i = 0; i < channels.length; i++) {
+            grid.setWorkerGrid("blurFixed." + channelTask(i), worker);
+            schedule.task(channelTask(i), TornadoKernels::blurFixedPointWithContext, channels[i], outputs[i], numRows, numCols, weights, shift, filterWidth, context);
+        }
+        schedule.streamOut((Object[]) outputs);
+        tune("blurFixed.kernel", numRows, numCols, worker, schedule, grid);
+        return () -> schedule.execute(grid);
+    }
+
+    @Override
+    public Kernel rankFilter(int[][] channels, int[][] outputs, int numRows, int numCols, int radius, int rank) {
+        KernelContext context = new KernelContext();
+        GridScheduler grid = new GridScheduler();
+        WorkerGrid2D worker = new WorkerGrid2D(numRows, numCols);
+        TaskSchedule schedule = new TaskSchedule("rank").streamIn((Object[]) channels);
+        for (int i = 0; i < channels.length; i++) {
+            grid.setWorkerGrid("rank." + channelTask(i), worker);
+            schedule.task(channelTask(i), TornadoKernels::rankFilterWithContext, channels[i], outputs[i], numRows, numCols, radius, rank, context);
+        }
+        schedule.streamOut((Object[]) outputs);
+        tune("rank.kernel", numRows, numCols, worker, schedule, grid);
+        return () -> schedule.execute(grid);
+    }
+
+    @Override
+    public Kernel grayscale(int[] image, int w, int h) {
+        KernelContext context = new KernelContext();
+        GridScheduler grid = new GridScheduler();
+        WorkerGrid2D worker = new WorkerGrid2D(w, h);
+        grid.setWorkerGrid("s0.t0", worker);
+        TaskSchedule schedule = new TaskSchedule("s0") //
+                .streamIn(image) //
+                .task("t0", TornadoKernels::grayscaleWithContext, image, w, h, context) //
+                .streamOut(image);
+        if (!tune("bnw.kernel", w, h, worker, schedule, grid)) {
+            worker.setLocalWork(16, 16, 1);
+        }
+        return () -> schedule.execute(grid);
+    }
+
+    @Override
+    public Kernel edgeDetection(int[] image, int[] edges, int w, int h, float[] filter, int filterWidth) {
+        KernelContext context = new KernelContext();
+        GridScheduler grid = new GridScheduler();
+        // The kernel stages tiles of EDGE_TILE x EDGE_TILE pixels in local memory: the local size is fixed, not tuned
+        int tile = TornadoKernels.EDGE_TILE;
+        WorkerGrid2D worker = new WorkerGrid2D((w + tile - 1) / tile * tile, (h + tile - 1) / tile * tile);
+        worker.setLocalWork(tile, tile, 1);
+        grid.setWorkerGrid("s0.t0", worker);
+        TaskSchedule schedule = new TaskSchedule("s0") //
+                .streamIn(image) //
+                .task("t0", TornadoKernels::edgeDetectionWithContext, image, edges, w, h, filter, filterWidth, context) //
+                .streamOut(edges);
+        return () -> schedule.execute(grid);
+    }
+
+    @Override
+    public Kernel juliaSet(int size, float[] hue, float[] brightness) {
+        KernelContext context = new KernelContext();
+        GridScheduler grid = new GridScheduler();
+        WorkerGrid2D worker = new WorkerGrid2D(size, size);
+        grid.setWorkerGrid("s0.t0", worker);
+        TaskSchedule schedule = new TaskSchedule("s0") //
+                .task("t0", TornadoKernels::juliaSetWithContext, size, hue, brightness, context) //
+                .streamOut(hue, brightness);
+        tune("julia.kernel", size, size, worker, schedule, grid);
+        return () -> schedule.execute(grid);
+    }
+
+    @Override
+    public Kernel dft(float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        int[] inputSize = new int[] { inReal.length };
+        KernelContext context = new KernelContext();
+        GridScheduler grid = new GridScheduler();
+        WorkerGrid1D worker = new WorkerGrid1D(inReal.length);
+        grid.setWorkerGrid("s0.t0", worker);
+        TaskSchedule schedule = new TaskSchedule("s0") //
+                .streamIn(inReal, inImag) //
+                .task("t0", TornadoKernels::computeDftWithContext, inReal, inImag, outReal, outImag, inputSize, context) //
+                .streamOut(outReal, outImag);
+        tune("dft.kernel", inReal.length, 1, worker, schedule, grid);
+        return () -> schedule.execute(grid);
+    }
+
+    /**
+     * Applies the tuned local work size of the kernel, searching it if enabled. Returns false if there is none.
+     */
+    private boolean tune(String kernel, int globalX, int globalY, WorkerGrid worker, TaskSchedule schedule, GridScheduler grid) {
+        TuningConfig tuning = Autotuner.getInstance().tuneWorkGroup(kernel, globalX, globalY, getDevice(), config -> {
+            worker.setLocalWork(config.getLocalX(), config.getLocalY(), 1);
+            schedule.execute(grid);
+        });
+        if (tuning == null) {
+            return false;
+        }
+        worker.setLocalWork(tuning.getLocalX(), tuning.getLocalY(), 1);
+        return true;
+    }
+}
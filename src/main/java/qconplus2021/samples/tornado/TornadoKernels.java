@@ -0,0 +1,365 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.tornado;
+
+import uk.ac.manchester.tornado.api.KernelContext;
+import uk.ac.manchester.tornado.api.annotations.Parallel;
+import uk.ac.manchester.tornado.api.collections.math.TornadoMath;
+
+import static qconplus2021.samples.JuliaSets.CX;
+import static qconplus2021.samples.JuliaSets.CY;
+import static qconplus2021.samples.JuliaSets.MAX_ITERATIONS;
+import static qconplus2021.samples.JuliaSets.MOVE_X;
+import static qconplus2021.samples.JuliaSets.MOVE_Y;
+import static qconplus2021.samples.JuliaSets.ZOOM;
+
+/**
+ * Kernels compiled by TornadoVM: Loop Parallel API versions (with {@link Parallel} loops) and Kernel API versions (with
+ * a {@link KernelContext}) of every sample.
+ */
+final class TornadoKernels {
+
+    /** Side of the work-groups of {@link #edgeDetectionWithContext}, which set the local work size to it. */
+    static final int EDGE_TILE = 16;
+
+    /** Side of a tile of {@link #edgeDetectionWithContext} with its 1-pixel halo. */
+    private static final int EDGE_HALO_TILE = EDGE_TILE + 2;
+
+    private TornadoKernels() {
+    }
+
+    static void blur(int[] channel, int[] channelBlurred, final int numRows, final int numCols, float[] filter, final int filterWidth) {
+        assert (filterWidth % 2 == 1);
+        for (@Parallel int r = 0; r < numRows; r++) {
+            for (@Parallel int c = 0; c < numCols; c++) {
+                float result = 0.0f;
+                for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
+                    for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
+                        int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
+                        int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
+                        float image_value = (channel[image_r * numCols + image_c]);
+                        float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
+                        result += image_value * filter_value;
+                    }
+                }
+                channelBlurred[r * numCols + c] = result > 255 ? 255 : (int) result;
+            }
+        }
+    }
+
+    static void blurWithContext(int[] channel, int[] channelBlurred, final int numRows, final int numCols, float[] filter, final int filterWidth, KernelContext context) {
+        assert (filterWidth % 2 == 1);
+        int r = context.globalIdx;
+        int c = context.globalIdy;
+        float result = 0.0f;
+        for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
+            for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
+                int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
+                int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
+                float image_value = (channel[image_r * numCols + image_c]);
+                float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
+                result += image_value * filter_value;
+            }
+        }
+        channelBlurred[r * numCols + c] = result > 255 ? 255 : (int) result;
+    }
+
+    /**
+     * Integer version of {@link #blur}: 16-bit weights with {@code shift} fraction bits, {@code int} accumulator and
+     * rounding shift.
+     */
+    static void blurFixedPoint(int[] channel, int[] channelBlurred, final int numRows, final int numCols, short[] weights, final int shift, final int filterWidth) {
+        for (@Parallel int r = 0; r < numRows; r++) {
+            for (@Parallel int c = 0; c < numCols; c++) {
+                int result = 1 << (shift - 1);
+                for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
+                    for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
+                        int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
+                        int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
+                        result += channel[image_r * numCols + image_c] * weights[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
+                    }
+                }
+                result = result >> shift;
+                channelBlurred[r * numCols + c] = result > 255 ? 255 : result;
+            }
+        }
+    }
+
+    static void blurFixedPointWithContext(int[] channel, int[] channelBlurred, final int numRows, final int numCols, short[] weights, final int shift, final int filterWidth, KernelContext context) {
+        int r = context.globalIdx;
+        int c = context.globalIdy;
+        int result = 1 << (shift - 1);
+        for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
+            for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
+                int image_r = Math.min(Math.max(r + filter_r, 0), (numRows - 1));
+                int image_c = Math.min(Math.max(c + filter_c, 0), (numCols - 1));
+                result += channel[image_r * numCols + image_c] * weights[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
+            }
+        }
+        result = result >> shift;
+        channelBlurred[r * numCols + c] = result > 255 ? 255 : result;
+    }
+
+    /**
+     * Rank filter without histograms: the value at position {@code rank} is found bit by bit, from the highest one,
+     * counting the values of the window below every candidate. The window is read 8 times, so it is meant for small
+     * radii.
+     */
+    static void rankFilter(int[] channel, int[] output, final int numRows, final int numCols, final int radius, final int rank) {
+        for (@Parallel int r = 0; r < numRows; r++) {
+            for (@Parallel int c = 0; c < numCols; c++) {
+                int value = 0;
+                for (int bit = 128; bit > 0; bit >>= 1) {
+                    int candidate = value | bit;
+                    int below = 0;
+                    for (int window_r = -radius; window_r <= radius; window_r++) {
+                        for (int window_c = -radius; window_c <= radius; window_c++) {
+                            int image_r = Math.min(Math.max(r + window_r, 0), (numRows - 1));
+                            int image_c = Math.min(Math.max(c + window_c, 0), (numCols - 1));
+                            if (channel[image_r * numCols + image_c] < candidate) {
+                                below++;
+                            }
+                        }
+                    }
+                    if (below <= rank) {
+                        value = candidate;
+                    }
+                }
+                output[r * numCols + c] = value;
+            }
+        }
+    }
+
+    static void rankFilterWithContext(int[] channel, int[] output, final int numRows, final int numCols, final int radius, final int rank, KernelContext context) {
+        int r = context.globalIdx;
+        int c = context.globalIdy;
+        int value = 0;
+        for (int bit = 128; bit > 0; bit >>= 1) {
+            int candidate = value | bit;
+            int below = 0;
+            for (int window_r = -radius; window_r <= radius; window_r++) {
+                for (int window_c = -radius; window_c <= radius; window_c++) {
+                    int image_r = Math.min(Math.max(r + window_r, 0), (numRows - 1));
+                    int image_c = Math.min(Math.max(c + window_c, 0), (numCols - 1));
+                    if (channel[image_r * numCols + image_c] < candidate) {
+                        below++;
+                    }
+                }
+            }
+            if (below <= rank) {
+                value = candidate;
+            }
+        }
+        output[r * numCols + c] = value;
+    }
+
+    static void grayscale(int[] image, final int w, final int s) {
+        for (@Parallel int i = 0; i < w; i++) {
+            for (@Parallel int j = 0; j < s; j++) {
+                int rgb = image[i * s + j];
+                int alpha = (rgb >> 24) & 0xff;
+                int red = (rgb >> 16) & 0xFF;
+                int green = (rgb >> 8) & 0xFF;
+                int blue = (rgb & 0xFF);
+
+                int grayLevel = (red + green + blue) / 3;
+                int gray = (alpha << 24) | (grayLevel << 16) | (grayLevel << 8) | grayLevel;
+
+                image[i * s + j] = gray;
+            }
+        }
+    }
+
+    static void grayscaleWithContext(int[] image, final int w, final int s, KernelContext context) {
+        int i = context.globalIdx;
+        int j = context.globalIdy;
+        int rgb = image[i * s + j];
+        int alpha = (rgb >> 24) & 0xff;
+        int red = (rgb >> 16) & 0xFF;
+        int green = (rgb >> 8) & 0xFF;
+        int blue = (rgb & 0xFF);
+        int grayLevel = (red + green + blue) / 3;
+        int gray = (alpha << 24) | (grayLevel << 16) | (grayLevel << 8) | grayLevel;
+        image[i * s + j] = gray;
+    }
+
+    /**
+     * Grayscale, blur and Sobel fused in one kernel: every thread computes the blurred gray levels of its 3x3
+     * neighbourhood from the input pixels, so no intermediate image is written to the device memory.
+     *
+     * The blur of a pixel is recomputed by each of the 9 threads whose Sobel window contains it: 9 * filterWidth^2
+     * reads per pixel, 9 times the work of a blur followed by a Sobel pass (see
+     * {@link qconplus2021.samples.backend.Dispatcher#MAX_TORNADO_LOOP_FILTER_WIDTH}). {@link #edgeDetectionWithContext} stages
+     * the blurred values in local memory instead.
+     */
+    static void edgeDetection(int[] image, int[] edges, final int numRows, final int numCols, float[] filter, final int filterWidth) {
+        for (@Parallel int r = 0; r < numRows; r++) {
+            for (@Parallel int c = 0; c < numCols; c++) {
+                int gx = 0;
+                int gy = 0;
+                for (int dr = -1; dr <= 1; dr++) {
+                    for (int dc = -1; dc <= 1; dc++) {
+                        int blur_r = Math.min(Math.max(r + dr, 0), (numRows - 1));
+                        int blur_c = Math.min(Math.max(c + dc, 0), (numCols - 1));
+                        // Blurred gray level of the neighbour, computed from the input pixels
+                        float result = 0.0f;
+                        for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
+                            for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
+                                int image_r = Math.min(Math.max(blur_r + filter_r, 0), (numRows - 1));
+                                int image_c = Math.min(Math.max(blur_c + filter_c, 0), (numCols - 1));
+                                int rgb = image[image_r * numCols + image_c];
+                                float image_value = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+                                float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
+                                result += image_value * filter_value;
+                            }
+                        }
+                        int blurred = result > 255 ? 255 : (int) result;
+                        gx += dc * (dr == 0 ? 2 : 1) * blurred;
+                        gy += dr * (dc == 0 ? 2 : 1) * blurred;
+                    }
+                }
+                float magnitude = TornadoMath.sqrt((float) (gx * gx + gy * gy));
+                edges[r * numCols + c] = magnitude > 255 ? 255 : (int) magnitude;
+            }
+        }
+    }
+
+    /**
+     * Kernel API version of {@link #edgeDetection}, without its recomputation: every work-group of
+     * {@code EDGE_TILE x EDGE_TILE} threads first blurs its tile plus a 1-pixel halo into local memory, each pixel once,
+     * and the Sobel taps then read the blurred values from there. The work-group size must be
+     * {@code EDGE_TILE x EDGE_TILE}, and the global size is rounded up to it: the threads past the image help to fill the
+     * tile, but do not write.
+     */
+    static void edgeDetectionWithContext(int[] image, int[] edges, final int numRows, final int numCols, float[] filter, final int filterWidth, KernelContext context) {
+        int[] blurredTile = context.allocateIntLocalArray(EDGE_HALO_TILE * EDGE_HALO_TILE);
+        int lr = context.localIdx;
+        int lc = context.localIdy;
+        int r = context.globalIdx;
+        int c = context.globalIdy;
+        // First pixel of the halo, above and to the left of the tile
+        int originR = r - lr - 1;
+        int originC = c - lc - 1;
+        for (int k = lr * EDGE_TILE + lc; k < EDGE_HALO_TILE * EDGE_HALO_TILE; k += EDGE_TILE * EDGE_TILE) {
+            int blur_r = Math.min(Math.max(originR + k / EDGE_HALO_TILE, 0), (numRows - 1));
+            int blur_c = Math.min(Math.max(originC + k % EDGE_HALO_TILE, 0), (numCols - 1));
+            float result = 0.0f;
+            for (int filter_r = -filterWidth / 2; filter_r <= filterWidth / 2; filter_r++) {
+                for (int filter_c = -filterWidth / 2; filter_c <= filterWidth / 2; filter_c++) {
+                    int image_r = Math.min(Math.max(blur_r + filter_r, 0), (numRows - 1));
+                    int image_c = Math.min(Math.max(blur_c + filter_c, 0), (numCols - 1));
+                    int rgb = image[image_r * numCols + image_c];
+                    float image_value = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+                    float filter_value = filter[(filter_r + filterWidth / 2) * filterWidth + filter_c + filterWidth / 2];
+                    result += image_value * filter_value;
+                }
+            }
+            blurredTile[k] = result > 255 ? 255 : (int) result;
+        }
+        context.localBarrier();
+
+        if (r < numRows && c < numCols) {
+            int gx = 0;
+            int gy = 0;
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    int blurred = blurredTile[(lr + 1 + dr) * EDGE_HALO_TILE + lc + 1 + dc];
+                    gx += dc * (dr == 0 ? 2 : 1) * blurred;
+                    gy += dr * (dc == 0 ? 2 : 1) * blurred;
+                }
+            }
+            float magnitude = TornadoMath.sqrt((float) (gx * gx + gy * gy));
+            edges[r * numCols + c] = magnitude > 255 ? 255 : (int) magnitude;
+        }
+    }
+
+    /**
+     * Julia Set version adapted for TornadoVM
+     *
+     * It has two parallel loops, generating a 2D kernel for GPUs and FPGAs.
+     *
+     */
+    static void juliaSet(int size, float[] hue, float[] brightness) {
+        for (@Parallel int ix = 0; ix < size; ix++) {
+            for (@Parallel int jx = 0; jx < size; jx++) {
+                float zx = 1.5f * (ix - size / 2) / (0.5f * ZOOM * size) + MOVE_X;
+                float zy = (jx - size / 2) / (0.5f * ZOOM * size) + MOVE_Y;
+                float k = MAX_ITERATIONS;
+                while (zx * zx + zy * zy < 4 && k > 0) {
+                    float tmp = zx * zx - zy * zy + CX;
+                    zy = 2.0f * zx * zy + CY;
+                    zx = tmp;
+                    k--;
+                }
+                hue[ix * size + jx] = (MAX_ITERATIONS / k);
+                brightness[ix * size + jx] = k > 0 ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Julia Set version adapted for TornadoVM
+     *
+     * It has two parallel loops, generating a 2D kernel for GPUs and FPGAs.
+     *
+     * It uses the KernelContext API
+     *
+     */
+    static void juliaSetWithContext(int size, float[] hue, float[] brightness, KernelContext context) {
+        int ix = context.globalIdx;
+        int jx = context.globalIdy;
+        float zx = 1.5f * (ix - size / 2) / (0.5f * ZOOM * size) + MOVE_X;
+        float zy = (jx - size / 2) / (0.5f * ZOOM * size) + MOVE_Y;
+        float k = MAX_ITERATIONS;
+        while (zx * zx + zy * zy < 4 && k > 0) {
+            float tmp = zx * zx - zy * zy + CX;
+            zy = 2.0f * zx * zy + CY;
+            zx = tmp;
+            k--;
+        }
+        hue[ix * size + jx] = (MAX_ITERATIONS / k);
+        brightness[ix * size + jx] = k > 0 ? 1 : 0;
+    }
+
+    static void computeDft(float[] inreal, float[] inimag, float[] outreal, float[] outimag, int[] inputSize) {
+        int n = inreal.length;
+        for (@Parallel int k = 0; k < n; k++) { // For each output element
+            float sumreal = 0;
+            float sumimag = 0;
+            for (int t = 0; t < n; t++) { // For each input element
+                float angle = ((2 * TornadoMath.floatPI() * t * k) / n);
+                sumreal += (inreal[t] * (TornadoMath.cos(angle)) + inimag[t] * (TornadoMath.sin(angle)));
+                sumimag += -(inreal[t] * (TornadoMath.sin(angle)) + inimag[t] * (TornadoMath.cos(angle)));
+            }
+            outreal[k] = sumreal;
+            outimag[k] = sumimag;
+        }
+    }
+
+    static void computeDftWithContext(float[] inreal, float[] inimag, float[] outreal, float[] outimag, int[] inputSize, KernelContext context) {
+        int n = inreal.length;
+        int k = context.globalIdx;
+        float sumreal = 0;
+        float sumimag = 0;
+        for (int t = 0; t < n; t++) { // For each input element
+            float angle = ((2 * TornadoMath.floatPI() * t * k) / n);
+            sumreal += (inreal[t] * (TornadoMath.cos(angle)) + inimag[t] * (TornadoMath.sin(angle)));
+            sumimag += -(inreal[t] * (TornadoMath.sin(angle)) + inimag[t] * (TornadoMath.cos(angle)));
+        }
+        outreal[k] = sumreal;
+        outimag[k] = sumimag;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.tornado;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.backend.Kernel;
+import uk.ac.manchester.tornado.api.TaskSchedule;
+
+/**
+ * TornadoVM backend with the Loop Parallel API. TornadoVM selects the thread block sizes.
+ */
+public class TornadoLoopBackend extends TornadoBackend {
+
+    @Override
+    public String getName() {
+        return "tornado-loop";
+    }
+
+    @Override
+    public Implementation getImplementation() {
+        return Implementation.TORNADO_LOOP;
+    }
+
+    @Override
+    public Kernel blur(int[][] channels, int[][] outputs, int numRows, int numCols, float[] filter, int filterWidth) {
+        TaskSchedule schedule = new TaskSchedule("blur").streamIn((Object[]) channels);
+        for (int i = 0; i < channels.length; i++) {
+            schedule.task(channelTask(i), TornadoKernels::blur, channels[i], outputs[i], numRows, numCols, filter, filterWidth);
+        }
+        schedule.streamOut((Object[]) outputs);
+        return schedule::execute;
+    }
+
+    @Override
+    public Kernel blurFixedPoint(int[][] channels, int[][] outputs, int numRows, int numCols, short[] weights, int shift, int filterWidth) {
+        TaskSchedule schedule = new TaskSchedule("blurFixed").streamIn((Object[]) channels);
+        for (int i = 0; i < channels.length; i++) {
+            schedule.task(channelTask(i), TornadoKernels::blurFixedPoint, channels[i], outputs[i], numRows, numCols, weights, shift, filterWidth);
+        }
+        schedule.streamOut((Object[]) outputs);
+        return schedule::execute;
+    }
+
+    @Override
+    public Kernel rankFilter(int[][] channels, int[][] outputs, int numRows, int numCols, int radius, int rank) {
+        TaskSchedule schedule = new TaskSchedule("rank").streamIn((Object[]) channels);
+        for (int i = 0; i < channels.length; i++) {
+            schedule.task(channelTask(i), TornadoKernels::rankFilter, channels[i], outputs[i], numRows, numCols, radius, rank);
+        }
+        schedule.streamOut((Object[]) outputs);
+        return schedule::execute;
+    }
+
+    @Override
+    public Kernel grayscale(int[] image, int w, int h) {
+        TaskSchedule schedule = new TaskSchedule("s0") //
+                .streamIn(image) //
+                .task("t0", TornadoKernels::grayscale, image, w, h) //
+                .streamOut(image);
+        return schedule::execute;
+    }
+
+    @Override
+    public Kernel edgeDetection(int[] image, int[] edges, int w, int h, float[] filter, int filterWidth) {
+        TaskSchedule schedule = new TaskSchedule("s0") //
+                .streamIn(image) //
+                .task("t0", TornadoKernels::edgeDetection, image, edges, w, h, filter, filterWidth) //
+                .streamOut(edges);
+        return schedule::execute;
+    }
+
+    @Override
+    public Kernel juliaSet(int size, float[] hue, float[] brightness) {
+        TaskSchedule schedule = new TaskSchedule("s0") //
+                .task("t0", TornadoKernels::juliaSet, size, hue, brightness) //
+                .streamOut(hue, brightness);
+        return schedule::execute;
+    }
+
+    @Override
+    public Kernel dft(float[] inReal, float[] inImag, float[] outReal, float[] outImag) {
+        int[] inputSize = new int[] { inReal.length };
+        TaskSchedule schedule = new TaskSchedule("s0") //
+                .streamIn(inReal, inImag) //
+                .task("t0", TornadoKernels::computeDft, inReal, inImag, outReal, outImag, inputSize) //
+                .streamOut(outReal, outImag);
+        return schedule::execute;
+    }
+}
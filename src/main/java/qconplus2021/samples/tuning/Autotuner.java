@@ -0,0 +1,211 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.tuning;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Searches the configuration of a kernel for a problem size and a device, and keeps the best one in a
+ * {@link TuningCache}, so later runs use it without searching again.
+ *
+ * - CPU (multi-threaded versions): tile size and number of threads. The tile size is searched first with all threads,
+ *   then the number of threads with the best tile size.
+ * - TornadoVM (Kernel API versions): local work size of the {@code WorkerGrid}, among the power-of-two sizes that divide
+ *   the global size.
+ *
+ * Every candidate runs once to warm up and then {@code autotune.trials} times; the median time is compared.
+ *
+ * Configuration, with system properties:
+ *
+ * -Dautotune=true: search when the cache has no entry (default false: only cached configurations are applied)
+ * -Dautotune.cache=FILE: cache file (default ~/.qconplus2021/autotune.properties)
+ * -Dautotune.trials=N: measured runs per candidate (default 3)
+ * -Dautotune.maxWorkGroup=N: maximum number of threads of a work group (default 256)
+ *
+ * Kernels prepared inside {@link #untuned(Supplier)} (e.g., the probes of the
+ * {@link qconplus2021.samples.backend.Dispatcher}) neither search nor read the cache.
+ */
+public class Autotuner {
+
+    public static final String ENABLED_PROPERTY = "autotune";
+    public static final String CACHE_PROPERTY = "autotune.cache";
+    public static final String TRIALS_PROPERTY = "autotune.trials";
+    public static final String MAX_WORK_GROUP_PROPERTY = "autotune.maxWorkGroup";
+
+    private static final int[] TILE_SIZES = { 16, 32, 64, 128, 256 };
+    private static final int MIN_WORK_GROUP = 16;
+
+    // Configuration of the CPU kernels prepared with untuned()
+    private static final int DEFAULT_TILE_SIZE = 64;
+
+    private static final ThreadLocal<Boolean> UNTUNED = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Runs the kernel once with the given configuration.
+     */
+    public interface Trial {
+        void run(TuningConfig config);
+    }
+
+    private static Autotuner instance;
+
+    private final TuningCache cache;
+    private final boolean searchEnabled;
+    private final int trials;
+    private final int maxWorkGroup;
+
+    public Autotuner(TuningCache cache, boolean searchEnabled, int trials, int maxWorkGroup) {
+        this.cache = cache;
+        this.searchEnabled = searchEnabled;
+        this.trials = Math.max(1, trials);
+        this.maxWorkGroup = maxWorkGroup;
+    }
+
+    /**
+     * Autotuner configured with the system properties, shared by all samples of the JVM.
+     */
+    public static synchronized Autotuner getInstance() {
+        if (instance == null) {
+            String defaultCache = Paths.get(System.getProperty("user.home"), ".qconplus2021", "autotune.properties").toString();
+            instance = new Autotuner(new TuningCache(Paths.get(System.getProperty(CACHE_PROPERTY, defaultCache))), //
+                    Boolean.getBoolean(ENABLED_PROPERTY), //
+                    Integer.getInteger(TRIALS_PROPERTY, 3), //
+                    Integer.getInteger(MAX_WORK_GROUP_PROPERTY, 256));
+        }
+        return instance;
+    }
+
+    /**
+     * Device name for the CPU versions: the number of available processors.
+     */
+    public static String cpuDevice() {
+        return "cpu-" + Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Prepares kernels with a fixed default configuration: inside {@code body}, {@link #tuneCPU} returns a tile size of
+     * {@value #DEFAULT_TILE_SIZE} with all the threads and {@link #tuneWorkGroup} returns null, without searching or
+     * touching the cache.
+     */
+    public static <T> T untuned(Supplier<T> body) {
+        boolean previous = UNTUNED.get();
+        UNTUNED.set(true);
+        try {
+            return body.get();
+        } finally {
+            UNTUNED.set(previous);
+        }
+    }
+
+    /**
+     * Best tile size and number of threads for a CPU kernel. Returns the cached entry, the result of a new search if
+     * searching is enabled, or null.
+     */
+    public TuningConfig tuneCPU(String kernel, String size, Trial trial) {
+        if (UNTUNED.get()) {
+            return TuningConfig.cpu(DEFAULT_TILE_SIZE, Runtime.getRuntime().availableProcessors());
+        }
+        String key = TuningCache.key(kernel, size, cpuDevice());
+        TuningConfig config = cache.get(key);
+        if (config != null || !searchEnabled) {
+            return config;
+        }
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        List<TuningConfig> tiles = new ArrayList<>();
+        for (int tile : TILE_SIZES) {
+            tiles.add(TuningConfig.cpu(tile, maxThreads));
+        }
+        TuningConfig best = search(key, tiles, trial);
+        List<TuningConfig> threads = new ArrayList<>();
+        for (int n : threadCounts(maxThreads)) {
+            threads.add(TuningConfig.cpu(best.getTileSize(), n));
+        }
+        best = search(key, threads, trial);
+        cache.put(key, best);
+        return best;
+    }
+
+    /**
+     * Best local work size for a 2D kernel of {@code globalX x globalY} threads on the given device. Returns the cached
+     * entry, the result of a new search if searching is enabled, or null (also when no candidate divides the global
+     * size: TornadoVM then chooses the local size).
+     */
+    public TuningConfig tuneWorkGroup(String kernel, int globalX, int globalY, String device, Trial trial) {
+        if (UNTUNED.get()) {
+            return null;
+        }
+        String key = TuningCache.key(kernel, globalX + "x" + globalY, device);
+        TuningConfig config = cache.get(key);
+        if (config != null || !searchEnabled) {
+            return config;
+        }
+        List<TuningConfig> candidates = workGroupCandidates(globalX, globalY, maxWorkGroup);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        TuningConfig best = search(key, candidates, trial);
+        cache.put(key, best);
+        return best;
+    }
+
+    static int[] threadCounts(int maxThreads) {
+        List<Integer> counts = new ArrayList<>();
+        for (int n = 1; n < maxThreads; n *= 2) {
+            counts.add(n);
+        }
+        counts.add(maxThreads);
+        return counts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    static List<TuningConfig> workGroupCandidates(int globalX, int globalY, int maxWorkGroup) {
+        List<TuningConfig> candidates = new ArrayList<>();
+        for (int x = 1; x <= maxWorkGroup && globalX % x == 0; x *= 2) {
+            for (int y = 1; x * y <= maxWorkGroup && globalY % y == 0; y *= 2) {
+                if (x * y >= Math.min(MIN_WORK_GROUP, maxWorkGroup)) {
+                    candidates.add(TuningConfig.workGroup(x, y));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private TuningConfig search(String key, List<TuningConfig> candidates, Trial trial) {
+        TuningConfig best = null;
+        long bestTime = Long.MAX_VALUE;
+        for (TuningConfig candidate : candidates) {
+            trial.run(candidate);
+            long[] times = new long[trials];
+            for (int i = 0; i < trials; i++) {
+                long start = System.nanoTime();
+                trial.run(candidate);
+                times[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(times);
+            long median = times[times.length / 2];
+            System.out.println("Autotuning " + key + ": " + candidate + " -- " + median + " (ns)");
+            if (median < bestTime) {
+                bestTime = median;
+                best = candidate;
+            }
+        }
+        System.out.println("Autotuning " + key + ": best " + best + " -- cached in " + cache.getFile());
+        return best;
+    }
+}
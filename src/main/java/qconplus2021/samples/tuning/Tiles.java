@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.tuning;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Runs a kernel over a 2D domain split in square tiles, with the tile size and number of threads of a
+ * {@link TuningConfig}. Every thread count gets its own {@link ForkJoinPool}, created on first use and kept for later
+ * calls; the parallel stream over the tiles runs inside it instead of the common pool.
+ */
+public final class Tiles {
+
+    public interface TileKernel {
+        /**
+         * Computes rows {@code [rowFrom, rowTo)} and columns {@code [colFrom, colTo)}.
+         */
+        void apply(int rowFrom, int rowTo, int colFrom, int colTo);
+    }
+
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private Tiles() {
+    }
+
+    public static void forEachTile(int numRows, int numCols, TuningConfig config, TileKernel kernel) {
+        int tile = config.getTileSize();
+        int tileRows = (numRows + tile - 1) / tile;
+        int tileCols = (numCols + tile - 1) / tile;
+        IntConsumer body = t -> {
+            int rowFrom = (t / tileCols) * tile;
+            int colFrom = (t % tileCols) * tile;
+            kernel.apply(rowFrom, Math.min(rowFrom + tile, numRows), colFrom, Math.min(colFrom + tile, numCols));
+        };
+        if (config.getThreads() <= 1) {
+            IntStream.range(0, tileRows * tileCols).forEach(body);
+        } else {
+            // Pool threads are daemon threads, so the pools do not need to be shut down
+            ForkJoinPool pool = POOLS.computeIfAbsent(config.getThreads(), ForkJoinPool::new);
+            pool.submit(() -> IntStream.range(0, tileRows * tileCols).parallel().forEach(body)).join();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.tuning;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Best configurations found by the {@link Autotuner}, stored as a properties file. Keys are
+ * {@code kernel|size|device}, values the string form of a {@link TuningConfig}.
+ *
+ * The file is read once and rewritten after every new entry. Several processes can share it: a new entry is written
+ * under a lock ({@code <file>.lock}), after reading the file again, so the entries added by other processes are kept;
+ * and it goes to a temporary file first, then moved over the old one, so an interrupted run does not leave a truncated
+ * cache.
+ */
+public class TuningCache {
+
+    private final Path file;
+    private final Properties entries = new Properties();
+
+    public TuningCache(Path file) {
+        this.file = file;
+        try {
+            load(entries);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the tuning cache: " + file, e);
+        }
+    }
+
+    private void load(Properties properties) throws IOException {
+        if (Files.exists(file)) {
+            try (InputStream input = Files.newInputStream(file)) {
+                properties.load(input);
+            }
+        }
+    }
+
+    public static String key(String kernel, String size, String device) {
+        return kernel + "|" + size + "|" + device;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Cached configuration, or null if there is none (or the entry is not valid).
+     */
+    public synchronized TuningConfig get(String key) {
+        String value = entries.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return TuningConfig.parse(value);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ignoring tuning cache entry " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, TuningConfig config) {
+        entries.setProperty(key, config.toString());
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path lockFile = Paths.get(file.toAbsolutePath() + ".lock");
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = channel.lock()) {
+                // The file as other processes left it, plus the new entry
+                Properties merged = new Properties();
+                load(merged);
+                merged.setProperty(key, config.toString());
+                Path temporary = Files.createTempFile(parent, "autotune", ".tmp");
+                try (OutputStream output = Files.newOutputStream(temporary)) {
+                    merged.store(output, "Autotuner cache: kernel|size|device = best configuration");
+                }
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                entries.putAll(merged);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write the tuning cache: " + file, e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.tuning;
+
+/**
+ * A point in the tuning space: CPU tile size and number of threads, or the local work size of a TornadoVM
+ * {@code WorkerGrid}. Parameters that do not apply are 0.
+ *
+ * The string form ({@code tile=64,threads=8} or {@code local=16x16}) is the value stored in the {@link TuningCache}.
+ */
+public final class TuningConfig {
+
+    private final int tileSize;
+    private final int threads;
+    private final int localX;
+    private final int localY;
+
+    private TuningConfig(int tileSize, int threads, int localX, int localY) {
+        this.tileSize = tileSize;
+        this.threads = threads;
+        this.localX = localX;
+        this.localY = localY;
+    }
+
+    public static TuningConfig cpu(int tileSize, int threads) {
+        return new TuningConfig(tileSize, threads, 0, 0);
+    }
+
+    public static TuningConfig workGroup(int localX, int localY) {
+        return new TuningConfig(0, 0, localX, localY);
+    }
+
+    /**
+     * Tile side, in elements, for 2D domains split in square tiles.
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getLocalX() {
+        return localX;
+    }
+
+    public int getLocalY() {
+        return localY;
+    }
+
+    public boolean isWorkGroup() {
+        return localX > 0;
+    }
+
+    @Override
+    public String toString() {
+        return isWorkGroup() ? "local=" + localX + "x" + localY : "tile=" + tileSize + ",threads=" + threads;
+    }
+
+    public static TuningConfig parse(String value) {
+        int tileSize = 0;
+        int threads = 0;
+        int localX = 0;
+        int localY = 0;
+        for (String entry : value.split(",")) {
+            String[] keyValue = entry.trim().split("=");
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Invalid tuning configuration: " + value);
+            }
+            switch (keyValue[0]) {
+                case "tile":
+                    tileSize = Integer.parseInt(keyValue[1]);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(keyValue[1]);
+                    break;
+                case "local":
+                    String[] sizes = keyValue[1].split("x");
+                    if (sizes.length != 2) {
+                        throw new IllegalArgumentException("Invalid tuning configuration: " + value);
+                    }
+                    localX = Integer.parseInt(sizes[0]);
+                    localY = Integer.parseInt(sizes[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid tuning configuration: " + value);
+            }
+        }
+        if (localX > 0 ? localY <= 0 : tileSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Invalid tuning configuration: " + value);
+        }
+        return new TuningConfig(tileSize, threads, localX, localY);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TuningConfig)) {
+            return false;
+        }
+        TuningConfig config = (TuningConfig) other;
+        return tileSize == config.tileSize && threads == config.threads && localX == config.localX && localY == config.localY;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((tileSize * 31 + threads) * 31 + localX) * 31 + localY;
+    }
+}
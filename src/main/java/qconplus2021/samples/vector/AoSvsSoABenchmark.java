@@ -0,0 +1,379 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.vector;
+
+import qconplus2021.samples.Implementation;
+import qconplus2021.samples.harness.BenchmarkConfig;
+import qconplus2021.samples.harness.BenchmarkRunner;
+import qconplus2021.samples.harness.Phase;
+import qconplus2021.samples.harness.PhasedBenchmark;
+import uk.ac.manchester.tornado.api.TaskSchedule;
+import uk.ac.manchester.tornado.api.annotations.Parallel;
+import uk.ac.manchester.tornado.api.collections.types.Float4;
+import uk.ac.manchester.tornado.api.collections.types.VectorFloat4;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the array-of-structs layout ({@link VectorFloat4}) with the structure-of-arrays layout
+ * ({@link VectorFloat4SoA}) across several operation mixes.
+ *
+ * Both layouts run with the same strategy, so only the layout differs: on the CPU, the same blocks (see
+ * {@link VectorFloat4SoA#forEachBlock}) over the flat arrays, without a {@code Float4} per element; with TornadoVM, one
+ * task per operation, and only the arrays written by the tasks of the mix are streamed out (e.g., just the x lane for
+ * {@code scaleX}).
+ *
+ * How to run?
+ *
+ * <code>
+ * tornado -cp target/qconplus2021-1.0-SNAPSHOT.jar qconplus2021.samples.vector.AoSvsSoABenchmark [size] [--mt|--tornado]
+ * </code>
+ *
+ * Every mix of every layout runs with the {@link BenchmarkRunner}, whose options (e.g., --iterations=N, --format=csv)
+ * are also accepted, and the medians are compared at the end.
+ */
+public class AoSvsSoABenchmark {
+
+    public static final EnumSet<Implementation> SUPPORTED = EnumSet.of(Implementation.MT, Implementation.TORNADO_LOOP);
+
+    private static final int DEFAULT_SIZE = 1 << 20;
+
+    private enum Operation {
+        ADD,
+        SUB,
+        MULT,
+        DOT,
+        NORMALISE,
+        SCALE_X
+    }
+
+    private enum Mix {
+        ARITHMETIC(Operation.ADD, Operation.SUB, Operation.MULT),
+        GEOMETRY(Operation.DOT, Operation.NORMALISE),
+        SINGLE_LANE(Operation.SCALE_X),
+        ALL(Operation.values());
+
+        private final Operation[] operations;
+
+        Mix(Operation... operations) {
+            this.operations = operations;
+        }
+
+        boolean containsAny(Operation... candidates) {
+            for (Operation operation : operations) {
+                for (Operation candidate : candidates) {
+                    if (operation == candidate) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final float SCALE = 1.5f;
+
+    private final VectorFloat4 a;
+    private final VectorFloat4 b;
+    private final VectorFloat4 out;
+    private final float[] dotOut;
+    private final VectorFloat4SoA aSoA;
+    private final VectorFloat4SoA bSoA;
+    private final VectorFloat4SoA outSoA;
+
+    private AoSvsSoABenchmark(int size) {
+        a = new VectorFloat4(size);
+        b = new VectorFloat4(size);
+        out = new VectorFloat4(size);
+        dotOut = new float[size];
+        Random r = new Random(42);
+        for (float[] storage : new float[][] { a.getArray(), b.getArray() }) {
+            for (int i = 0; i < storage.length; i++) {
+                storage[i] = r.nextFloat() + 0.1f;
+            }
+        }
+        aSoA = VectorFloat4SoA.fromVectorFloat4(a);
+        bSoA = VectorFloat4SoA.fromVectorFloat4(b);
+        outSoA = new VectorFloat4SoA(size);
+    }
+
+    // AoS kernels, as in VectorTypes
+
+    private static void addAoS(VectorFloat4 a, VectorFloat4 b, VectorFloat4 out) {
+        for (@Parallel int i = 0; i < a.getLength(); i++) {
+            out.set(i, Float4.add(a.get(i), b.get(i)));
+        }
+    }
+
+    private static void subAoS(VectorFloat4 a, VectorFloat4 b, VectorFloat4 out) {
+        for (@Parallel int i = 0; i < a.getLength(); i++) {
+            out.set(i, Float4.sub(a.get(i), b.get(i)));
+        }
+    }
+
+    private static void multAoS(VectorFloat4 a, VectorFloat4 b, VectorFloat4 out) {
+        for (@Parallel int i = 0; i < a.getLength(); i++) {
+            out.set(i, Float4.mult(a.get(i), b.get(i)));
+        }
+    }
+
+    private static void dotAoS(VectorFloat4 a, VectorFloat4 b, float[] out) {
+        for (@Parallel int i = 0; i < a.getLength(); i++) {
+            out[i] = Float4.dot(a.get(i), b.get(i));
+        }
+    }
+
+    private static void normaliseAoS(VectorFloat4 a, VectorFloat4 out) {
+        for (@Parallel int i = 0; i < a.getLength(); i++) {
+            out.set(i, Float4.normalise(a.get(i)));
+        }
+    }
+
+    private static void scaleXAoS(VectorFloat4 a, float scale, VectorFloat4 out) {
+        for (@Parallel int i = 0; i < a.getLength(); i++) {
+            Float4 value = a.get(i);
+            out.set(i, new Float4(value.getX() * scale, value.getY(), value.getZ(), value.getW()));
+        }
+    }
+
+    // AoS CPU versions: blocks of elements over the interleaved arrays (x, y, z, w, x, ...)
+
+    private void runAoSParallel(Operation operation) {
+        float[] as = a.getArray();
+        float[] bs = b.getArray();
+        float[] os = out.getArray();
+        switch (operation) {
+            case ADD:
+                VectorFloat4SoA.forEachBlock(a.getLength(), (from, to) -> {
+                    for (int i = 4 * from; i < 4 * to; i++) {
+                        os[i] = as[i] + bs[i];
+                    }
+                });
+                break;
+            case SUB:
+                VectorFloat4SoA.forEachBlock(a.getLength(), (from, to) -> {
+                    for (int i = 4 * from; i < 4 * to; i++) {
+                        os[i] = as[i] - bs[i];
+                    }
+                });
+                break;
+            case MULT:
+                VectorFloat4SoA.forEachBlock(a.getLength(), (from, to) -> {
+                    for (int i = 4 * from; i < 4 * to; i++) {
+                        os[i] = as[i] * bs[i];
+                    }
+                });
+                break;
+            case DOT:
+                VectorFloat4SoA.forEachBlock(a.getLength(), (from, to) -> {
+                    for (int i = from; i < to; i++) {
+                        int e = 4 * i;
+                        dotOut[i] = as[e] * bs[e] + as[e + 1] * bs[e + 1] + as[e + 2] * bs[e + 2] + as[e + 3] * bs[e + 3];
+                    }
+                });
+                break;
+            case NORMALISE:
+                VectorFloat4SoA.forEachBlock(a.getLength(), (from, to) -> {
+                    for (int i = from; i < to; i++) {
+                        int e = 4 * i;
+                        float length = (float) Math.sqrt(as[e] * as[e] + as[e + 1] * as[e + 1] + as[e + 2] * as[e + 2] + as[e + 3] * as[e + 3]);
+                        os[e] = as[e] / length;
+                        os[e + 1] = as[e + 1] / length;
+                        os[e + 2] = as[e + 2] / length;
+                        os[e + 3] = as[e + 3] / length;
+                    }
+                });
+                break;
+            case SCALE_X:
+                VectorFloat4SoA.forEachBlock(a.getLength(), (from, to) -> {
+                    for (int i = from; i < to; i++) {
+                        int e = 4 * i;
+                        os[e] = as[e] * SCALE;
+                        os[e + 1] = as[e + 1];
+                        os[e + 2] = as[e + 2];
+                        os[e + 3] = as[e + 3];
+                    }
+                });
+                break;
+        }
+    }
+
+    private void runSoAParallel(Operation operation) {
+        switch (operation) {
+            case ADD:
+                VectorFloat4SoA.addParallel(aSoA, bSoA, outSoA);
+                break;
+            case SUB:
+                VectorFloat4SoA.subParallel(aSoA, bSoA, outSoA);
+                break;
+            case MULT:
+                VectorFloat4SoA.multParallel(aSoA, bSoA, outSoA);
+                break;
+            case DOT:
+                VectorFloat4SoA.dotParallel(aSoA, bSoA, dotOut);
+                break;
+            case NORMALISE:
+                VectorFloat4SoA.normaliseParallel(aSoA, outSoA);
+                break;
+            case SCALE_X:
+                VectorFloat4SoA.scaleXParallel(aSoA, SCALE, outSoA);
+                break;
+        }
+    }
+
+    private TaskSchedule buildAoSSchedule(Mix mix) {
+        TaskSchedule schedule = new TaskSchedule("aos" + mix.ordinal());
+        for (int i = 0; i < mix.operations.length; i++) {
+            String task = "t" + i;
+            switch (mix.operations[i]) {
+                case ADD:
+                    schedule.task(task, AoSvsSoABenchmark::addAoS, a, b, out);
+                    break;
+                case SUB:
+                    schedule.task(task, AoSvsSoABenchmark::subAoS, a, b, out);
+                    break;
+                case MULT:
+                    schedule.task(task, AoSvsSoABenchmark::multAoS, a, b, out);
+                    break;
+                case DOT:
+                    schedule.task(task, AoSvsSoABenchmark::dotAoS, a, b, dotOut);
+                    break;
+                case NORMALISE:
+                    schedule.task(task, AoSvsSoABenchmark::normaliseAoS, a, out);
+                    break;
+                case SCALE_X:
+                    schedule.task(task, AoSvsSoABenchmark::scaleXAoS, a, SCALE, out);
+                    break;
+            }
+        }
+        // Only the outputs written by the tasks of the mix are copied back
+        List<Object> outputs = new ArrayList<>();
+        if (mix.containsAny(Operation.ADD, Operation.SUB, Operation.MULT, Operation.NORMALISE, Operation.SCALE_X)) {
+            outputs.add(out);
+        }
+        if (mix.containsAny(Operation.DOT)) {
+            outputs.add(dotOut);
+        }
+        return schedule.streamOut(outputs.toArray());
+    }
+
+    private TaskSchedule buildSoASchedule(Mix mix) {
+        TaskSchedule schedule = new TaskSchedule("soa" + mix.ordinal());
+        VectorFloat4SoA x = aSoA;
+        VectorFloat4SoA y = bSoA;
+        VectorFloat4SoA o = outSoA;
+        for (int i = 0; i < mix.operations.length; i++) {
+            String task = "t" + i;
+            switch (mix.operations[i]) {
+                case ADD:
+                    schedule.task(task, VectorFloat4SoA::add, x.getX(), x.getY(), x.getZ(), x.getW(), y.getX(), y.getY(), y.getZ(), y.getW(), o.getX(), o.getY(), o.getZ(), o.getW());
+                    break;
+                case SUB:
+                    schedule.task(task, VectorFloat4SoA::sub, x.getX(), x.getY(), x.getZ(), x.getW(), y.getX(), y.getY(), y.getZ(), y.getW(), o.getX(), o.getY(), o.getZ(), o.getW());
+                    break;
+                case MULT:
+                    schedule.task(task, VectorFloat4SoA::mult, x.getX(), x.getY(), x.getZ(), x.getW(), y.getX(), y.getY(), y.getZ(), y.getW(), o.getX(), o.getY(), o.getZ(), o.getW());
+                    break;
+                case DOT:
+                    schedule.task(task, VectorFloat4SoA::dot, x.getX(), x.getY(), x.getZ(), x.getW(), y.getX(), y.getY(), y.getZ(), y.getW(), dotOut);
+                    break;
+                case NORMALISE:
+                    schedule.task(task, VectorFloat4SoA::normalise, x.getX(), x.getY(), x.getZ(), x.getW(), o.getX(), o.getY(), o.getZ(), o.getW());
+                    break;
+                case SCALE_X:
+                    schedule.task(task, VectorFloat4SoA::scaleX, x.getX(), SCALE, o.getX());
+                    break;
+            }
+        }
+        // Only the lanes written by the tasks of the mix are copied back: scaleX writes just x
+        List<Object> outputs = new ArrayList<>();
+        if (mix.containsAny(Operation.ADD, Operation.SUB, Operation.MULT, Operation.NORMALISE)) {
+            outputs.add(o.getX());
+            outputs.add(o.getY());
+            outputs.add(o.getZ());
+            outputs.add(o.getW());
+        } else if (mix.containsAny(Operation.SCALE_X)) {
+            outputs.add(o.getX());
+        }
+        if (mix.containsAny(Operation.DOT)) {
+            outputs.add(dotOut);
+        }
+        return schedule.streamOut(outputs.toArray());
+    }
+
+    private static PhasedBenchmark benchmark(Runnable compute) {
+        return new PhasedBenchmark() {
+            @Override
+            public EnumSet<Phase> getPhases() {
+                return EnumSet.of(Phase.COMPUTE);
+            }
+
+            @Override
+            public void compute() {
+                compute.run();
+            }
+        };
+    }
+
+    private long median(BenchmarkRunner runner, String name, Implementation implementation, Runnable compute) {
+        return runner.run(name, implementation, benchmark(compute)).getHistogram(Phase.COMPUTE).getValueAtPercentile(50);
+    }
+
+    private void run(BenchmarkConfig config, Implementation implementation) {
+        BenchmarkRunner runner = new BenchmarkRunner(config);
+        StringBuilder summary = new StringBuilder(String.format(Locale.ROOT, "%-20s %14s %14s %8s%n", "Mix", "AoS (ns)", "SoA (ns)", "Speedup"));
+        for (Mix mix : Mix.values()) {
+            String name = mix.name().toLowerCase(Locale.ROOT);
+            long aos;
+            long soa;
+            if (implementation == Implementation.TORNADO_LOOP) {
+                TaskSchedule aosSchedule = buildAoSSchedule(mix);
+                TaskSchedule soaSchedule = buildSoASchedule(mix);
+                aos = median(runner, "AoS " + name, implementation, aosSchedule::execute);
+                soa = median(runner, "SoA " + name, implementation, soaSchedule::execute);
+            } else {
+                aos = median(runner, "AoS " + name, implementation, () -> {
+                    for (Operation operation : mix.operations) {
+                        runAoSParallel(operation);
+                    }
+                });
+                soa = median(runner, "SoA " + name, implementation, () -> {
+                    for (Operation operation : mix.operations) {
+                        runSoAParallel(operation);
+                    }
+                });
+            }
+            summary.append(String.format(Locale.ROOT, "%-20s %14d %14d %8.2f%n", name, aos, soa, (double) aos / soa));
+        }
+        System.out.print(summary);
+    }
+
+    public static void main(String[] args) {
+        BenchmarkConfig config = BenchmarkConfig.parse(args);
+        Implementation implementation = config.getImplementation(Implementation.MT, SUPPORTED);
+        int size = DEFAULT_SIZE;
+        for (String arg : config.getArguments()) {
+            if (!arg.startsWith("--")) {
+                size = Integer.parseInt(arg);
+            }
+        }
+        new AoSvsSoABenchmark(size).run(config, implementation);
+    }
+}
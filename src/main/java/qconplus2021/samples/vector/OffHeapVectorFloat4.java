@@ -0,0 +1,226 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.vector;
+
+import uk.ac.manchester.tornado.api.collections.types.Float4;
+import uk.ac.manchester.tornado.api.collections.types.VectorFloat4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Off-heap container with the layout of a {@link VectorFloat4}: x, y, z and w floats of every element, interleaved.
+ *
+ * The data lives in direct {@link ByteBuffer}s, either allocated or memory-mapped from a binary file (little-endian
+ * float32, 16 bytes per element, no header). Since a single buffer is limited to 2GB, large vectors are split in
+ * segments of {@link #SEGMENT_ELEMENTS} elements. Nothing is copied to the Java heap when a file is mapped, and bulk
+ * transfers go through {@link FloatBuffer} views, without creating per-element objects.
+ *
+ * TornadoVM kernels work on heap {@link VectorFloat4}s: {@link #copyTo(long, VectorFloat4)} and
+ * {@link #copyFrom(VectorFloat4, long, int)} move chunks between both, so a large dataset can be streamed through an
+ * existing task schedule with a fixed-size staging vector.
+ */
+public class OffHeapVectorFloat4 {
+
+    public static final int BYTES_PER_ELEMENT = 4 * Float.BYTES;
+
+    // 64M elements (1GB) per segment
+    public static final int SEGMENT_ELEMENTS = 1 << 26;
+
+    private final long numElements;
+    private final ByteBuffer[] segments;
+
+    private OffHeapVectorFloat4(long numElements, ByteBuffer[] segments) {
+        this.numElements = numElements;
+        this.segments = segments;
+        for (ByteBuffer segment : segments) {
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Allocates a zero-initialised vector with direct buffers.
+     */
+    public static OffHeapVectorFloat4 allocate(long numElements) {
+        ByteBuffer[] segments = new ByteBuffer[numSegments(numElements)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentElements(numElements, i) * BYTES_PER_ELEMENT);
+        }
+        return new OffHeapVectorFloat4(numElements, segments);
+    }
+
+    /**
+     * Maps an existing file. With {@link FileChannel.MapMode#READ_ONLY} the vector cannot be modified; with
+     * {@link FileChannel.MapMode#READ_WRITE} changes are written back to the file.
+     */
+    public static OffHeapVectorFloat4 map(Path file, FileChannel.MapMode mode) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY ? new StandardOpenOption[] { StandardOpenOption.READ }
+                : new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE };
+        try (FileChannel channel = FileChannel.open(file, options)) {
+            if (channel.size() % BYTES_PER_ELEMENT != 0) {
+                throw new IOException("File size is not a multiple of " + BYTES_PER_ELEMENT + " bytes: " + file);
+            }
+            return map(channel, mode, channel.size() / BYTES_PER_ELEMENT);
+        }
+    }
+
+    /**
+     * Creates (or truncates) a file for {@code numElements} elements and maps it for writing.
+     */
+    public static OffHeapVectorFloat4 create(Path file, long numElements) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return map(channel, FileChannel.MapMode.READ_WRITE, numElements);
+        }
+    }
+
+    private static OffHeapVectorFloat4 map(FileChannel channel, FileChannel.MapMode mode, long numElements) throws IOException {
+        // The mapping stays valid after the channel is closed
+        ByteBuffer[] segments = new ByteBuffer[numSegments(numElements)];
+        for (int i = 0; i < segments.length; i++) {
+            long position = (long) i * SEGMENT_ELEMENTS * BYTES_PER_ELEMENT;
+            segments[i] = channel.map(mode, position, (long) segmentElements(numElements, i) * BYTES_PER_ELEMENT);
+        }
+        return new OffHeapVectorFloat4(numElements, segments);
+    }
+
+    private static int numSegments(long numElements) {
+        return (int) ((numElements + SEGMENT_ELEMENTS - 1) / SEGMENT_ELEMENTS);
+    }
+
+    private static int segmentElements(long numElements, int segment) {
+        return (int) Math.min(SEGMENT_ELEMENTS, numElements - (long) segment * SEGMENT_ELEMENTS);
+    }
+
+    public long getLength() {
+        return numElements;
+    }
+
+    public float get(long index, int component) {
+        return segments[(int) (index / SEGMENT_ELEMENTS)].getFloat(offset(index, component));
+    }
+
+    public void set(long index, int component, float value) {
+        segments[(int) (index / SEGMENT_ELEMENTS)].putFloat(offset(index, component), value);
+    }
+
+    public void set(long index, float x, float y, float z, float w) {
+        ByteBuffer segment = segments[(int) (index / SEGMENT_ELEMENTS)];
+        int offset = offset(index, 0);
+        segment.putFloat(offset, x);
+        segment.putFloat(offset + Float.BYTES, y);
+        segment.putFloat(offset + 2 * Float.BYTES, z);
+        segment.putFloat(offset + 3 * Float.BYTES, w);
+    }
+
+    /**
+     * Convenience accessor, it creates a new {@link Float4}. Use the bulk methods for large transfers.
+     */
+    public Float4 get(long index) {
+        return new Float4(get(index, 0), get(index, 1), get(index, 2), get(index, 3));
+    }
+
+    public void set(long index, Float4 value) {
+        set(index, value.getX(), value.getY(), value.getZ(), value.getW());
+    }
+
+    private static int offset(long index, int component) {
+        return (int) (index % SEGMENT_ELEMENTS) * BYTES_PER_ELEMENT + component * Float.BYTES;
+    }
+
+    /**
+     * Bulk initialisation: copies the remaining floats of {@code source} (4 per element) from the first element on.
+     */
+    public void load(FloatBuffer source) {
+        if (source.remaining() > numElements * 4) {
+            throw new IllegalArgumentException("Source has " + source.remaining() + " floats, the vector holds " + (numElements * 4));
+        }
+        long element = 0;
+        while (source.hasRemaining()) {
+            int segment = (int) (element / SEGMENT_ELEMENTS);
+            FloatBuffer view = view(segment);
+            int count = Math.min(view.remaining(), source.remaining());
+            FloatBuffer chunk = source.duplicate();
+            chunk.limit(chunk.position() + count);
+            view.put(chunk);
+            source.position(source.position() + count);
+            element += count / 4;
+        }
+    }
+
+    /**
+     * Copies {@code destination.getLength()} elements, or fewer at the end of the vector, starting at element
+     * {@code from}, which can be the length of the vector (nothing is copied). Returns the number of elements copied.
+     */
+    public int copyTo(long from, VectorFloat4 destination) {
+        if (from < 0 || from > numElements) {
+            throw new IndexOutOfBoundsException("From: " + from + ", length: " + numElements);
+        }
+        int count = (int) Math.min(destination.getLength(), numElements - from);
+        float[] storage = destination.getArray();
+        int copied = 0;
+        while (copied < count) {
+            long element = from + copied;
+            FloatBuffer view = view((int) (element / SEGMENT_ELEMENTS));
+            view.position((int) (element % SEGMENT_ELEMENTS) * 4);
+            int chunk = Math.min(count - copied, view.remaining() / 4);
+            view.get(storage, copied * 4, chunk * 4);
+            copied += chunk;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the first {@code count} elements of {@code source} starting at element {@code to}.
+     */
+    public void copyFrom(VectorFloat4 source, long to, int count) {
+        if (to < 0 || count < 0 || count > source.getLength() || to > numElements - count) {
+            throw new IndexOutOfBoundsException("To: " + to + ", count: " + count + ", source length: " + source.getLength() + ", length: " + numElements);
+        }
+        float[] storage = source.getArray();
+        int copied = 0;
+        while (copied < count) {
+            long element = to + copied;
+            FloatBuffer view = view((int) (element / SEGMENT_ELEMENTS));
+            view.position((int) (element % SEGMENT_ELEMENTS) * 4);
+            int chunk = Math.min(count - copied, view.remaining() / 4);
+            view.put(storage, copied * 4, chunk * 4);
+            copied += chunk;
+        }
+    }
+
+    /**
+     * Flushes changes of a memory-mapped vector to its file. No-op for allocated vectors.
+     */
+    public void force() {
+        for (ByteBuffer segment : segments) {
+            if (segment instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    private FloatBuffer view(int segment) {
+        ByteBuffer buffer = segments[segment].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.clear();
+        return buffer.asFloatBuffer();
+    }
+}
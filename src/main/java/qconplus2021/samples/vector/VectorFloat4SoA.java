@@ -0,0 +1,309 @@
+/*
+ * Copyright 2021, Juan Fumero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qconplus2021.samples.vector;
+
+import uk.ac.manchester.tornado.api.TaskSchedule;
+import uk.ac.manchester.tornado.api.annotations.Parallel;
+import uk.ac.manchester.tornado.api.collections.math.TornadoMath;
+import uk.ac.manchester.tornado.api.collections.types.VectorFloat4;
+
+import java.util.stream.IntStream;
+
+/**
+ * Structure-of-arrays alternative to {@link VectorFloat4}: the x, y, z and w components are stored in four contiguous
+ * {@code float[]} lanes instead of interleaved.
+ *
+ * Kernels that only touch one or two components read just those lanes, and the per-lane loops are simple enough for the
+ * JIT compiler to vectorize them on the CPU. The operations mirror {@code Float4}: add, sub, mult, dot, normalise, plus
+ * {@code scaleX} as an example of a single-component kernel.
+ *
+ * - The static kernels over lanes (annotated with {@link Parallel}) are the sequential versions and the ones compiled by
+ *   TornadoVM; the {@code *Task} methods build task schedules for them.
+ * - The {@code *Parallel} methods are the CPU multi-threaded versions: the vector is split in blocks and every block runs
+ *   the per-lane loops.
+ */
+public class VectorFloat4SoA {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    private final int numElements;
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final float[] w;
+
+    public VectorFloat4SoA(int numElements) {
+        this.numElements = numElements;
+        x = new float[numElements];
+        y = new float[numElements];
+        z = new float[numElements];
+        w = new float[numElements];
+    }
+
+    public int getLength() {
+        return numElements;
+    }
+
+    public float[] getX() {
+        return x;
+    }
+
+    public float[] getY() {
+        return y;
+    }
+
+    public float[] getZ() {
+        return z;
+    }
+
+    public float[] getW() {
+        return w;
+    }
+
+    public static VectorFloat4SoA fromVectorFloat4(VectorFloat4 vector) {
+        VectorFloat4SoA soa = new VectorFloat4SoA(vector.getLength());
+        soa.load(vector);
+        return soa;
+    }
+
+    /**
+     * De-interleaves {@code vector} into the lanes.
+     */
+    public void load(VectorFloat4 vector) {
+        checkLength(vector.getLength());
+        float[] storage = vector.getArray();
+        for (int i = 0; i < numElements; i++) {
+            x[i] = storage[4 * i];
+            y[i] = storage[4 * i + 1];
+            z[i] = storage[4 * i + 2];
+            w[i] = storage[4 * i + 3];
+        }
+    }
+
+    /**
+     * Interleaves the lanes into {@code vector}.
+     */
+    public void store(VectorFloat4 vector) {
+        checkLength(vector.getLength());
+        float[] storage = vector.getArray();
+        for (int i = 0; i < numElements; i++) {
+            storage[4 * i] = x[i];
+            storage[4 * i + 1] = y[i];
+            storage[4 * i + 2] = z[i];
+            storage[4 * i + 3] = w[i];
+        }
+    }
+
+    public VectorFloat4 toVectorFloat4() {
+        VectorFloat4 vector = new VectorFloat4(numElements);
+        store(vector);
+        return vector;
+    }
+
+    private void checkLength(int length) {
+        if (length != numElements) {
+            throw new IllegalArgumentException("Length mismatch: " + length + " vs " + numElements);
+        }
+    }
+
+    // Kernels: sequential versions and TornadoVM versions
+
+    public static void add(float[] ax, float[] ay, float[] az, float[] aw, float[] bx, float[] by, float[] bz, float[] bw, float[] ox, float[] oy, float[] oz, float[] ow) {
+        for (@Parallel int i = 0; i < ax.length; i++) {
+            ox[i] = ax[i] + bx[i];
+            oy[i] = ay[i] + by[i];
+            oz[i] = az[i] + bz[i];
+            ow[i] = aw[i] + bw[i];
+        }
+    }
+
+    public static void sub(float[] ax, float[] ay, float[] az, float[] aw, float[] bx, float[] by, float[] bz, float[] bw, float[] ox, float[] oy, float[] oz, float[] ow) {
+        for (@Parallel int i = 0; i < ax.length; i++) {
+            ox[i] = ax[i] - bx[i];
+            oy[i] = ay[i] - by[i];
+            oz[i] = az[i] - bz[i];
+            ow[i] = aw[i] - bw[i];
+        }
+    }
+
+    public static void mult(float[] ax, float[] ay, float[] az, float[] aw, float[] bx, float[] by, float[] bz, float[] bw, float[] ox, float[] oy, float[] oz, float[] ow) {
+        for (@Parallel int i = 0; i < ax.length; i++) {
+            ox[i] = ax[i] * bx[i];
+            oy[i] = ay[i] * by[i];
+            oz[i] = az[i] * bz[i];
+            ow[i] = aw[i] * bw[i];
+        }
+    }
+
+    public static void dot(float[] ax, float[] ay, float[] az, float[] aw, float[] bx, float[] by, float[] bz, float[] bw, float[] output) {
+        for (@Parallel int i = 0; i < ax.length; i++) {
+            output[i] = ax[i] * bx[i] + ay[i] * by[i] + az[i] * bz[i] + aw[i] * bw[i];
+        }
+    }
+
+    public static void normalise(float[] ax, float[] ay, float[] az, float[] aw, float[] ox, float[] oy, float[] oz, float[] ow) {
+        for (@Parallel int i = 0; i < ax.length; i++) {
+            float length = TornadoMath.sqrt(ax[i] * ax[i] + ay[i] * ay[i] + az[i] * az[i] + aw[i] * aw[i]);
+            ox[i] = ax[i] / length;
+            oy[i] = ay[i] / length;
+            oz[i] = az[i] / length;
+            ow[i] = aw[i] / length;
+        }
+    }
+
+    public static void scaleX(float[] ax, float scale, float[] ox) {
+        for (@Parallel int i = 0; i < ax.length; i++) {
+            ox[i] = ax[i] * scale;
+        }
+    }
+
+    // CPU multi-threaded versions
+
+    interface BlockKernel {
+        void apply(int from, int to);
+    }
+
+    /**
+     * Runs {@code kernel} in parallel over blocks of {@code BLOCK_SIZE} elements. Also used by the AoS versions of
+     * {@link AoSvsSoABenchmark}, so both layouts are compared with the same parallelisation.
+     */
+    static void forEachBlock(int length, BlockKernel kernel) {
+        IntStream.range(0, (length + BLOCK_SIZE - 1) / BLOCK_SIZE).parallel().forEach(block -> {
+            int from = block * BLOCK_SIZE;
+            kernel.apply(from, Math.min(from + BLOCK_SIZE, length));
+        });
+    }
+
+    public static void addParallel(VectorFloat4SoA a, VectorFloat4SoA b, VectorFloat4SoA out) {
+        forEachBlock(a.numElements, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                out.x[i] = a.x[i] + b.x[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.y[i] = a.y[i] + b.y[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.z[i] = a.z[i] + b.z[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.w[i] = a.w[i] + b.w[i];
+            }
+        });
+    }
+
+    public static void subParallel(VectorFloat4SoA a, VectorFloat4SoA b, VectorFloat4SoA out) {
+        forEachBlock(a.numElements, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                out.x[i] = a.x[i] - b.x[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.y[i] = a.y[i] - b.y[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.z[i] = a.z[i] - b.z[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.w[i] = a.w[i] - b.w[i];
+            }
+        });
+    }
+
+    public static void multParallel(VectorFloat4SoA a, VectorFloat4SoA b, VectorFloat4SoA out) {
+        forEachBlock(a.numElements, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                out.x[i] = a.x[i] * b.x[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.y[i] = a.y[i] * b.y[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.z[i] = a.z[i] * b.z[i];
+            }
+            for (int i = from; i < to; i++) {
+                out.w[i] = a.w[i] * b.w[i];
+            }
+        });
+    }
+
+    public static void dotParallel(VectorFloat4SoA a, VectorFloat4SoA b, float[] output) {
+        forEachBlock(a.numElements, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                output[i] = a.x[i] * b.x[i] + a.y[i] * b.y[i] + a.z[i] * b.z[i] + a.w[i] * b.w[i];
+            }
+        });
+    }
+
+    public static void normaliseParallel(VectorFloat4SoA a, VectorFloat4SoA out) {
+        forEachBlock(a.numElements, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                float length = (float) Math.sqrt(a.x[i] * a.x[i] + a.y[i] * a.y[i] + a.z[i] * a.z[i] + a.w[i] * a.w[i]);
+                out.x[i] = a.x[i] / length;
+                out.y[i] = a.y[i] / length;
+                out.z[i] = a.z[i] / length;
+                out.w[i] = a.w[i] / length;
+            }
+        });
+    }
+
+    public static void scaleXParallel(VectorFloat4SoA a, float scale, VectorFloat4SoA out) {
+        forEachBlock(a.numElements, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                out.x[i] = a.x[i] * scale;
+            }
+        });
+    }
+
+    // TornadoVM task schedules
+
+    public static TaskSchedule addTask(String name, VectorFloat4SoA a, VectorFloat4SoA b, VectorFloat4SoA out) {
+        return new TaskSchedule(name) //
+                .task("t0", VectorFloat4SoA::add, a.x, a.y, a.z, a.w, b.x, b.y, b.z, b.w, out.x, out.y, out.z, out.w) //
+                .streamOut(out.x, out.y, out.z, out.w);
+    }
+
+    public static TaskSchedule subTask(String name, VectorFloat4SoA a, VectorFloat4SoA b, VectorFloat4SoA out) {
+        return new TaskSchedule(name) //
+                .task("t0", VectorFloat4SoA::sub, a.x, a.y, a.z, a.w, b.x, b.y, b.z, b.w, out.x, out.y, out.z, out.w) //
+                .streamOut(out.x, out.y, out.z, out.w);
+    }
+
+    public static TaskSchedule multTask(String name, VectorFloat4SoA a, VectorFloat4SoA b, VectorFloat4SoA out) {
+        return new TaskSchedule(name) //
+                .task("t0", VectorFloat4SoA::mult, a.x, a.y, a.z, a.w, b.x, b.y, b.z, b.w, out.x, out.y, out.z, out.w) //
+                .streamOut(out.x, out.y, out.z, out.w);
+    }
+
+    public static TaskSchedule dotTask(String name, VectorFloat4SoA a, VectorFloat4SoA b, float[] output) {
+        return new TaskSchedule(name) //
+                .task("t0", VectorFloat4SoA::dot, a.x, a.y, a.z, a.w, b.x, b.y, b.z, b.w, output) //
+                .streamOut(output);
+    }
+
+    public static TaskSchedule normaliseTask(String name, VectorFloat4SoA a, VectorFloat4SoA out) {
+        return new TaskSchedule(name) //
+                .task("t0", VectorFloat4SoA::normalise, a.x, a.y, a.z, a.w, out.x, out.y, out.z, out.w) //
+                .streamOut(out.x, out.y, out.z, out.w);
+    }
+
+    /**
+     * Single-lane kernel: only the x lanes are transferred to and from the device.
+     */
+    public static TaskSchedule scaleXTask(String name, VectorFloat4SoA a, float scale, VectorFloat4SoA out) {
+        return new TaskSchedule(name) //
+                .task("t0", VectorFloat4SoA::scaleX, a.x, scale, out.x) //
+                .streamOut(out.x);
+    }
+}